@@ -0,0 +1,78 @@
+package fr.laas.fape.benchmarks;
+
+import com.martiansoftware.jsap.JSAPException;
+import fr.laas.fape.anml.model.AnmlProblem;
+import fr.laas.fape.constraints.stnu.Controllability;
+import fr.laas.fape.planning.Planning;
+import fr.laas.fape.planning.core.planning.planner.Planner;
+import fr.laas.fape.planning.core.planning.planner.PlanningOptions;
+import fr.laas.fape.planning.core.planning.states.PartialPlan;
+import fr.laas.fape.planning.exceptions.FAPEException;
+import fr.laas.fape.planning.util.Configuration;
+
+import java.io.File;
+
+/**
+ * A planning problem loaded from the domains directory, together with a planner and partial plans
+ * on which the benchmarks can operate.
+ *
+ * The domains directory is given by the "fape.domains" system property and defaults to planning/domains.
+ */
+public class BenchmarkProblem {
+
+    /** Time given to the planner to reach a plan in the middle of the search space */
+    private static final int SEARCH_TIME_SECONDS = 10;
+
+    public final String file;
+    public final AnmlProblem pb;
+    public final PlanningOptions options;
+    public final Planner planner;
+
+    /** The initial partial plan, attached to the planner. It typically has many open goals. */
+    public final PartialPlan initialPlan;
+
+    /** A partial plan reached by the search, the solution if one was found in the allotted time. */
+    public final PartialPlan searchPlan;
+
+    private BenchmarkProblem(String file) throws JSAPException {
+        this.file = file;
+        this.pb = new AnmlProblem();
+        pb.extendWithAnmlFile(file);
+
+        Configuration config = new Configuration(
+                Planning.getCommandLineParser(false).parse(new String[0]),
+                Planning.getAssociatedConfigFile(file));
+        this.options = Planning.buildOptions(config,
+                Planning.planSelection(config, pb),
+                Planning.flawSelection(config, pb),
+                Planning.useAEpsilon(config, pb));
+
+        this.initialPlan = new PartialPlan(pb, Controllability.PSEUDO_CONTROLLABILITY);
+        this.planner = new Planner(initialPlan, options);
+        PartialPlan sol = planner.search(System.currentTimeMillis() + 1000 * SEARCH_TIME_SECONDS);
+        this.searchPlan = sol != null ? sol : initialPlan;
+    }
+
+    /**
+     * Loads a problem from its path relative to the domains directory,
+     * e.g. "blocks_ipc2-hier/blocks_ipc2-hier.p04-0.pb.anml"
+     */
+    public static BenchmarkProblem load(String problem) {
+        try {
+            return new BenchmarkProblem(new File(domainsDirectory(), problem).getPath());
+        } catch (JSAPException e) {
+            throw new FAPEException("Unable to build the default configuration: "+e);
+        }
+    }
+
+    private static File domainsDirectory() {
+        String dir = System.getProperty("fape.domains");
+        if(dir != null)
+            return new File(dir);
+        // benchmarks might be run from the root of the project or from the benchmarks directory
+        for(String candidate : new String[] { "planning/domains", "../planning/domains" })
+            if(new File(candidate).isDirectory())
+                return new File(candidate);
+        throw new FAPEException("Unable to find the domains directory, set it with -Dfape.domains=...");
+    }
+}
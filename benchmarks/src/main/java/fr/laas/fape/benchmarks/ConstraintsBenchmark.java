@@ -0,0 +1,103 @@
+package fr.laas.fape.benchmarks;
+
+import fr.laas.fape.anml.model.concrete.TPRef;
+import fr.laas.fape.anml.model.concrete.VarRef;
+import fr.laas.fape.constraints.bindings.BindingConstraintNetwork;
+import fr.laas.fape.constraints.stnu.STNU;
+import fr.laas.fape.exceptions.InconsistencyException;
+import fr.laas.fape.planning.core.planning.states.PartialPlan;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy and constraint insertion in the temporal and binding networks of a plan reached by the search.
+ *
+ * Each insertion benchmark explicitly copies the network before inserting a constraint in it, so that every
+ * insertion triggers a propagation on the same network. The cost of the insertion alone is the difference
+ * with the matching copy benchmark. Copies are not made in an invocation-level setup, whose overhead and
+ * timing noise would dominate such short invocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConstraintsBenchmark {
+
+    /** Maximal number of distinct constraints to insert */
+    private static final int MAX_CONSTRAINTS = 100;
+
+    private STNU stn;
+    private BindingConstraintNetwork bindings;
+
+    /** Temporal constraints (from, to, min, max) that are consistent with the STN */
+    private final List<Object[]> temporalConstraints = new ArrayList<>();
+    /** Pairs of variables that are unifiable but not yet unified */
+    private final List<VarRef[]> unifications = new ArrayList<>();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup(ProblemState problem) {
+        PartialPlan plan = problem.data.searchPlan;
+        stn = plan.csp.stn();
+        bindings = plan.csp.bindings();
+
+        List<TPRef> timepoints = new ArrayList<>();
+        for(TPRef tp : stn.timepoints())
+            timepoints.add(tp);
+        for(int i=0 ; i<timepoints.size() && temporalConstraints.size() < MAX_CONSTRAINTS ; i++) {
+            for(int j=i+1 ; j<timepoints.size() && temporalConstraints.size() < MAX_CONSTRAINTS ; j += 7) {
+                TPRef u = timepoints.get(i);
+                TPRef v = timepoints.get(j);
+                int min = stn.getMinDelay(u, v);
+                int max = stn.getMaxDelay(u, v);
+                if(min < max && max - min < Integer.MAX_VALUE / 4)
+                    temporalConstraints.add(new Object[] { u, v, min, (min + max) / 2 });
+            }
+        }
+
+        List<VarRef> unbound = bindings.getUnboundVariables();
+        for(int i=0 ; i<unbound.size() && unifications.size() < MAX_CONSTRAINTS ; i++)
+            for(int j=i+1 ; j<unbound.size() && unifications.size() < MAX_CONSTRAINTS ; j++)
+                if(bindings.unifiable(unbound.get(i), unbound.get(j)) && !bindings.unified(unbound.get(i), unbound.get(j)))
+                    unifications.add(new VarRef[] { unbound.get(i), unbound.get(j) });
+    }
+
+    @Benchmark
+    public STNU stnClone() {
+        return stn.deepCopy();
+    }
+
+    @Benchmark
+    public boolean stnAddConstraint() {
+        if(temporalConstraints.isEmpty())
+            return false;
+        Object[] c = temporalConstraints.get(next++ % temporalConstraints.size());
+        STNU stnCopy = stn.deepCopy();
+        return stnCopy.enforceConstraint((TPRef) c[0], (TPRef) c[1], (Integer) c[2], (Integer) c[3]);
+    }
+
+    @Benchmark
+    public BindingConstraintNetwork bindingsDeepCopy() {
+        return bindings.DeepCopy();
+    }
+
+    @Benchmark
+    public void bindingsAddUnificationConstraint(Blackhole bh) {
+        if(unifications.isEmpty())
+            return;
+        VarRef[] pair = unifications.get(next++ % unifications.size());
+        BindingConstraintNetwork bindingsCopy = bindings.DeepCopy();
+        try {
+            bindingsCopy.AddUnificationConstraint(pair[0], pair[1]);
+            bh.consume(bindingsCopy.isConsistent());
+        } catch (InconsistencyException e) {
+            bh.consume(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fr.laas.fape.benchmarks;
+
+import fr.laas.fape.constraints.stnu.structurals.DistanceMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental Floyd-Warshall propagation of DistanceMatrix, compared with its previous implementation
+ * (LegacyDistanceMatrix) that allocated boxed collections on each call.
+ *
+ * On each invocation, a sequence of random constraints is inserted in a fresh matrix. All constraints are
+ * consistent with a hidden solution, hence the network never becomes inconsistent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceMatrixBenchmark {
+
+    @Param({"50", "200", "500"})
+    public int numNodes;
+
+    /** Constraints as triples (from, to, max distance) */
+    private int[][] constraints;
+
+    private DistanceMatrix matrix;
+    private int[] nodes;
+    private LegacyDistanceMatrix legacy;
+
+    @Setup(Level.Trial)
+    public void generateConstraints() {
+        Random rand = new Random(42);
+        int[] solution = new int[numNodes];
+        for(int i=0 ; i<numNodes ; i++)
+            solution[i] = rand.nextInt(1000);
+        constraints = new int[numNodes * 2][];
+        for(int i=0 ; i<constraints.length ; i++) {
+            int a = rand.nextInt(numNodes);
+            int b = rand.nextInt(numNodes);
+            // satisfied by the solution: solution[b] - solution[a] <= d
+            int d = solution[b] - solution[a] + rand.nextInt(50);
+            constraints[i] = new int[] { a, b, d };
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createMatrices() {
+        matrix = new DistanceMatrix();
+        nodes = new int[numNodes];
+        for(int i=0 ; i<numNodes ; i++)
+            nodes[i] = matrix.createNewNode();
+        legacy = new LegacyDistanceMatrix(numNodes);
+    }
+
+    @Benchmark
+    public int enforceDist() {
+        for(int[] c : constraints)
+            matrix.enforceDist(nodes[c[0]], nodes[c[1]], c[2]);
+        return matrix.getDistance(nodes[0], nodes[numNodes-1]);
+    }
+
+    @Benchmark
+    public int enforceDistLegacy() {
+        for(int[] c : constraints)
+            legacy.enforceDist(c[0], c[1], c[2]);
+        return legacy.getDistance(0, numNodes-1);
+    }
+}
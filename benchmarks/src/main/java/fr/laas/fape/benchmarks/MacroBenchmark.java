@@ -0,0 +1,230 @@
+package fr.laas.fape.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.martiansoftware.jsap.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Runs the planner on a set of problems, each in a fresh JVM, and records the results in a JSON file.
+ *
+ * If a baseline (the JSON output of a previous run) is given, results are compared against it and the
+ * process exits with a non-zero status if a regression is detected, i.e., if a problem solved in the
+ * baseline is not solved anymore, or if its planning time or number of expanded nodes increased by more
+ * than the given tolerance.
+ */
+public class MacroBenchmark {
+
+    /** Differences in planning time below this threshold (ms) are considered noise */
+    private static final long MIN_TIME_DIFFERENCE_MS = 100;
+
+    static SimpleJSAP getCommandLineParser() throws JSAPException {
+        return new SimpleJSAP(
+                "FAPE macro-benchmark",
+                "Runs FAPE on a set of problems, each in a dedicated JVM, and compares the results with a baseline.",
+                new Parameter[]{
+                        new FlaggedOption("warmup")
+                                .setStringParser(JSAP.INTEGER_PARSER)
+                                .setLongFlag("warmup")
+                                .setDefault("1")
+                                .setHelp("Number of unmeasured runs on each problem before the measured one, to warm up the JVM."),
+                        new FlaggedOption("output")
+                                .setStringParser(JSAP.STRING_PARSER)
+                                .setShortFlag('o')
+                                .setLongFlag("output")
+                                .setDefault("benchmark.json")
+                                .setHelp("File in which to write the results (JSON)."),
+                        new FlaggedOption("csv")
+                                .setStringParser(JSAP.STRING_PARSER)
+                                .setLongFlag("csv")
+                                .setRequired(false)
+                                .setHelp("If set, the results are also written in this file as CSV."),
+                        new FlaggedOption("baseline")
+                                .setStringParser(JSAP.STRING_PARSER)
+                                .setShortFlag('b')
+                                .setLongFlag("baseline")
+                                .setRequired(false)
+                                .setHelp("JSON output of a previous run to compare against."),
+                        new FlaggedOption("tolerance")
+                                .setStringParser(JSAP.DOUBLE_PARSER)
+                                .setLongFlag("tolerance")
+                                .setDefault("0.1")
+                                .setHelp("Relative increase of planning time or expanded nodes above which a problem is considered to regress."),
+                        new FlaggedOption("jvm-options")
+                                .setStringParser(JSAP.STRING_PARSER)
+                                .setLongFlag("jvm-options")
+                                .setDefault("-Xmx3000m")
+                                .setHelp("Options given to the JVM running each problem."),
+                        new FlaggedOption("planner-options")
+                                .setStringParser(JSAP.STRING_PARSER)
+                                .setLongFlag("planner-options")
+                                .setDefault("")
+                                .setHelp("Options given to the planner, as accepted by Planning (e.g. \"-t 60 --bind key=value\")."),
+                        new Switch("no-fork", JSAP.NO_SHORTFLAG, "no-fork", "Runs all problems in the current JVM."),
+                        new UnflaggedOption("anml-file")
+                                .setStringParser(JSAP.STRING_PARSER)
+                                .setRequired(true)
+                                .setGreedy(true)
+                                .setHelp("ANML problem files. If it is set to a directory, all files ending with .anml " +
+                                        "(except .dom.anml) in it will be considered.")
+                }
+        );
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleJSAP jsap = getCommandLineParser();
+        JSAPResult config = jsap.parse(args);
+        if(jsap.messagePrinted())
+            System.exit(1);
+
+        final int warmup = config.getInt("warmup");
+        final String[] plannerArgs = splitOptions(config.getString("planner-options"));
+        final String[] jvmOptions = splitOptions(config.getString("jvm-options"));
+
+        List<RunResult> results = new ArrayList<>();
+        for(String problem : problemFiles(config.getStringArray("anml-file"))) {
+            System.out.println("Running: "+problem);
+            RunResult res = config.getBoolean("no-fork") ?
+                    runInCurrentJVM(problem, warmup, plannerArgs) :
+                    runInForkedJVM(problem, warmup, plannerArgs, jvmOptions);
+            System.out.println("  "+res.status+" in "+res.planningTimeMs+"ms, expanded: "+res.expanded);
+            results.add(res);
+        }
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try(Writer w = Files.newBufferedWriter(Paths.get(config.getString("output")), StandardCharsets.UTF_8)) {
+            gson.toJson(results, w);
+        }
+        if(config.contains("csv"))
+            writeCSV(results, config.getString("csv"));
+
+        if(config.contains("baseline")) {
+            List<RunResult> baseline;
+            try(Reader r = Files.newBufferedReader(Paths.get(config.getString("baseline")), StandardCharsets.UTF_8)) {
+                baseline = gson.fromJson(r, new TypeToken<List<RunResult>>(){}.getType());
+            }
+            List<String> regressions = compare(baseline, results, config.getDouble("tolerance"));
+            if(!regressions.isEmpty()) {
+                System.out.println("\n"+regressions.size()+" regression(s) with respect to the baseline:");
+                regressions.forEach(r -> System.out.println("  "+r));
+                System.exit(1);
+            }
+            System.out.println("\nNo regression with respect to the baseline.");
+        }
+    }
+
+    private static String[] splitOptions(String options) {
+        return options.trim().isEmpty() ? new String[0] : options.trim().split("\\s+");
+    }
+
+    /** All problem files in the given paths, sorted. Directories are replaced by the problems they contain. */
+    static List<String> problemFiles(String[] paths) {
+        List<String> files = new ArrayList<>();
+        for(String path : paths) {
+            File f = new File(path);
+            if(f.isDirectory()) {
+                File[] anmls = f.listFiles((File fi) -> fi.getName().endsWith(".anml") && !fi.getName().endsWith(".dom.anml"));
+                if(anmls != null)
+                    for(File anml : anmls)
+                        files.add(anml.getPath());
+            } else if(path.endsWith(".anml") && !path.endsWith(".dom.anml")) {
+                files.add(path);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static RunResult runInCurrentJVM(String problem, int warmup, String[] plannerArgs) {
+        try {
+            for(int i=0 ; i<warmup ; i++)
+                ProblemRunner.run(problem, plannerArgs);
+            System.gc();
+            return ProblemRunner.run(problem, plannerArgs);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return RunResult.error(problem, e.toString());
+        }
+    }
+
+    /** Runs ProblemRunner in a new JVM with the same classpath and parses the result it prints. */
+    private static RunResult runInForkedJVM(String problem, int warmup, String[] plannerArgs, String[] jvmOptions) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(jvmOptions));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ProblemRunner.class.getName());
+        command.add(problem);
+        command.add(Integer.toString(warmup));
+        command.addAll(Arrays.asList(plannerArgs));
+
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            RunResult result = null;
+            try(BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = out.readLine()) != null)
+                    if(line.startsWith(ProblemRunner.RESULT_PREFIX))
+                        result = new Gson().fromJson(line.substring(ProblemRunner.RESULT_PREFIX.length()), RunResult.class);
+            }
+            int exitCode = process.waitFor();
+            if(result == null)
+                return RunResult.error(problem, "Process exited with code "+exitCode+" without result");
+            return result;
+        } catch (IOException e) {
+            return RunResult.error(problem, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RunResult.error(problem, e.toString());
+        }
+    }
+
+    private static void writeCSV(List<RunResult> results, String file) throws IOException {
+        try(PrintWriter w = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            w.println("problem, status, wall-time-ms, planning-time-ms, expanded, generated, fast-forwarded, " +
+                    "peak-heap-bytes, gc-time-ms, makespan, num-actions");
+            for(RunResult r : results)
+                w.println(String.join(", ", r.problem, r.status.toString(),
+                        Long.toString(r.wallTimeMs), Long.toString(r.planningTimeMs),
+                        Integer.toString(r.expanded), Integer.toString(r.generated), Integer.toString(r.fastForwarded),
+                        Long.toString(r.peakHeapBytes), Long.toString(r.gcTimeMs),
+                        Integer.toString(r.makespan), Integer.toString(r.numActions)));
+        }
+    }
+
+    /**
+     * Compares the results with the baseline and returns a description of all regressions.
+     * Problems that are not present in both sets of results are ignored.
+     */
+    static List<String> compare(List<RunResult> baseline, List<RunResult> results, double tolerance) {
+        Map<String, RunResult> base = new HashMap<>();
+        for(RunResult r : baseline)
+            base.put(r.problem, r);
+
+        List<String> regressions = new ArrayList<>();
+        for(RunResult r : results) {
+            RunResult b = base.get(r.problem);
+            if(b == null || !b.isSolved())
+                continue;
+            if(!r.isSolved()) {
+                regressions.add(r.problem+": not solved anymore ("+r.status+")");
+                continue;
+            }
+            if(r.planningTimeMs - b.planningTimeMs > MIN_TIME_DIFFERENCE_MS
+                    && r.planningTimeMs > b.planningTimeMs * (1 + tolerance))
+                regressions.add(String.format("%s: planning time %dms -> %dms", r.problem, b.planningTimeMs, r.planningTimeMs));
+            if(r.expanded > b.expanded * (1 + tolerance))
+                regressions.add(String.format("%s: expanded nodes %d -> %d", r.problem, b.expanded, r.expanded));
+        }
+        return regressions;
+    }
+}
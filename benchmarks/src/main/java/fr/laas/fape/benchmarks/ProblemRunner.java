@@ -0,0 +1,124 @@
+package fr.laas.fape.benchmarks;
+
+import com.google.gson.Gson;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.SimpleJSAP;
+import fr.laas.fape.anml.model.AnmlProblem;
+import fr.laas.fape.constraints.stnu.Controllability;
+import fr.laas.fape.planning.Planning;
+import fr.laas.fape.planning.core.planning.planner.GlobalOptions;
+import fr.laas.fape.planning.core.planning.planner.Planner;
+import fr.laas.fape.planning.core.planning.planner.PlanningOptions;
+import fr.laas.fape.planning.core.planning.states.PartialPlan;
+import fr.laas.fape.planning.exceptions.FAPEException;
+import fr.laas.fape.planning.util.Configuration;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+
+/**
+ * Runs the planner on a single problem: a number of warm-up runs followed by a measured run.
+ *
+ * Usage: ProblemRunner problem-file num-warmup-runs [planner options]
+ * where planner options are the ones accepted by Planning (e.g. "-t 60 --bind key=value").
+ *
+ * The result of the measured run is printed on the standard output as a single line
+ * prefixed with RESULT_PREFIX, followed by its JSON representation.
+ */
+public class ProblemRunner {
+
+    public static final String RESULT_PREFIX = "RESULT ";
+
+    public static void main(String[] args) throws JSAPException {
+        if(args.length < 2) {
+            System.err.println("Usage: ProblemRunner problem-file num-warmup-runs [planner options]");
+            System.exit(1);
+        }
+        final String problem = args[0];
+        final int warmup = Integer.parseInt(args[1]);
+        final String[] plannerArgs = Arrays.copyOfRange(args, 2, args.length);
+
+        RunResult result;
+        try {
+            for(int i=0 ; i<warmup ; i++)
+                run(problem, plannerArgs);
+            System.gc();
+            result = run(problem, plannerArgs);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            result = RunResult.error(problem, e.toString());
+        }
+        System.out.println(RESULT_PREFIX + new Gson().toJson(result));
+        System.exit(0); // make sure no lingering thread keeps the JVM alive
+    }
+
+    /** Runs the planner on the problem with the given command line options and records measures of the run. */
+    static RunResult run(String problem, String[] plannerArgs) throws JSAPException {
+        SimpleJSAP jsap = Planning.getCommandLineParser(false);
+        JSAPResult commandLine = jsap.parse(plannerArgs);
+        if(jsap.messagePrinted())
+            throw new FAPEException("Invalid planner options: "+String.join(" ", plannerArgs));
+        for(String kv : commandLine.getStringArray("bind")) {
+            String[] arr = kv.split("=");
+            GlobalOptions.setOption(arr[0], arr[1]);
+        }
+        Planning.quiet = true;
+
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if(pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        final long gcStart = totalGCTime();
+
+        RunResult res = new RunResult();
+        res.problem = problem;
+
+        final long start = System.currentTimeMillis();
+        final AnmlProblem pb = new AnmlProblem();
+        pb.extendWithAnmlFile(problem);
+        Configuration config = new Configuration(commandLine, Planning.getAssociatedConfigFile(problem));
+        PlanningOptions options = Planning.buildOptions(config,
+                Planning.planSelection(config, pb),
+                Planning.flawSelection(config, pb),
+                Planning.useAEpsilon(config, pb));
+        Planner planner = new Planner(new PartialPlan(pb, Controllability.PSEUDO_CONTROLLABILITY), options);
+
+        final long planningStart = System.currentTimeMillis();
+        PartialPlan sol = planner.search(
+                planningStart + 1000L * config.getInt("max-time"),
+                config.getInt("max-depth"),
+                config.getBoolean("inc-deep"));
+        final long end = System.currentTimeMillis();
+
+        res.wallTimeMs = end - start;
+        res.planningTimeMs = end - planningStart;
+        res.expanded = planner.numExpandedPartialPlans.get();
+        res.generated = planner.numGeneratedPartialPlans.get();
+        res.fastForwarded = planner.numFastForwardedPartialPlans.get();
+        if(sol != null) {
+            res.status = RunResult.Status.SOLVED;
+            res.makespan = sol.getMakespan();
+            res.numActions = sol.getAllActions().size();
+        } else if(planner.planState == Planner.EPlanState.INFEASIBLE) {
+            res.status = RunResult.Status.INFEASIBLE;
+        } else {
+            res.status = RunResult.Status.TIMEOUT;
+        }
+
+        res.gcTimeMs = totalGCTime() - gcStart;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if(pool.getType() == MemoryType.HEAP)
+                res.peakHeapBytes += pool.getPeakUsage().getUsed();
+        return res;
+    }
+
+    private static long totalGCTime() {
+        long total = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+}
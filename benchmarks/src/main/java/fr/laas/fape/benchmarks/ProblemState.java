@@ -0,0 +1,24 @@
+package fr.laas.fape.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+/** JMH state giving access to a loaded problem, parameterized over several domains. */
+@State(Scope.Benchmark)
+public class ProblemState {
+
+    @Param({
+            "blocks_ipc2-hier/blocks_ipc2-hier.p04-0.pb.anml",
+            "logistics_ipc2-hier/logistics_ipc2-hier.p04-0.pb.anml",
+            "rovers_ipc5-hier/rovers_ipc5-hier.p01.pb.anml",
+            "satellite_ipc8/satellite_ipc8.p01.pb.anml",
+            "docks-hier/hier.1.pb.anml"
+    })
+    public String problem;
+
+    public BenchmarkProblem data;
+
+    @Setup(Level.Trial)
+    public void load() {
+        data = BenchmarkProblem.load(problem);
+    }
+}
@@ -0,0 +1,40 @@
+package fr.laas.fape.benchmarks;
+
+/** Measures of a single planner run on a problem, as serialized in the JSON output of the macro-benchmark. */
+public class RunResult {
+
+    public enum Status { SOLVED, TIMEOUT, INFEASIBLE, ERROR }
+
+    public String problem;
+    public Status status;
+
+    /** Time (ms) from the parsing of the problem to the end of search */
+    public long wallTimeMs;
+    /** Time (ms) spent in search */
+    public long planningTimeMs;
+
+    public int expanded;
+    public int generated;
+    public int fastForwarded;
+
+    /** Peak memory used by the heap during the measured run */
+    public long peakHeapBytes;
+    /** Time (ms) spent in garbage collection during the measured run */
+    public long gcTimeMs;
+
+    public int makespan = -1;
+    public int numActions = -1;
+
+    /** Description of the error if the run did not complete normally */
+    public String error;
+
+    public boolean isSolved() { return status == Status.SOLVED; }
+
+    static RunResult error(String problem, String error) {
+        RunResult res = new RunResult();
+        res.problem = problem;
+        res.status = Status.ERROR;
+        res.error = error;
+        return res;
+    }
+}
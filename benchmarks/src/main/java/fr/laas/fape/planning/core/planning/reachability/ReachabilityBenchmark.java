@@ -0,0 +1,94 @@
+package fr.laas.fape.planning.core.planning.reachability;
+
+import fr.laas.fape.benchmarks.ProblemState;
+import fr.laas.fape.planning.core.planning.planner.Planner;
+import fr.laas.fape.planning.core.planning.preprocessing.Preprocessor;
+import fr.laas.fape.planning.core.planning.search.Handler;
+import fr.laas.fape.planning.core.planning.search.flaws.resolvers.Resolver;
+import fr.laas.fape.planning.core.planning.states.PartialPlan;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagation of the reachability graph of a partial plan and grounding of the problem by the preprocessor.
+ *
+ * This is in the package of ReachabilityHandler to be able to trigger the propagation directly.
+ * Plans are explicitly copied in each benchmark: the cost of the propagation alone is the difference
+ * with the planCopy benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReachabilityBenchmark {
+
+    /** Reachability handler of the planner, null if the configuration of the problem does not use one */
+    private ReachabilityHandler handler;
+
+    /** Copy of the initial plan whose reachability graph was propagated */
+    private PartialPlan propagatedPlan;
+
+    /** Resolvers of the first flaw of the propagated plan, each of them giving a delta to propagate */
+    private final List<Resolver> resolvers = new ArrayList<>();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup(ProblemState problem) {
+        Planner planner = problem.data.planner;
+        handler = planner.getHandlers().stream()
+                .filter(h -> h instanceof ReachabilityHandler)
+                .map(h -> (ReachabilityHandler) h)
+                .findFirst().orElse(null);
+
+        propagatedPlan = problem.data.initialPlan.cc(-1);
+        if(handler != null) {
+            handler.apply(propagatedPlan, Handler.StateLifeTime.SELECTION, planner);
+            propagatedPlan.getFlaws(planner.options.flawFinders, (f1, f2) -> 0)
+                    .ifPresent(flaw -> resolvers.addAll(flaw.getResolvers(propagatedPlan, planner)));
+        }
+    }
+
+    /** Copies the propagated plan, to be subtracted from the propagation benchmarks */
+    @Benchmark
+    public PartialPlan planCopy() {
+        return propagatedPlan.cc(-1);
+    }
+
+    /** Builds and propagates the reachability graph of a copy of the initial plan */
+    @Benchmark
+    public PartialPlan reachabilityGraphPropagation(ProblemState problem) {
+        PartialPlan plan = problem.data.initialPlan.cc(-1);
+        if(handler != null)
+            handler.apply(plan, Handler.StateLifeTime.SELECTION, problem.data.planner);
+        return plan;
+    }
+
+    /**
+     * Applies one of the resolvers to a copy of the propagated plan and propagates the resulting delta
+     * in the reachability graph, as done when building a child during search.
+     */
+    @Benchmark
+    public PartialPlan incrementalPropagation(ProblemState problem) {
+        PartialPlan plan = propagatedPlan.cc(-1);
+        if(handler != null && !resolvers.isEmpty()) {
+            Resolver res = resolvers.get(next++ % resolvers.size());
+            if(plan.apply(res.asStateModification(plan), false))
+                handler.apply(plan, Handler.StateLifeTime.SELECTION, problem.data.planner);
+        }
+        return plan;
+    }
+
+    /** Grounds the problem from scratch */
+    @Benchmark
+    public void grounding(ProblemState problem, Blackhole bh) {
+        Preprocessor preprocessor = new Preprocessor(problem.data.planner, problem.data.initialPlan);
+        bh.consume(preprocessor.getGroundProblem());
+        bh.consume(preprocessor.getAllActions());
+    }
+}
@@ -0,0 +1,48 @@
+package fr.laas.fape.planning.core.planning.states;
+
+import fr.laas.fape.benchmarks.ProblemState;
+import fr.laas.fape.planning.core.planning.planner.PlanningOptions;
+import fr.laas.fape.planning.core.planning.timelines.Timeline;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cloning of partial plans and (re)computation of the caches held by their extensions.
+ *
+ * This is in the package of PartialPlan to have access to its package-private extensions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PartialPlanBenchmark {
+
+    @Benchmark
+    public PartialPlan cloneSearchPlan(ProblemState problem) {
+        return problem.data.searchPlan.cc(-1);
+    }
+
+    @Benchmark
+    public PartialPlan cloneInitialPlan(ProblemState problem) {
+        return problem.data.initialPlan.cc(-1);
+    }
+
+    /** Builds a threats cache from scratch, i.e., invokes timelineAdded for every timeline in the plan. */
+    @Benchmark
+    public StateExtension threatsCacheTimelinesAdded(ProblemState problem) {
+        return new ThreatsCache(problem.data.searchPlan);
+    }
+
+    /** Computes the resolvers of all open goals in the initial plan, starting from an empty cache. */
+    @Benchmark
+    public void openGoalSupporters(ProblemState problem, Blackhole bh) {
+        PartialPlan plan = problem.data.initialPlan;
+        PlanningOptions.ActionInsertionStrategy strategy = problem.data.options.actionInsertionStrategy;
+        OpenGoalSupportersCache cache = new OpenGoalSupportersCache(plan);
+        for(Timeline og : plan.tdb.getConsumers())
+            bh.consume(cache.getResolversForOpenGoal(og, strategy));
+    }
+}
@@ -0,0 +1,65 @@
+package fr.laas.fape.benchmarks
+
+import java.util
+
+import fr.laas.fape.constraints.stnu.InconsistentTemporalNetwork
+import fr.laas.fape.constraints.stnu.structurals.DistanceMatrix.{INF, plus}
+
+import scala.collection.mutable
+
+/**
+  * Propagation of DistanceMatrix.enforceDist as it was implemented before work buffers were reused:
+  * updated edges, I and J are recorded in boxed collections and active nodes are recomputed on each call.
+  * Only used as a reference in DistanceMatrixBenchmark.
+  */
+final class LegacyDistanceMatrix(size: Int) {
+
+  private val dists: Array[Array[Int]] = Array.fill(size)({
+    val row = new Array[Int](size)
+    util.Arrays.fill(row, INF)
+    row
+  })
+  for(i <- 0 until size)
+    dists(i)(i) = 0
+  private val emptySpots = new util.BitSet()
+
+  /** Number of updated edges reported by the last propagation (would be given to listeners). */
+  var numUpdated = 0
+
+  def enforceDist(a: Int, b: Int, d: Int): Unit = {
+    if(plus(d, dists(b)(a)) < 0)
+      throw new InconsistentTemporalNetwork
+    if(d >= dists(a)(b))
+      return // constraint is dominated
+
+    dists(a)(b) = d
+    val updatedEdges = mutable.ArrayBuffer[(Int,Int)]()
+    updatedEdges += ((a,b))
+    val nodes = dists.indices.filterNot(emptySpots.get)
+
+    val I = mutable.ArrayBuffer[Int]()
+    val J = mutable.ArrayBuffer[Int]()
+    for(k <- nodes if k != a && k!= b) {
+      if(dists(k)(b) > plus(dists(k)(a), d)) {
+        dists(k)(b) = plus(dists(k)(a), d)
+        updatedEdges += ((k,b))
+        I += k
+      }
+      if(dists(a)(k) > plus(d, dists(b)(k))) {
+        dists(a)(k) = plus(d, dists(b)(k))
+        updatedEdges += ((a,k))
+        J += k
+      }
+    }
+    for(i <- I ; j <- J if i != j) {
+      if(dists(i)(j) > plus(dists(i)(a), dists(a)(j))) {
+        dists(i)(j) = plus(dists(i)(a), dists(a)(j))
+        updatedEdges += ((i,j))
+      }
+    }
+    for(_ <- updatedEdges) // stands for the notification of listeners
+      numUpdated += 1
+  }
+
+  def getDistance(a: Int, b: Int): Int = dists(a)(b)
+}
@@ -5,6 +5,9 @@ import fr.laas.fape.anml.model.concrete.TPRef;
 import fr.laas.fape.anml.model.concrete.VarRef;
 import fr.laas.fape.constraints.bindings.BindingConstraintNetwork;
 import fr.laas.fape.constraints.stnu.Controllability;
+import fr.laas.fape.constraints.stnu.STNU;
+import fr.laas.fape.constraints.stnu.STNUBackend;
+import fr.laas.fape.constraints.stnu.sparse.SparseStn;
 import fr.laas.fape.constraints.stnu.structurals.StnWithStructurals;
 import scala.collection.immutable.List;
 import scala.collection.immutable.Map$;
@@ -12,27 +15,64 @@ import scala.collection.immutable.Map$;
 public class Factory {
 
     public static MetaCSP getMetaWithGivenControllability(Controllability controllability) {
+        return getMetaWithGivenControllability(controllability, STNUBackend.DISTANCE_MATRIX);
+    }
+
+    public static MetaCSP getMetaWithGivenControllability(Controllability controllability, STNUBackend backend) {
         switch (controllability) {
-            case STN_CONSISTENCY: return getMetaWithoutControllability();
-            case PSEUDO_CONTROLLABILITY: return getMetaWithPseudoControllability();
+            case STN_CONSISTENCY: return getMetaWithoutControllability(backend);
+            case PSEUDO_CONTROLLABILITY: return getMetaWithPseudoControllability(backend);
+            case DYNAMIC_CONTROLLABILITY: return getMetaWithDynamicControllability(backend);
             default: throw new UnsupportedOperationException("No MetaCSP for controllability: "+controllability);
         }
     }
 
+    /** Returns an empty STNU implemented by the given backend. */
+    public static STNU getSTNU(STNUBackend backend) {
+        switch (backend) {
+            case DISTANCE_MATRIX: return new StnWithStructurals();
+            case SPARSE_GRAPH: return new SparseStn();
+            default: throw new UnsupportedOperationException("Unsupported STNU backend: "+backend);
+        }
+    }
+
     /** Returns a MetaCSP that will consistent only if the underlying STNU is pseudo controllable */
     public static MetaCSP getMetaWithPseudoControllability() {
+        return getMetaWithPseudoControllability(STNUBackend.DISTANCE_MATRIX);
+    }
+
+    public static MetaCSP getMetaWithPseudoControllability(STNUBackend backend) {
         return new MetaCSP(
                 new BindingConstraintNetwork(),
-                new StnWithStructurals(),
+                getSTNU(backend),
+                Map$.MODULE$.<VarRef, List<PendingConstraint<VarRef,TPRef>>>empty());
+    }
+
+    /**
+     * Returns a MetaCSP that will be consistent only if the underlying STNU is dynamically controllable.
+     * This is checked incrementally and is only supported by the distance matrix backend.
+     */
+    public static MetaCSP getMetaWithDynamicControllability(STNUBackend backend) {
+        if(backend != STNUBackend.DISTANCE_MATRIX)
+            throw new UnsupportedOperationException("Dynamic controllability is not supported by the STNU backend: "+backend);
+        StnWithStructurals stn = new StnWithStructurals();
+        stn.enableDynamicControllabilityChecking();
+        return new MetaCSP(
+                new BindingConstraintNetwork(),
+                stn,
                 Map$.MODULE$.<VarRef, List<PendingConstraint<VarRef,TPRef>>>empty());
     }
 
     /** Returns a MetaCSP that will consistent only if the underlying STNU is validates stn consistency.
      * (contingent constraints are recorded bu not checked. */
     public static MetaCSP getMetaWithoutControllability() {
+        return getMetaWithoutControllability(STNUBackend.DISTANCE_MATRIX);
+    }
+
+    public static MetaCSP getMetaWithoutControllability(STNUBackend backend) {
         return new MetaCSP(
                 new BindingConstraintNetwork(),
-                new StnWithStructurals(),
+                getSTNU(backend),
                 Map$.MODULE$.<VarRef, List<PendingConstraint<VarRef,TPRef>>>empty());
     }
 }
@@ -0,0 +1,197 @@
+package fr.laas.fape.constraints.bindings;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+/**
+ * State of the compact-table propagator of an extension constraint in a given network
+ * (Demeulenaere et al., "Compact-Table: Efficiently Filtering Table Constraints with Reversible Sparse Bit-Sets", CP 2016).
+ *
+ * It keeps a sparse bitset of the tuples that are still valid with respect to the domains: the words of the bitset
+ * together with the indices of its non-zero words. When the domain of a variable is reduced, the tuples supporting
+ * the removed values (or, if fewer, the remaining ones) are masked out of this set. A value is then supported if
+ * its own supports intersect the set of valid tuples. Both operations are linear in the number of non-zero words.
+ *
+ * A state is not shared by several networks: BindingConstraintNetwork copies it before modifying it when it is
+ * shared with a clone or must be restored on rollback.
+ */
+final class CompactTable {
+
+    final ExtensionConstraint table;
+
+    /** Number of tuples of the table when this state was created. If the table has grown since, the state is outdated. */
+    private final int numTuples;
+
+    /** Words of the set of valid tuples */
+    private final long[] words;
+
+    /** The first `limit` entries are the indices of the non-zero words */
+    private final int[] index;
+    private int limit;
+
+    /** Domains of the variables as they were on the last call to filter(), null if never filtered */
+    private final IBitSet[] lastDomains;
+
+    CompactTable(ExtensionConstraint table) {
+        this.table = table;
+        this.numTuples = table.numTuples();
+        this.words = new long[(numTuples + 63) >>> 6];
+        Arrays.fill(words, -1L);
+        if(numTuples % 64 != 0)
+            words[words.length-1] = (1L << numTuples) - 1;
+        this.index = new int[words.length];
+        for(int i=0 ; i<index.length ; i++)
+            index[i] = i;
+        this.limit = words.length;
+        this.lastDomains = new IBitSet[table.numVars()];
+    }
+
+    private CompactTable(CompactTable o) {
+        this.table = o.table;
+        this.numTuples = o.numTuples;
+        this.words = o.words.clone();
+        this.index = o.index.clone();
+        this.limit = o.limit;
+        this.lastDomains = o.lastDomains.clone();
+    }
+
+    CompactTable copy() { return new CompactTable(this); }
+
+    /** False if tuples were added to the table after the creation of this state. */
+    boolean isUpToDate() { return numTuples == table.numTuples(); }
+
+    /** True if no tuple is valid anymore */
+    boolean isEmpty() { return limit == 0; }
+
+    private static final ThreadLocal<long[][]> maskHolder = ThreadLocal.withInitial(() -> new long[][] { new long[64] });
+
+    /** Scratch array of at least numWords words, only the words of `index` are meaningful */
+    private static long[] mask(int numWords) {
+        final long[][] holder = maskHolder.get();
+        if(holder[0].length < numWords)
+            holder[0] = new long[Math.max(numWords, holder[0].length * 2)];
+        return holder[0];
+    }
+
+    private void clearMask(long[] mask) {
+        for(int i=0 ; i<limit ; i++)
+            mask[index[i]] = 0L;
+    }
+
+    private void addToMask(long[] mask, long[] supports) {
+        for(int i=0 ; i<limit ; i++) {
+            final int w = index[i];
+            if(w < supports.length)
+                mask[w] |= supports[w];
+        }
+    }
+
+    /** Keeps the valid tuples that are in the mask (or not in the mask, if inverted) */
+    private void intersectWithMask(long[] mask, boolean inverted) {
+        for(int i=limit-1 ; i>=0 ; i--) {
+            final int w = index[i];
+            final long word = words[w] & (inverted ? ~mask[w] : mask[w]);
+            if(word != words[w]) {
+                words[w] = word;
+                if(word == 0L) {
+                    index[i] = index[limit-1];
+                    index[limit-1] = w;
+                    limit--;
+                }
+            }
+        }
+    }
+
+    /** Removes the tuples that are not compatible with the new domain of the var-th variable. */
+    private void updateTable(int var, IBitSet domain) {
+        final long[] mask = mask(words.length);
+        clearMask(mask);
+        final IBitSet last = lastDomains[var];
+        if(last != null && last.size() - domain.size() < domain.size()) {
+            // fewer values were removed than remain: mask the supports of the removed values
+            final PrimitiveIterator.OfInt it = last.intIterator();
+            while(it.hasNext()) {
+                final int value = it.nextInt();
+                if(!domain.contains(value)) {
+                    final long[] supports = table.supportsOf(var, value);
+                    if(supports != null)
+                        addToMask(mask, supports);
+                }
+            }
+            intersectWithMask(mask, true);
+        } else {
+            final PrimitiveIterator.OfInt it = domain.intIterator();
+            while(it.hasNext()) {
+                final long[] supports = table.supportsOf(var, it.nextInt());
+                if(supports != null)
+                    addToMask(mask, supports);
+            }
+            intersectWithMask(mask, false);
+        }
+    }
+
+    /** True if a valid tuple gives this value to the var-th variable */
+    private boolean isSupported(int var, int value) {
+        final long[] supports = table.supportsOf(var, value);
+        if(supports == null)
+            return false;
+        final int residue = table.residue(var, value);
+        if(residue < supports.length && residue < words.length && (words[residue] & supports[residue]) != 0L)
+            return true;
+        for(int i=0 ; i<limit ; i++) {
+            final int w = index[i];
+            if(w < supports.length && (words[w] & supports[w]) != 0L) {
+                table.setResidue(var, value, w);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the set of valid tuples with the current domains of the variables and replaces, in the given array,
+     * each domain by the values that are supported by at least one valid tuple (generalized arc consistency).
+     * Domains whose values are all supported are left untouched.
+     *
+     * Domains are assumed to only shrink between two calls.
+     *
+     * @return False if no tuple is valid anymore. The domains are then left as is.
+     */
+    boolean filter(IBitSet[] domains) {
+        assert domains.length == lastDomains.length;
+        int numChanged = 0;
+        int lastChanged = -1;
+        for(int var=0 ; var<domains.length && limit > 0 ; var++) {
+            if(lastDomains[var] == null || lastDomains[var].size() != domains[var].size()) {
+                updateTable(var, domains[var]);
+                numChanged++;
+                lastChanged = var;
+            }
+        }
+        if(limit == 0)
+            return false;
+
+        for(int var=0 ; var<domains.length ; var++) {
+            // if a single variable was reduced, all of its remaining values are still supported
+            if(numChanged == 1 && var == lastChanged && lastDomains[var] != null) {
+                lastDomains[var] = domains[var];
+                continue;
+            }
+            final IBitSet domain = domains[var];
+            long[] supported = null; // only copied once an unsupported value is found
+            final PrimitiveIterator.OfInt it = domain.intIterator();
+            while(it.hasNext()) {
+                final int value = it.nextInt();
+                if(!isSupported(var, value)) {
+                    if(supported == null)
+                        supported = domain.elems().clone();
+                    supported[value >> 6] &= ~(1L << value);
+                }
+            }
+            if(supported != null)
+                domains[var] = new IBitSet(supported);
+            lastDomains[var] = domains[var];
+        }
+        return true;
+    }
+}
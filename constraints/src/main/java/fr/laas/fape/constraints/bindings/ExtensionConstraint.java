@@ -7,103 +7,208 @@ import java.util.*;
  * Represents a n-ary constraint defined in extension.
  *
  * It consists of a n-tuple of variables and a set of n-tuples of values.
+ *
+ * For each variable and value, the tuples in which the variable takes this value are indexed in a bitset,
+ * stored as an array of words. Those supports are used by the compact-table propagator (CompactTable) to
+ * filter domains with word-level operations.
  */
 public class ExtensionConstraint {
 
     final String name;
 
+    /**
+     * Tuples of an extension constraint and their supports, as seen by the readers of the constraint.
+     * Never modified once published: the constraint is shared by all copies of a binding network, which might
+     * read it while it is extended from another thread.
+     */
+    private static final class Tables {
+        /** The first numBindings tuples, entries after those might be set later by the writer and are never read */
+        final int[][] bindings;
+        final int numBindings;
+        /** supports[var][value], arrays of this snapshot are copied by the writer before being modified */
+        final long[][][] supports;
+
+        Tables(int[][] bindings, int numBindings, long[][][] supports) {
+            this.bindings = bindings;
+            this.numBindings = numBindings;
+            this.supports = supports;
+        }
+
+        int numWords() { return (numBindings + 63) >>> 6; }
+
+        long[] supportsOf(int var, int value) {
+            return value < supports[var].length ? supports[var][value] : null;
+        }
+    }
+
     /** A set of n-tuples of values { <a1,b1,c1>,<a2,b2,c2> }.
      * If a tuple of variable <A,B,C> are constrained this, their final value must match one of those
      * tuples of values.
+     * Only accessed under the lock of this constraint, readers use the published tables.
      */
-    public int[][] bindings = new int[100][];
+    private int[][] bindings = new int[100][];
     final int numVariables;
-    int numBindings = 0;
+    private int numBindings = 0;
 
     public final boolean isLastVarInteger;
 
+    /** Matches the possible values of a variable to the bindings they appear in. For instance:
+     * [ { a1 -> {0,1}, a2 -> {2,3} },
+     *   { b1 -> {0,2}, b2 -> {1,3} } ]
+     *  means:
+     *   - the value a1 of the first variable appears in the 0th and 1st bindings
+     *   - the value a2 of the first variable appears in the 2nd and 3rd bindings
+     *   - the value b1 of the second variable appears in the 0th and 2nd bindings
+     *   - the value b2 of the second variable appears in the 1st and 3rd bindings
+     *
+     * supports[var][value] are the words of this bitset (null if the value appears in no binding). The array
+     * might be shorter than numWords(), missing words being 0.
+     * Only accessed under the lock of this constraint, readers use the published tables.
+     */
+    private final long[][][] supports;
+
+    /** For each variable, true if supports[var] is not shared with the published tables */
+    private final boolean[] ownedSupports;
+    /** Arrays of words of supports[var][value] that are not shared with the published tables */
+    private final Set<long[]> ownedWords = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Last tables published to readers, replaced on the first read following an addition */
+    private volatile Tables published;
+    /** True if tuples were added since the last publication */
+    private volatile boolean outdated = false;
+
+    /**
+     * For each variable and value, index of the last word in which a support of this value was found by a
+     * compact table. Those residues are shared by all constraints on this extension and are only used as hints:
+     * they are read and written without synchronization.
+     */
+    private final int[][] residues;
+
     public ExtensionConstraint(String name, boolean isLastVarInteger, int numVariables) {
         this.name = name;
         this.isLastVarInteger = isLastVarInteger;
         this.numVariables = numVariables;
+        this.supports = new long[numVariables][0][];
+        this.ownedSupports = new boolean[numVariables];
+        this.residues = new int[numVariables][0];
+        this.published = new Tables(bindings, 0, supports.clone());
     }
 
-    public boolean isEmpty() { return numBindings == 0; }
+    /** Tables containing at least all tuples added before this call */
+    private Tables tables() {
+        if(outdated) {
+            synchronized (this) {
+                if(outdated) {
+                    published = new Tables(bindings, numBindings, supports.clone());
+                    Arrays.fill(ownedSupports, false);
+                    ownedWords.clear();
+                    outdated = false;
+                }
+            }
+        }
+        return published;
+    }
+
+    public boolean isEmpty() { return numTuples() == 0; }
 
     /** Number of variables involved in this constraint */
     public int numVars() {
         return numVariables;
     }
 
-    /** Matches the possible values of a variable to the bindings they appear in. For instance:
-     * [ { a1 -> {0,1}, a2 -> {2,3} },
-     *   { b1 -> {0,2}, b2 -> {1,3} } ]
-     *  means:
-     *   - the value a1 of the first variable appears in the 0th and 1st bindings
-     *   - the value a2 of the first variable appears in the 2nd and 3rd bindings
-     *   - the value b1 of the second variable appears in the 0th and 2nd bindings
-     *   - the value b2 of the second variable appears in the 1st and 3rd bindings
-     */
-    LinkedList<Map<Integer, BitSet>> relevantConstraints = new LinkedList<>();
+    /** Number of allowed tuples */
+    public int numTuples() { return tables().numBindings; }
 
     /** Add a possible binding <a,b,c...> to this constraint */
     public void addValues(List<Integer> vals) {
-        assert vals.size() == numVariables;
-
-        if(numBindings == bindings.length)
-            bindings = Arrays.copyOf(bindings, bindings.length*2);
-
         int[] valsArray = new int[vals.size()];
         for(int i=0 ; i<vals.size() ; i ++)
             valsArray[i] = vals.get(i);
-        this.bindings[numBindings++] = valsArray;
+        addTuple(valsArray);
+    }
 
-        if(relevantConstraints.size() == 0) {
-            for(int i=0 ; i<vals.size() ; i++)
-                relevantConstraints.add(new HashMap<Integer, BitSet>());
-        }
+    /**
+     * Add a possible binding <a,b,c...> to this constraint. The array is kept and should not be modified.
+     * Arrays shared with the published tables are copied before being modified.
+     */
+    public synchronized void addTuple(int[] values) {
+        assert values.length == numVariables;
 
-        for(int i=0 ; i<vals.size() ; i++) {
-            if(!relevantConstraints.get(i).containsKey(vals.get(i)))
-                relevantConstraints.get(i).put(vals.get(i), new BitSet());
-            relevantConstraints.get(i).get(vals.get(i)).set(numBindings-1);
+        if(numBindings == bindings.length)
+            bindings = Arrays.copyOf(bindings, bindings.length*2);
+        final int tuple = numBindings++;
+        bindings[tuple] = values;
+
+        final int word = tuple >>> 6;
+        for(int var=0 ; var<numVariables ; var++) {
+            final int value = values[var];
+            if(value >= supports[var].length) {
+                supports[var] = Arrays.copyOf(supports[var], Math.max(value + 1, supports[var].length * 2));
+                ownedSupports[var] = true;
+            } else if(!ownedSupports[var]) {
+                supports[var] = supports[var].clone();
+                ownedSupports[var] = true;
+            }
+            if(residues[var].length < supports[var].length)
+                residues[var] = Arrays.copyOf(residues[var], supports[var].length);
+            long[] supp = supports[var][value];
+            if(supp == null)
+                supp = new long[word + 1];
+            else if(supp.length <= word)
+                supp = Arrays.copyOf(supp, Math.max(word + 1, supp.length * 2));
+            else if(!ownedWords.contains(supp))
+                supp = supp.clone();
+            ownedWords.add(supp);
+            supp[word] |= 1L << tuple;
+            supports[var][value] = supp;
         }
+        outdated = true;
+    }
+
+    /** Words of the set of tuples in which the var-th variable takes this value, or null if there is none. */
+    long[] supportsOf(int var, int value) {
+        return tables().supportsOf(var, value);
+    }
+
+    int residue(int var, int value) {
+        final int[] res = residues[var];
+        return value < res.length ? res[value] : 0;
+    }
+
+    void setResidue(int var, int value, int word) {
+        final int[] res = residues[var];
+        if(value < res.length)
+            res[value] = word;
     }
 
     /**
      * @param domains Initial domains of the variables.
      * @return Domains restricted do values that can fulfill at least one complete binding.
      */
-    @SuppressWarnings({"unchecked","rawtypes"})
     public IBitSet[] restrictedDomains(IBitSet[] domains) {
         assert domains.length == numVars();
+        final Tables t = tables();
 
-        if(numBindings == 0) { // no possible value in this constraint, all domains are empty
-            IBitSet[] emptyDoms = new IBitSet[domains.length];
-            for(int i=0 ; i<emptyDoms.length ; i++)
-                emptyDoms[i] = new IBitSet();
-            return emptyDoms;
-        }
-
-
-        // will contain a booleans stating if the ith binding is valid according to the given domains
-        BitSet toConsider = new BitSet(numBindings);
-        // at first they are all interesting
-        toConsider.set(0, numBindings);
+        // will contain the bindings that are valid according to the given domains, at first they are all interesting
+        final long[] valid = new long[t.numWords()];
+        Arrays.fill(valid, -1L);
+        if(t.numBindings % 64 != 0)
+            valid[valid.length-1] = (1L << t.numBindings) - 1;
 
+        final long[] local = new long[valid.length];
         for(int var=0 ; var<domains.length ; var++) {
-            // for all variables
-            BitSet local = new BitSet(numBindings);
+            // union of the bindings in which this variable takes a value of its domain
+            Arrays.fill(local, 0L);
             PrimitiveIterator.OfInt it = domains[var].intIterator();
             while(it.hasNext()) {
-                int val = it.nextInt();
-                if(relevantConstraints.get(var).containsKey(val)) {
-                    // add all values that are flagged are relevant for the (var, val) pair
-                    local.or(relevantConstraints.get(var).get(val));
-                }
+                final long[] supp = t.supportsOf(var, it.nextInt());
+                if(supp != null)
+                    for(int w=0 ; w<supp.length && w<local.length ; w++)
+                        local[w] |= supp[w];
             }
-            // relevant constraints are those that were flagged interesting for this variable and all previous ones
-            toConsider.and(local);
+            // relevant bindings are those that were flagged interesting for this variable and all previous ones
+            for(int w=0 ; w<valid.length ; w++)
+                valid[w] &= local[w];
         }
 
         BitSet[] finalDomains = new BitSet[domains.length];
@@ -111,11 +216,10 @@ public class ExtensionConstraint {
             finalDomains[i] = new BitSet();
 
         // get all the valid bindings and augment the domain with those
-        for(int bindingId=0 ; bindingId<numBindings ; bindingId++) {
-            if(toConsider.get(bindingId)) {
-                for(int var=0 ; var<numVars() ; var++)
-                    finalDomains[var].set(bindings[bindingId][var]);
-            }
+        BitSet validBindings = BitSet.valueOf(valid);
+        for(int bindingId = validBindings.nextSetBit(0) ; bindingId >= 0 ; bindingId = validBindings.nextSetBit(bindingId+1)) {
+            for(int var=0 ; var<numVars() ; var++)
+                finalDomains[var].set(t.bindings[bindingId][var]);
         }
 
         IBitSet[] result = new IBitSet[domains.length];
@@ -123,4 +227,4 @@ public class ExtensionConstraint {
             result[i] = new IBitSet(finalDomains[i].toLongArray());
         return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package fr.laas.fape.constraints.stnu;
+
+/** Implementations of the STNU that can be used in a MetaCSP. */
+public enum STNUBackend {
+    /** Minimal network stored in a dense distance matrix, with rigidly constrained timepoints compiled away (StnWithStructurals). */
+    DISTANCE_MATRIX,
+    /** Sparse constraint graph, with distances computed on demand (SparseStn). */
+    SPARSE_GRAPH;
+
+    /** Parses the short name of a backend: "matrix" or "sparse". */
+    public static STNUBackend fromName(String name) {
+        switch (name) {
+            case "matrix": return DISTANCE_MATRIX;
+            case "sparse": return SPARSE_GRAPH;
+            default: throw new IllegalArgumentException("Unknown STNU backend: "+name+" (expected \"matrix\" or \"sparse\")");
+        }
+    }
+}
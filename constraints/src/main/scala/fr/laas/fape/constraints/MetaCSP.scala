@@ -45,6 +45,39 @@ class MetaCSP(
 
   def this(toCopy : MetaCSP) = this(toCopy.bindings.DeepCopy(), toCopy.stn.deepCopy(), toCopy.varsToConstraints)
 
+  /** Pending mixed constraints at the time each open checkpoint was created, most recent first */
+  private var checkpoints : List[Map[VarRef, List[PendingConstraint[VarRef,TPRef]]]] = Nil
+
+  /** True if this CSP supports checkpoint(), rollback() and commit(), which depends on its STN */
+  def isBacktrackable: Boolean = stn.isBacktrackable
+
+  /**
+    * Creates a checkpoint to which the CSP can be restored with rollback(), instead of being copied.
+    * Checkpoints can be nested.
+    */
+  def checkpoint(): Unit = {
+    bindings.checkpoint()
+    stn.checkpoint()
+    checkpoints = varsToConstraints :: checkpoints
+  }
+
+  /** Restores the CSP in the state it had when the last checkpoint was created, and closes this checkpoint. */
+  def rollback(): Unit = {
+    require(checkpoints.nonEmpty, "No checkpoint to roll back to")
+    bindings.rollback()
+    stn.rollback()
+    varsToConstraints = checkpoints.head
+    checkpoints = checkpoints.tail
+  }
+
+  /** Closes the last checkpoint, keeping all modifications made since its creation. */
+  def commit(): Unit = {
+    require(checkpoints.nonEmpty, "No checkpoint to commit")
+    bindings.commit()
+    stn.commit()
+    checkpoints = checkpoints.tail
+  }
+
   def addRequirement(u :TPRef, v:TPRef, value: IntExpression): Unit = {
     if(value.isKnown) {
       stn.enforceMaxDelay(u, v, value.get)
@@ -0,0 +1,77 @@
+package fr.laas.fape.constraints
+
+import java.util
+
+import scala.collection.mutable
+
+/**
+  * Undo log allowing a constraint network to be rolled back to a previous state.
+  *
+  * While at least one checkpoint is open, the network records, before each of its modifications, an action
+  * that restores the previous value. Rolling back replays those actions in reverse order, down to the last
+  * checkpoint. Checkpoints can be nested.
+  *
+  * Actions are only recorded while a checkpoint is open. As recording requires allocating the closure,
+  * callers on a hot path should test isRecording first.
+  */
+final class Trail {
+
+  private val undos = mutable.ArrayBuffer[() => Unit]()
+
+  /** Size of the undo log when each of the open checkpoints was created */
+  private var marks = new Array[Int](8)
+  private var numMarks = 0
+
+  /** Identifier of each of the open checkpoints, never reused by a later checkpoint */
+  private var epochs = new Array[Int](8)
+  private var lastEpoch = 0
+
+  /** True if there is at least one open checkpoint */
+  def isRecording: Boolean = numMarks > 0
+
+  /** Number of open checkpoints */
+  def level: Int = numMarks
+
+  /**
+    * Identifier of the last open checkpoint (0 if there is none). A structure that saved its whole state
+    * when the epoch had this value does not need to save it again until the checkpoint is closed.
+    */
+  def epoch: Int = if(numMarks == 0) 0 else epochs(numMarks - 1)
+
+  /** Records an action to be invoked when rolling back, if there is an open checkpoint. */
+  def record(undo: () => Unit): Unit =
+    if(numMarks > 0)
+      undos += undo
+
+  def checkpoint(): Unit = {
+    if(numMarks == marks.length) {
+      marks = util.Arrays.copyOf(marks, numMarks * 2)
+      epochs = util.Arrays.copyOf(epochs, numMarks * 2)
+    }
+    marks(numMarks) = undos.size
+    lastEpoch += 1
+    epochs(numMarks) = lastEpoch
+    numMarks += 1
+  }
+
+  /** Undoes all modifications made since the last checkpoint, and closes it. */
+  def rollback(): Unit = {
+    require(numMarks > 0, "No checkpoint to roll back to")
+    numMarks -= 1
+    val mark = marks(numMarks)
+    var i = undos.size - 1
+    while(i >= mark) {
+      undos(i).apply()
+      i -= 1
+    }
+    undos.reduceToSize(mark)
+  }
+
+  /** Closes the last checkpoint, keeping all modifications made since then. */
+  def commit(): Unit = {
+    require(numMarks > 0, "No checkpoint to commit")
+    numMarks -= 1
+    if(numMarks == 0)
+      undos.clear() // nothing left to roll back to
+  }
+}
@@ -3,7 +3,8 @@ package fr.laas.fape.constraints.bindings
 import java.util
 
 import fr.laas.fape.anml.model.Type
-import fr.laas.fape.anml.model.concrete.VarRef
+import fr.laas.fape.anml.model.concrete.{InstanceRef, VarRef}
+import fr.laas.fape.constraints.Trail
 import fr.laas.fape.constraints.bindings.BindingConstraintNetwork.ExtID
 
 import scala.collection.JavaConverters._
@@ -18,6 +19,63 @@ object BindingConstraintNetwork {
   var cnt = 0
 }
 
+/** FIFO of the IDs of the domains that were reduced and not yet propagated, each ID appearing at most once. */
+private[bindings] final class DomainQueue(private var ids: Array[Int],
+                                          private var start: Int,
+                                          private var _size: Int,
+                                          private val queued: util.BitSet) {
+  def this() = this(new Array[Int](16), 0, 0, new util.BitSet())
+
+  def isEmpty: Boolean = _size == 0
+  def nonEmpty: Boolean = _size != 0
+
+  /** Appends the ID at the end of the queue. Returns false if it was already in the queue. */
+  def add(id: Int): Boolean = {
+    if(queued.get(id))
+      return false
+    if(_size == ids.length)
+      grow()
+    ids((start + _size) % ids.length) = id
+    _size += 1
+    queued.set(id)
+    true
+  }
+
+  def removeFirst(): Int = {
+    val id = ids(start)
+    start = (start + 1) % ids.length
+    _size -= 1
+    queued.clear(id)
+    id
+  }
+
+  /** Undoes the last call to add() */
+  def removeLast(): Unit = {
+    _size -= 1
+    queued.clear(ids((start + _size) % ids.length))
+  }
+
+  /** Undoes the last call to removeFirst() */
+  def addFirst(id: Int): Unit = {
+    if(_size == ids.length)
+      grow()
+    start = (start - 1 + ids.length) % ids.length
+    ids(start) = id
+    _size += 1
+    queued.set(id)
+  }
+
+  private def grow(): Unit = {
+    val newIds = new Array[Int](ids.length * 2)
+    for(i <- 0 until _size)
+      newIds(i) = ids((start + i) % ids.length)
+    ids = newIds
+    start = 0
+  }
+
+  override def clone(): DomainQueue = new DomainQueue(ids.clone(), start, _size, queued.clone().asInstanceOf[util.BitSet])
+}
+
 class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   def this() = this(None)
@@ -30,10 +88,15 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
   var variables : Array[VarRef] = null
   var domains : Array[Domain] = null
 
+  /** Variables of each domain. The inner buffers are never modified in place and are shared with copies. */
   var vars : ArrayBuffer[ArrayBuffer[VarRef]] = null
   var different : Array[util.BitSet] = null
+  /** Domains whose row in `different` can be modified in place, the other ones being shared with a copy */
+  private var ownedDifferent : util.BitSet = null
   var values : ArrayBuffer[String] = null
   var valuesIds : Map[String, Int] = null
+  /** Instance corresponding to each value ID, null for values that were not recorded as instances */
+  var instances : ArrayBuffer[InstanceRef] = null
 
   var defaultIntDomain : ArrayBuffer[Domain] = null
 
@@ -42,30 +105,60 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   var constraints : mutable.Buffer[Constraint] = null
   var watchers : mutable.Map[VarRef, ArrayBuffer[Constraint]] = null
+  /** Variables whose watchers can be modified in place, the other ones being shared with a copy */
+  private var ownedWatchers : mutable.Set[VarRef] = null
 
+  /** Constraints that were added but never propagated */
   var pendingConstraints : mutable.Set[Constraint] = null
 
+  /** Domains that were reduced since the constraints watching their variables were last propagated */
+  private var reducedDomains : DomainQueue = null
+
   var unusedDomainIds : mutable.Set[DomID] = null
 
+  /** State of the compact table of each n-ary constraint, indexed by the slot of the constraint */
+  private var compactTables : Array[CompactTable] = null
+  private var numCompactTables = 0
+  /** Slots whose compact table can be modified in place, the other ones being shared with a copy of the network */
+  private var ownedCompactTables : util.BitSet = null
+  /** Trail epoch at which the compact table of each slot was last saved (see Trail.epoch) */
+  private var compactTablesSavedAt : Array[Int] = null
+
   var hasEmptyDomains = false
 
   var listener : IntBindingListener[VarRef] = null
 
+  /** Undo log of the modifications made since the first open checkpoint (see checkpoint()), not shared with copies.
+    * Values, extension constraints and the default integer domain are shared by all copies of a network and only
+    * grow: they are not restored on rollback. */
+  private val trail = new Trail()
+
   toCopy match {
     case Some(o) =>
       domIds = o.domIds.clone()
       domains = o.domains.clone()
       variables = o.variables.clone()
-      vars = o.vars.map(x => x.clone())
-      different = o.different.map(x => x.clone().asInstanceOf[util.BitSet])
+      vars = o.vars.clone()
+      different = o.different.clone()
+      ownedDifferent = new util.BitSet()
+      o.ownedDifferent.clear() // rows are now shared with this copy
       values = o.values
       valuesIds = o.valuesIds
+      instances = o.instances
       defaultIntDomain = o.defaultIntDomain
       extensionConstraints = o.extensionConstraints
       constraints = o.constraints.clone()
-      watchers = mutable.Map(o.watchers.mapValues(_.clone()).toSeq: _*)
+      watchers = o.watchers.clone()
+      ownedWatchers = mutable.Set()
+      o.ownedWatchers.clear()
       unusedDomainIds = o.unusedDomainIds.clone()
       pendingConstraints = o.pendingConstraints.clone()
+      reducedDomains = o.reducedDomains.clone()
+      compactTables = o.compactTables.clone()
+      numCompactTables = o.numCompactTables
+      ownedCompactTables = new util.BitSet()
+      o.ownedCompactTables.clear() // tables are now shared with this copy
+      compactTablesSavedAt = new Array[Int](compactTables.length)
     case None =>
       BindingConstraintNetwork.cnt += 1
       domIds = Array.fill(10)(-1) //mutable.Map[VarRef, DomID]()
@@ -73,17 +166,25 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
       domains = Array.fill(10)(null) //mutable.Map[DomID, ValuesHolder]()
       vars = ArrayBuffer[ArrayBuffer[VarRef]]()
       different = Array.fill(increment)(new util.BitSet())
+      ownedDifferent = new util.BitSet()
+      ownedDifferent.set(0, increment)
 
       values = ArrayBuffer[String]()
       valuesIds = Map[String, Int]()
+      instances = ArrayBuffer[InstanceRef]()
       defaultIntDomain = ArrayBuffer(new Domain(Set()))
 
       extensionConstraints = Map()
       constraints = ArrayBuffer()
       watchers = mutable.Map()
+      ownedWatchers = mutable.Set()
 
       unusedDomainIds = mutable.Set()
       pendingConstraints = mutable.Set()
+      reducedDomains = new DomainQueue()
+      compactTables = new Array[CompactTable](16)
+      ownedCompactTables = new util.BitSet()
+      compactTablesSavedAt = new Array[Int](16)
   }
 
   protected[bindings] def allVars = variables
@@ -93,19 +194,155 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   private def allDomIds = vars.indices.filterNot(unusedDomainIds.contains)
 
+  /** Opens a checkpoint: all subsequent modifications can be undone with rollback(). */
+  def checkpoint(): Unit = trail.checkpoint()
+
+  /** Restores the network in the state it had when the last checkpoint was created, and closes this checkpoint. */
+  def rollback(): Unit = trail.rollback()
+
+  /** Closes the last checkpoint, keeping all modifications made since its creation. */
+  def commit(): Unit = trail.commit()
+
+  private def setDomain(id: DomID, dom: Domain): Unit = {
+    if(trail.isRecording) {
+      val prev = domains(id)
+      trail.record(() => domains(id) = prev)
+    }
+    domains(id) = dom
+  }
+
+  private def setDomID(v: VarRef, id: DomID): Unit = {
+    if(trail.isRecording) {
+      val prev = domIds(v.id)
+      trail.record(() => domIds(v.id) = prev)
+    }
+    domIds(v.id) = id
+  }
+
+  private def setVariablesOf(id: DomID, vs: ArrayBuffer[VarRef]): Unit = {
+    if(trail.isRecording) {
+      val prev = vars(id)
+      trail.record(() => vars(id) = prev)
+    }
+    vars(id) = vs
+  }
+
+  /** Returns the row of `different` for this domain, copying it first if it is shared with a copy of the network. */
+  private def ownDifferent(id: DomID): util.BitSet = {
+    if(!ownedDifferent.get(id)) {
+      different(id) = different(id).clone().asInstanceOf[util.BitSet]
+      ownedDifferent.set(id)
+    }
+    different(id)
+  }
+
+  private def setDifferent(id1: DomID, id2: DomID, isDifferent: Boolean): Unit = {
+    if(different(id1).get(id2) != isDifferent) {
+      if(trail.isRecording)
+        trail.record(() => ownDifferent(id1).set(id2, !isDifferent))
+      ownDifferent(id1).set(id2, isDifferent)
+    }
+  }
+
+  /** Returns the constraints watching this variable, copying them first if they are shared with a copy of the network. */
+  private def ownWatchers(v: VarRef): ArrayBuffer[Constraint] = {
+    if(!ownedWatchers.contains(v)) {
+      watchers(v) = watchers(v).clone()
+      ownedWatchers += v
+    }
+    watchers(v)
+  }
+
+  private def addPending(c: Constraint): Unit = {
+    if(pendingConstraints.add(c) && trail.isRecording)
+      trail.record(() => pendingConstraints -= c)
+  }
+
+  private def removePending(c: Constraint): Unit = {
+    if(pendingConstraints.remove(c) && trail.isRecording)
+      trail.record(() => pendingConstraints += c)
+  }
+
+  private def enqueueReduced(id: DomID): Unit = {
+    if(reducedDomains.add(id) && trail.isRecording)
+      trail.record(() => reducedDomains.removeLast())
+  }
+
+  private def dequeueReduced(): DomID = {
+    val id = reducedDomains.removeFirst()
+    if(trail.isRecording)
+      trail.record(() => reducedDomains.addFirst(id))
+    id
+  }
+
+  /** Returns a new slot for the compact table of a n-ary constraint */
+  private def newCompactTableSlot(): Int = {
+    if(numCompactTables == compactTables.length) {
+      compactTables = util.Arrays.copyOf(compactTables, numCompactTables * 2)
+      compactTablesSavedAt = util.Arrays.copyOf(compactTablesSavedAt, numCompactTables * 2)
+    }
+    if(trail.isRecording) {
+      val slot = numCompactTables
+      trail.record(() => { compactTables(slot) = null ; numCompactTables = slot })
+    }
+    numCompactTables += 1
+    numCompactTables - 1
+  }
+
+  private def setCompactTable(slot: Int, table: CompactTable): Unit = {
+    if(trail.isRecording && compactTablesSavedAt(slot) != trail.epoch) {
+      // the previous state is never modified again and is restored as a shared table
+      val prev = compactTables(slot)
+      trail.record(() => { compactTables(slot) = prev ; ownedCompactTables.clear(slot) })
+      compactTablesSavedAt(slot) = trail.epoch
+    }
+    compactTables(slot) = table
+    ownedCompactTables.set(slot)
+  }
+
+  /**
+    * Returns the state of the compact table of this constraint, that can be modified in place.
+    * The state is copied first if it is shared with a copy of the network or was not saved since the last checkpoint.
+    */
+  private[bindings] def compactTableOf(c: NAryConstraint): CompactTable = {
+    val table = compactTables(c.slot)
+    if(table == null || !table.isUpToDate) {
+      // never propagated or tuples were added since: start from all tuples
+      setCompactTable(c.slot, new CompactTable(c.allowedTuple))
+    } else if(!ownedCompactTables.get(c.slot) || trail.isRecording && compactTablesSavedAt(c.slot) != trail.epoch) {
+      setCompactTable(c.slot, table.copy())
+    }
+    compactTables(c.slot)
+  }
+
+  private def setHasEmptyDomains(): Unit = {
+    if(!hasEmptyDomains && trail.isRecording)
+      trail.record(() => hasEmptyDomains = false)
+    hasEmptyDomains = true
+  }
+
   private def newDomID() : DomID = {
     val id =
       if(unusedDomainIds.nonEmpty) {
         val next = unusedDomainIds.head
         unusedDomainIds -= next
+        if(trail.isRecording)
+          trail.record(() => unusedDomainIds += next)
         next
       } else {
         val next = vars.size
         next
       }
 
-    if(vars.size > id) vars(id) = ArrayBuffer[VarRef]()
-    else vars += ArrayBuffer[VarRef]()
+    if(vars.size > id) {
+      setVariablesOf(id, ArrayBuffer[VarRef]())
+    } else {
+      if(trail.isRecording) {
+        val prevSize = vars.size
+        trail.record(() => vars.reduceToSize(prevSize))
+      }
+      vars += ArrayBuffer[VarRef]()
+    }
 
     if(id == different.length) {
       // replace with bigger
@@ -114,6 +351,7 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
       assert(different(prevSize) == null && different(prevSize-1) != null)
       for(i <- prevSize until different.length)
         different(i) = new util.BitSet()
+      ownedDifferent.set(prevSize, different.length)
     }
 
     id
@@ -128,7 +366,7 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   private def domainChanged(id: DomID, causedByExtended: Option[Constraint]): Unit = {
     if(domains(id).size == 0) {
-      hasEmptyDomains = true
+      setHasEmptyDomains()
       throw new VarWithEmptyDomain(vars(id).toList.asJava)
     }
 
@@ -141,7 +379,7 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
         if(diff.get(o)) {
           if(!unusedDomainIds.contains(o)) {
             if(domains(o).contains(uniqueValue)) {
-              domains(o) = domains(o).remove(uniqueValue)
+              setDomain(o, domains(o).remove(uniqueValue))
               domainChanged(o, None)
             }
           }
@@ -150,10 +388,8 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
       }
     }
 
-    for(v <- vars(id)) {
-      if(watchers.contains(v))
-        pendingConstraints ++= watchers(v)
-    }
+    // constraints on this domain will be revised in isConsistent
+    enqueueReduced(id)
 
     // if it is a integer varaible that got binded, notify the listener if any
     if(listener != null && domains(id).size == 1 && isIntegerVar(vars(id).head)) {
@@ -186,6 +422,35 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
   def domainOf(v: VarRef): util.List[String] =
     rawDomain(v).values().asScala.map(values(_)).toList.asJava
 
+  /** Values of the domain of this variable, as given by valueID() */
+  def domainIDs(v: VarRef): IBitSet = rawDomain(v).vals
+
+  /** Value with the given ID */
+  def valueOfID(id: Int): String = values(id)
+
+  /** Instance with the given value ID. The value must have been recorded with addPossibleValue(InstanceRef). */
+  def instanceOfID(id: Int): InstanceRef = {
+    assert(instances(id) != null, s"Value ${values(id)} was not recorded as an instance")
+    instances(id)
+  }
+
+  /** Instances in the domain of this variable */
+  def instancesOf(v: VarRef): util.List[InstanceRef] = {
+    val dom = rawDomain(v)
+    val result = new util.ArrayList[InstanceRef](dom.size)
+    val it = dom.vals.intIterator
+    while(it.hasNext)
+      result.add(instanceOfID(it.nextInt()))
+    result
+  }
+
+  /** Restricts the domain of this variable to the value with the given ID */
+  def bindVariable(v: VarRef, valueID: Int): Unit =
+    restrictDomain(v, new Domain(IBitSet(valueID)))
+
+  def bindVariable(v: VarRef, instance: InstanceRef): Unit =
+    bindVariable(v, valueID(instance))
+
   def unified(a: VarRef, b: VarRef): Boolean =
     domID(a) == domID(b) || domainSize(a) == 1 && domainSize(b) == 1 && rawDomain(a).min == rawDomain(b).min
 
@@ -194,25 +459,41 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
     extensionConstraints += ((setID, new ExtensionConstraint(setID, isLastValInteger, numVariables)))
   }
 
-  def addAllowedTupleToNAryConstraint(setID: String, values: util.List[String]): Unit = {
+  /** Integer code of a value, as found in the domains of non-integer variables */
+  def valueID(value: String): Int = valuesIds(value)
+
+  /** Integer code of an instance. If the instance is recorded as a variable, this is the only value of its domain. */
+  def valueID(instance: InstanceRef): Int =
+    if(isRecorded(instance)) rawDomain(instance).min
+    else valuesIds(instance.instance)
+
+  /**
+    * Adds an allowed tuple of values to a n-ary constraint, the constraint being created if it was not recorded.
+    *
+    * @param values Values of the tuple as given by valueID(), or the value itself for an integer variable.
+    *               The array is kept by the constraint and should not be modified afterwards.
+    */
+  def addAllowedTupleToNAryConstraint(setID: String, values: Array[Int], isLastValInteger: Boolean): Unit = {
     if(!extensionConstraints.contains(setID)) { //TODO: should force usage of record
-      extensionConstraints += ((setID, new ExtensionConstraint(setID, false, values.size())))
+      extensionConstraints += ((setID, new ExtensionConstraint(setID, isLastValInteger, values.length)))
     }
-    val valuesAsIDs = values.asScala.map(valuesIds(_).asInstanceOf[Integer]).toList.asJava
-    extensionConstraints(setID).addValues(valuesAsIDs)
+    extensionConstraints(setID).addTuple(values)
   }
 
-  def addAllowedTupleToNAryConstraint(setID: String, values: util.List[String], lastVal: Int): Unit = {
-    if(!extensionConstraints.contains(setID)) {
-      extensionConstraints += ((setID, new ExtensionConstraint(setID, true, values.size()+1)))
-    }
-    val valuesAsIDs = values.asScala
-      .map(valuesIds(_).asInstanceOf[Integer])
+  def addAllowedTupleToNAryConstraint(setID: String, values: util.List[String]): Unit = {
+    val tuple = new Array[Int](values.size())
+    for(i <- tuple.indices)
+      tuple(i) = valuesIds(values.get(i))
+    addAllowedTupleToNAryConstraint(setID, tuple, isLastValInteger = false)
+  }
 
+  def addAllowedTupleToNAryConstraint(setID: String, values: util.List[String], lastVal: Int): Unit = {
+    val tuple = new Array[Int](values.size() + 1)
+    for(i <- 0 until values.size())
+      tuple(i) = valuesIds(values.get(i))
     addPossibleValue(lastVal)
-    valuesAsIDs.append(lastVal)
-
-    extensionConstraints(setID).addValues(valuesAsIDs.asJava)
+    tuple(values.size()) = lastVal
+    addAllowedTupleToNAryConstraint(setID, tuple, isLastValInteger = true)
   }
 
 
@@ -222,15 +503,31 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
   def separable(a: VarRef, b: VarRef): Boolean =
     !isDiff(a, b) && !unified(a, b)
 
+  /** Values and instances are shared by the copies of a network, which might be built concurrently: they are
+    * only appended under the lock of `values`. */
   def addPossibleValue(value: String) {
+    addPossibleValue(value, null)
+  }
+
+  /** Records an instance as a possible value, allowing its value ID to be converted back to it with instanceOfID() */
+  def addPossibleValue(instance: InstanceRef): Unit = {
+    addPossibleValue(instance.instance, instance)
+  }
+
+  private def addPossibleValue(value: String, instance: InstanceRef): Unit = {
     assert(!valuesIds.contains(value))
-    valuesIds += ((value, values.size))
-    values += value
+    values.synchronized {
+      valuesIds += ((value, values.size))
+      values += value
+      instances += instance
+    }
   }
 
   def addPossibleValue(value: Int): Unit = {
-    if(!defaultIntDomain(0).contains(value)) {
-      defaultIntDomain(0) = defaultIntDomain.head.add(value)
+    defaultIntDomain.synchronized {
+      if(!defaultIntDomain(0).contains(value)) {
+        defaultIntDomain(0) = defaultIntDomain.head.add(value)
+      }
     }
   }
 
@@ -238,18 +535,31 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
     assert(variables.asScala.forall(v => domID(v) >= 0))
     assert(extensionConstraints.contains(setID),
       s"No recorded allowed values with name \'$setID\'. This usually means that no value was assigned to it.")
-    val c = new NAryConstraint(variables.asScala, extensionConstraints(setID))
+    val c = new NAryConstraint(variables.asScala, extensionConstraints(setID), newCompactTableSlot())
     addConstraint(c)
   }
 
   def addConstraint(c: Constraint): Unit = {
+    if(trail.isRecording) {
+      val prevSize = constraints.size
+      trail.record(() => constraints.remove(prevSize, constraints.size - prevSize))
+    }
     constraints += c
     for(v <- c.vars) {
-      if(!watchers.contains(v))
+      if(!watchers.contains(v)) {
         watchers(v) = new ArrayBuffer[Constraint]()
-      watchers(v) += c
+        ownedWatchers += v
+        if(trail.isRecording)
+          trail.record(() => { watchers -= v ; ownedWatchers -= v })
+      }
+      val watching = ownWatchers(v)
+      if(trail.isRecording) {
+        val prevSize = watching.size
+        trail.record(() => ownWatchers(v).reduceToSize(prevSize))
+      }
+      watching += c
     }
-    pendingConstraints += c
+    addPending(c)
   }
 
   def restrictIntDomain(v: VarRef, toValues: util.Collection[Integer]): Unit =
@@ -257,12 +567,12 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   def addSeparationConstraint(a: VarRef, b: VarRef): Unit = {
     if(domID(a) == domID(b)) {
-      hasEmptyDomains = true
+      setHasEmptyDomains()
       throw new VarWithEmptyDomain(List(a, b).asJava)
     }
 
-    different(domID(a)).set(domID(b))
-    different(domID(b)).set(domID(a))
+    setDifferent(domID(a), domID(b), isDifferent = true)
+    setDifferent(domID(b), domID(a), isDifferent = true)
 
     if(domainSize(a) == 1)
       domainChanged(domID(a), None)
@@ -270,13 +580,22 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
       domainChanged(domID(b), None)
   }
 
+  /**
+    * Propagates all constraints that were added since the last call, and then revises the constraints on
+    * reduced domains (in the order in which they were reduced) until a fix point is reached.
+    */
   def isConsistent: Boolean = {
     while(pendingConstraints.nonEmpty && !hasEmptyDomains) {
       val cur = pendingConstraints.head
-      pendingConstraints -= cur
+      removePending(cur)
 
       checkConstraint(cur)
     }
+    while(reducedDomains.nonEmpty && !hasEmptyDomains) {
+      val id = dequeueReduced()
+      for(v <- vars(id) ; if watchers.contains(v) ; c <- watchers(v))
+        c.domainReduced(this, v)
+    }
 
     !hasEmptyDomains
   }
@@ -295,27 +614,35 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
     allDomIds.map(id => (id, "["+ vars(id).mkString(", ") +"]", "  "+domainAsString(vars(id).head))).mkString("\n")
 
   private def merge(id1: DomID, id2: DomID) : Unit = {
-    val newDom = domains(id1).intersect(domains(id2))
-    val domainUpdated = newDom.size < domains(id1).size || newDom.size < domains(id2).size
-
-    domains(id1) = newDom
-    vars(id1) = vars(id1) ++ vars(id2)
+    // reuse one of the two domains if it is included in the other one
+    val scratch = MutableBitSet.acquire().load(domains(id1).vals).and(domains(id2).vals)
+    val newSize = scratch.size
+    val newDom =
+      if(newSize == domains(id1).size) domains(id1)
+      else if(newSize == domains(id2).size) domains(id2)
+      else new Domain(scratch.toIBitSet)
+    MutableBitSet.release(scratch)
+
+    setDomain(id1, newDom)
+    setVariablesOf(id1, vars(id1) ++ vars(id2))
     for(i <- 0 until different(id1).size) {
       if(different(id2).get(i)) {
-        different(id1).set(i)
-        different(i).set(id1)
+        setDifferent(id1, i, isDifferent = true)
+        setDifferent(i, id1, isDifferent = true)
       }
     }
     for(v <- vars(id2))
-      domIds(v.id) = id1
+      setDomID(v, id1)
 
     unusedDomainIds += id2
-    vars(id2) = new ArrayBuffer[VarRef]()
+    if(trail.isRecording)
+      trail.record(() => unusedDomainIds -= id2)
+    setVariablesOf(id2, new ArrayBuffer[VarRef]())
     for(i <- different.indices) {
-      different(i).clear(id2)
-      different(id2).clear(i)
+      setDifferent(i, id2, isDifferent = false)
+      setDifferent(id2, i, isDifferent = false)
     }
-    domains(id2) = null // -= id2
+    setDomain(id2, null) // -= id2
 
     // make sure new constraints are propagated
     domainChanged(id1, None)
@@ -331,12 +658,30 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   def restrictDomain(v: VarRef, domain: Domain): Boolean = restrictDomain(v, domain, None)
 
-  def restrictDomain(v: VarRef, domain: Domain, origin: Option[Constraint]): Boolean = {
-    val newDom = rawDomain(v).intersect(domain)
-    val modified = newDom.size < rawDomain(v).size
+  def restrictDomain(v: VarRef, domain: Domain, origin: Option[Constraint]): Boolean =
+    restrictDomain(v, domain.vals)
+
+  /** Restricts the domain of v to the given values. Returns true if the domain was modified. */
+  def restrictDomain(v: VarRef, values: IBitSet): Boolean = {
+    val scratch = MutableBitSet.acquire().load(values)
+    try {
+      restrictDomain(v, scratch)
+    } finally {
+      MutableBitSet.release(scratch)
+    }
+  }
+
+  /**
+    * Restricts the domain of v to the values of the given scratch bitset, that is modified in the process.
+    * A new domain is only allocated if the domain of v is actually reduced.
+    */
+  def restrictDomain(v: VarRef, values: MutableBitSet): Boolean = {
+    val current = rawDomain(v)
+    values.and(current.vals)
+    val modified = values.size < current.size
     if(modified) {
-      domains(domID(v)) = newDom
-      domainChanged(domID(v), origin)
+      setDomain(domID(v), new Domain(values.toIBitSet))
+      domainChanged(domID(v), None)
     }
     modified
   }
@@ -346,30 +691,36 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
 
   def keepValuesAboveOrEqualTo(v: VarRef, min: Int): Unit = {
     assert(isIntegerVar(v))
-
-    val initialDomain = domainOfIntVar(v).asScala
-    val newDomain = initialDomain.filter(i => i >= min)
-    if(newDomain.size < initialDomain.size) {
-      domains(domID(v)) = intValuesAsDomain(newDomain.asJava)
-      domainChanged(domID(v), None)
+    val scratch = MutableBitSet.acquire().load(rawDomain(v).vals).removeBelow(min)
+    try {
+      restrictDomain(v, scratch)
+    } finally {
+      MutableBitSet.release(scratch)
     }
   }
+
   def keepValuesBelowOrEqualTo(v: VarRef, max: Int): Unit = {
     assert(isIntegerVar(v))
-
-    val initialDomain = domainOfIntVar(v).asScala
-    val newDomain = initialDomain.filter(i => i <= max)
-    if(newDomain.size < initialDomain.size) {
-      domains(domID(v)) = intValuesAsDomain(newDomain.asJava)
-      domainChanged(domID(v), None)
+    val scratch = MutableBitSet.acquire().load(rawDomain(v).vals).removeAbove(max)
+    try {
+      restrictDomain(v, scratch)
+    } finally {
+      MutableBitSet.release(scratch)
     }
   }
 
   def getUnboundVariables: util.List[VarRef] = {
-    val unboundDomains =
-      for (domId <- domains.indices ; if domains(domId) != null && domains(domId).size != 1)
-        yield domId
-    unboundDomains.map(vars(_).head).filter(!isIntegerVar(_)).toList.asJava
+    val unbound = new util.ArrayList[VarRef]()
+    var domId = 0
+    while(domId < domains.length) {
+      if(domains(domId) != null && domains(domId).size != 1) {
+        val v = vars(domId).head
+        if(!isIntegerVar(v))
+          unbound.add(v)
+      }
+      domId += 1
+    }
+    unbound
   }
 
   private val typeDomainCache = mutable.Map[Type,Domain]()
@@ -413,10 +764,12 @@ class BindingConstraintNetwork(toCopy: Option[BindingConstraintNetwork]) {
     val domID = newDomID()
     ensureSpaceForVar(v, domID)
 
-    domIds(v.id) = domID
+    setDomID(v, domID)
+    if(trail.isRecording)
+      trail.record(() => variables(v.id) = null)
     variables(v.id) = v
-    vars(domID) += v
-    domains(domID) = dom
+    setVariablesOf(domID, vars(domID) :+ v)
+    setDomain(domID, dom)
     domainChanged(domID, None)
 
     assert(vars(domID).size == 1)
@@ -0,0 +1,122 @@
+package fr.laas.fape.constraints.bindings
+
+import java.util
+
+import scala.collection.mutable
+
+/**
+  * Mutable bitset used as scratch space during propagation: all operations are made in place and an
+  * immutable IBitSet is only materialized (with toIBitSet) when the result is to be stored in a domain.
+  *
+  * Instances are pooled per thread: they should be obtained with MutableBitSet.acquire() and given back with
+  * MutableBitSet.release() once their content is no longer needed.
+  */
+final class MutableBitSet private() {
+
+  private var words = new Array[Long](16)
+  /** Number of words in use, words after that are 0 */
+  private var nwords = 0
+
+  private def ensureCapacity(n: Int): Unit = {
+    if(n > words.length)
+      words = util.Arrays.copyOf(words, Math.max(n, words.length * 2))
+  }
+
+  def clear(): MutableBitSet = {
+    util.Arrays.fill(words, 0, nwords, 0L)
+    nwords = 0
+    this
+  }
+
+  /** Replaces the content of this bitset by the one of s */
+  def load(s: IBitSet): MutableBitSet = {
+    clear()
+    ensureCapacity(s.nwords)
+    System.arraycopy(s.elems, 0, words, 0, s.nwords)
+    nwords = s.nwords
+    this
+  }
+
+  def and(s: IBitSet): MutableBitSet = {
+    var i = 0
+    while(i < nwords) {
+      words(i) &= (if(i < s.nwords) s.elems(i) else 0L)
+      i += 1
+    }
+    this
+  }
+
+  def or(s: IBitSet): MutableBitSet = {
+    ensureCapacity(s.nwords)
+    var i = 0
+    while(i < s.nwords) {
+      words(i) |= s.elems(i)
+      i += 1
+    }
+    nwords = Math.max(nwords, s.nwords)
+    this
+  }
+
+  def contains(elem: Int): Boolean =
+    elem >= 0 && (elem >> 6) < nwords && (words(elem >> 6) & (1L << elem)) != 0L
+
+  def remove(elem: Int): MutableBitSet = {
+    if(elem >= 0 && (elem >> 6) < nwords)
+      words(elem >> 6) &= ~(1L << elem)
+    this
+  }
+
+  /** Removes all elements strictly below min */
+  def removeBelow(min: Int): MutableBitSet = {
+    val w = Math.min(min >> 6, nwords)
+    util.Arrays.fill(words, 0, w, 0L)
+    if(min > 0 && w < nwords)
+      words(w) &= -1L << min
+    this
+  }
+
+  /** Removes all elements strictly above max */
+  def removeAbove(max: Int): MutableBitSet = {
+    if(max < 0) {
+      clear()
+    } else if((max >> 6) < nwords) {
+      val w = max >> 6
+      words(w) &= -1L >>> (63 - (max & 63))
+      util.Arrays.fill(words, w + 1, nwords, 0L)
+    }
+    this
+  }
+
+  def size: Int = {
+    var s = 0
+    var i = 0
+    while(i < nwords) {
+      s += java.lang.Long.bitCount(words(i))
+      i += 1
+    }
+    s
+  }
+
+  /** Immutable copy of this bitset, without trailing empty words */
+  def toIBitSet: IBitSet = {
+    var len = nwords
+    while(len > 0 && words(len - 1) == 0L)
+      len -= 1
+    new IBitSet(util.Arrays.copyOf(words, len))
+  }
+}
+
+object MutableBitSet {
+
+  private val perThread = new ThreadLocal[mutable.ArrayStack[MutableBitSet]] {
+    override def initialValue() = new mutable.ArrayStack[MutableBitSet]()
+  }
+
+  /** Returns an empty bitset from the pool of this thread. */
+  def acquire(): MutableBitSet = {
+    val pool = perThread.get()
+    if(pool.isEmpty) new MutableBitSet() else pool.pop().clear()
+  }
+
+  def release(bs: MutableBitSet): Unit = perThread.get().push(bs)
+}
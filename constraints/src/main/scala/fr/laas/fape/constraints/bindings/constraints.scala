@@ -11,21 +11,46 @@ trait Constraint {
   def vars: Seq[VarRef]
   def involves(v:VarRef)  : Boolean
   def propagate(csp: BindingConstraintNetwork)
+
+  /** Invoked when the domain of one of the variables of the constraint was reduced. */
+  def domainReduced(csp: BindingConstraintNetwork, v: VarRef): Unit = propagate(csp)
 }
 
-class NAryConstraint(val vars:Seq[VarRef], val allowedTuple: ExtensionConstraint) extends Constraint {
+/**
+  * Constraint restricting a tuple of variables to the tuples of values of an extension constraint.
+  *
+  * It is propagated with a compact table whose state is kept by the network, at the given slot.
+  */
+class NAryConstraint(val vars:Seq[VarRef], val allowedTuple: ExtensionConstraint, val slot: Int) extends Constraint {
   require(vars.size == allowedTuple.numVars())
   val varSet : collection.Set[Int] = mutable.Set[Int](vars.map(_.id): _*)
   override def involves(v: VarRef) = varSet.contains(v.id)
 
-  override def propagate(csp: BindingConstraintNetwork) {
+  private val varsArray = vars.toArray
 
-    val domains = vars.map(v => csp.rawDomain(v).vals).toArray
-    val restrictedDomains = allowedTuple.restrictedDomains(domains)
+  /** The compact table keeps track of the variables that were reduced since its last revision */
+  override def domainReduced(csp: BindingConstraintNetwork, v: VarRef): Unit = propagate(csp)
 
-    for(i <- domains.indices) {
-      if(domains(i).size > restrictedDomains(i).size) {
-        csp.restrictDomain(vars(i), new Domain(restrictedDomains(i)))
+  /**
+    * Restricts the domain of all variables to the values that are supported by at least one allowed tuple
+    * (generalized arc consistency).
+    */
+  override def propagate(csp: BindingConstraintNetwork): Unit = {
+    val domains = new Array[IBitSet](varsArray.length)
+    var i = 0
+    while(i < varsArray.length) {
+      domains(i) = csp.rawDomain(varsArray(i)).vals
+      i += 1
+    }
+    val table = csp.compactTableOf(this)
+    if(!table.filter(domains)) {
+      csp.restrictDomain(varsArray(0), new IBitSet())
+    } else {
+      i = 0
+      while(i < varsArray.length) {
+        if(domains(i) ne csp.rawDomain(varsArray(i)).vals)
+          csp.restrictDomain(varsArray(i), domains(i))
+        i += 1
       }
     }
   }
@@ -35,9 +60,14 @@ class InSetConstraint(val left:VarRef, val right:Set[VarRef]) extends Constraint
   def this(left: VarRef, right: util.Collection[VarRef]) = this(left, right.asScala.toSet)
   val vars: Seq[VarRef] = left :: right.toList
   override def propagate(csp: BindingConstraintNetwork): Unit = {
-    val domains = right.map(v => csp.rawDomain(v))
-    val union = domains.tail.foldLeft(domains.head)((acc, dom) => acc.union(dom))
-    csp.restrictDomain(left, union, Some(this))
+    val union = MutableBitSet.acquire()
+    try {
+      for(v <- right)
+        union.or(csp.rawDomain(v).vals)
+      csp.restrictDomain(left, union)
+    } finally {
+      MutableBitSet.release(union)
+    }
   }
 
   override def involves(v: VarRef): Boolean = right.contains(v)
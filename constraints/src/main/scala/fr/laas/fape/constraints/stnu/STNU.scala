@@ -13,6 +13,42 @@ trait STNU extends STN {
 
   def recordTimePoint(tp: TPRef): Int
 
+  /**
+    * Starts a batch of constraints, ended by a call to endBatch().
+    * Implementations can use it to postpone the work that is triggered by each new constraint and do it
+    * once for the whole batch. Queries made during a batch must still give exact results.
+    * Batches can be nested, in which case only the outermost one is considered.
+    */
+  def startBatch(): Unit = {}
+
+  /** Ends the batch started by the last call to startBatch() */
+  def endBatch(): Unit = {}
+
+  /**
+    * Ends the batch started by the last call to startBatch() after one of its constraints failed.
+    * The work postponed by the batch is dropped: the network must not be used anymore, except for
+    * a rollback to a checkpoint opened before the batch.
+    */
+  def abortBatch(): Unit = {}
+
+  /** True if this network supports checkpoint(), rollback() and commit() */
+  def isBacktrackable: Boolean = false
+
+  /**
+    * Creates a checkpoint to which the network can be restored with rollback().
+    * Checkpoints can be nested and cannot be created in the middle of a batch.
+    */
+  def checkpoint(): Unit =
+    throw new UnsupportedOperationException(getClass.getSimpleName+" does not support checkpoints")
+
+  /** Restores the network in the state it had when the last checkpoint was created, and closes this checkpoint. */
+  def rollback(): Unit =
+    throw new UnsupportedOperationException(getClass.getSimpleName+" does not support checkpoints")
+
+  /** Closes the last checkpoint, keeping all modifications made since its creation. */
+  def commit(): Unit =
+    throw new UnsupportedOperationException(getClass.getSimpleName+" does not support checkpoints")
+
   def removeTimePoint(tp: TPRef): Unit = ???
 
   /** Set the distance from the global start of the STN to tp to time */
@@ -0,0 +1,302 @@
+package fr.laas.fape.constraints.stnu.morris
+
+import java.util
+
+import IncrementalDCMorris._
+
+object IncrementalDCMorris {
+  /** Label of requirement edges */
+  private final val REQ = -1
+
+  /** Label of the lower-case edge of the contingent link ending in node n */
+  private def lowerLabel(n: Int): Int = 2 * n
+  /** Label of the upper-case edge of the contingent link ending in node n */
+  private def upperLabel(n: Int): Int = 2 * n + 1
+
+  private def isUpper(label: Int) = label >= 0 && label % 2 == 1
+  private def contingentNodeOf(label: Int) = label / 2
+
+  /** Edges entering a given node, as parallel arrays */
+  private[morris] final class InEdges(var from: Array[Int], var dist: Array[Int], var label: Array[Int], var size: Int) {
+    def this() = this(new Array[Int](4), new Array[Int](4), new Array[Int](4), 0)
+
+    def add(f: Int, d: Int, l: Int): Unit = {
+      if(size == from.length) {
+        from = util.Arrays.copyOf(from, size * 2)
+        dist = util.Arrays.copyOf(dist, size * 2)
+        label = util.Arrays.copyOf(label, size * 2)
+      }
+      from(size) = f
+      dist(size) = d
+      label(size) = l
+      size += 1
+    }
+
+    /** Index of the requirement edge coming from f, -1 if there is none */
+    def requirementFrom(f: Int): Int = {
+      var i = 0
+      while(i < size) {
+        if(from(i) == f && label(i) == REQ)
+          return i
+        i += 1
+      }
+      -1
+    }
+
+    def copy(): InEdges = new InEdges(from.clone(), dist.clone(), label.clone(), size)
+  }
+
+  /** Thrown when a semi-reducible negative cycle is found */
+  private[morris] final class NotControllable extends Exception(null, null, false, false)
+}
+
+/**
+  * Incremental checking of the dynamic controllability of an STNU with Morris' O(n^3) algorithm
+  * ("Dynamic controllability and dispatchability relationships", CPAIOR 2014), see DCMorris for the batch version.
+  *
+  * Contingent links are put in normal form (a contingent link A ==[l,u]==> C becomes A --[l,l]--> A' ==[0,u-l]==> C)
+  * and all edges are labelled integers in per-node arrays. Edges derived by the back-propagation from a negative node
+  * are kept from one check to the next: as constraints are only added, they remain valid. A negative node is only
+  * propagated again if one of the nodes reached by its last propagation got a new incoming edge since then.
+  *
+  * Incoming edges of a node are shared between clones and copied on first write.
+  */
+final class IncrementalDCMorris private(private var nodeOfTp: Array[Int],
+                                        private var numNodes: Int,
+                                        private var inEdges: Array[InEdges],
+                                        private var owners: Array[AnyRef],
+                                        private val negatives: util.BitSet,
+                                        private val dirty: util.BitSet,
+                                        private var visitedBy: Array[util.BitSet],
+                                        private var notDC: Boolean) {
+
+  def this() = this(Array.fill(16)(-1), 0, new Array[InEdges](16), new Array[AnyRef](16),
+    new util.BitSet(), new util.BitSet(), new Array[util.BitSet](16), false)
+
+  /** Token identifying this checker as the owner of edge lists, replaced whenever the checker is cloned */
+  private var token = new AnyRef
+
+  /** Node whose back-propagation is currently deriving edges, -1 if none */
+  private var currentSource = -1
+
+  override def clone(): IncrementalDCMorris = {
+    token = new AnyRef // lists are now shared with the clone
+    new IncrementalDCMorris(nodeOfTp.clone(), numNodes, inEdges.clone(), new Array[AnyRef](owners.length),
+      negatives.clone().asInstanceOf[util.BitSet], dirty.clone().asInstanceOf[util.BitSet], visitedBy.clone(), notDC)
+  }
+
+  private def newNode(): Int = {
+    if(numNodes == inEdges.length) {
+      inEdges = util.Arrays.copyOf(inEdges, numNodes * 2)
+      owners = util.Arrays.copyOf(owners, numNodes * 2)
+      visitedBy = util.Arrays.copyOf(visitedBy, numNodes * 2)
+    }
+    inEdges(numNodes) = new InEdges()
+    owners(numNodes) = token
+    numNodes += 1
+    numNodes - 1
+  }
+
+  private def nodeOf(tpId: Int): Int = {
+    if(tpId >= nodeOfTp.length) {
+      val prevSize = nodeOfTp.length
+      nodeOfTp = util.Arrays.copyOf(nodeOfTp, Math.max(tpId + 1, prevSize * 2))
+      util.Arrays.fill(nodeOfTp, prevSize, nodeOfTp.length, -1)
+    }
+    if(nodeOfTp(tpId) == -1)
+      nodeOfTp(tpId) = newNode()
+    nodeOfTp(tpId)
+  }
+
+  private def mutableInEdges(n: Int): InEdges = {
+    if(owners(n) ne token) {
+      inEdges(n) = inEdges(n).copy()
+      owners(n) = token
+    }
+    inEdges(n)
+  }
+
+  /**
+    * Adds the edge from -> to, unless it is a requirement edge dominated by an existing one.
+    * Negative nodes whose last propagation reached `to` are marked as needing a new propagation.
+    */
+  private def addEdge(from: Int, to: Int, d: Int, label: Int): Unit = {
+    if(from == to)
+      return
+    if(label == REQ) {
+      val existing = inEdges(to).requirementFrom(from)
+      if(existing != -1 && inEdges(to).dist(existing) <= d)
+        return // dominated
+      if(existing != -1)
+        mutableInEdges(to).dist(existing) = d
+      else
+        mutableInEdges(to).add(from, d, label)
+    } else {
+      mutableInEdges(to).add(from, d, label)
+    }
+    if(d < 0) {
+      negatives.set(to)
+      dirty.set(to)
+    }
+    var s = 0
+    while(s < numNodes) {
+      if(s != currentSource && visitedBy(s) != null && visitedBy(s).get(to))
+        dirty.set(s)
+      s += 1
+    }
+  }
+
+  /** Records the requirement: time(to) - time(from) <= d */
+  def addRequirement(fromTp: Int, toTp: Int, d: Int): Unit =
+    addEdge(nodeOf(fromTp), nodeOf(toTp), d, REQ)
+
+  /** Records the contingent link: time(dst) - time(src) is chosen by nature in [min, max] */
+  def addContingent(srcTp: Int, dstTp: Int, min: Int, max: Int): Unit = {
+    val src = nodeOf(srcTp)
+    val dst = nodeOf(dstTp)
+    // normal form: src --[min,min]--> virt ==[0,max-min]==> dst
+    val virt = newNode()
+    addEdge(src, virt, min, REQ)
+    addEdge(virt, src, -min, REQ)
+    addEdge(virt, dst, 0, lowerLabel(dst))
+    addEdge(dst, virt, -(max - min), upperLabel(dst))
+  }
+
+  /** Propagates the negative nodes that need it and returns true if the network is dynamically controllable. */
+  def isDynamicallyControllable: Boolean = {
+    if(!notDC) {
+      try {
+        val onStack = new util.BitSet()
+        var n = dirty.nextSetBit(0)
+        while(n >= 0) {
+          if(negatives.get(n))
+            backprop(n, onStack)
+          else
+            dirty.clear(n)
+          n = dirty.nextSetBit(0)
+        }
+      } catch {
+        case _: NotControllable => notDC = true
+      }
+    }
+    !notDC
+  }
+
+  /** Back-propagates all negative edges entering source, unless it was already propagated. */
+  private def backprop(source: Int, onStack: util.BitSet): Unit = {
+    if(!dirty.get(source))
+      return
+    dirty.clear(source)
+    onStack.set(source)
+    val visited = new util.BitSet()
+    backprop(source, -1, onStack, visited) // all negative requirement edges together
+    val edges = inEdges(source)
+    var i = 0
+    while(i < edges.size) {
+      if(isUpper(edges.label(i)) && edges.dist(i) < 0)
+        backprop(source, i, onStack, visited)
+      i += 1
+    }
+    visitedBy(source) = visited
+    onStack.clear(source)
+  }
+
+  /**
+    * Dijkstra-like traversal of the edges reaching source through non-negative edges, starting from either the
+    * upperIdx-th incoming edge of source (an upper-case edge) or all its negative requirement edges if upperIdx is -1.
+    */
+  private def backprop(source: Int, upperIdx: Int, onStack: util.BitSet, visited: util.BitSet): Unit = {
+    val queue = new LongHeap()
+    val start = inEdges(source)
+    val excludedLower =
+      if(upperIdx == -1) {
+        var i = 0
+        while(i < start.size) {
+          if(start.label(i) == REQ && start.dist(i) < 0)
+            queue.push(start.dist(i), start.from(i))
+          i += 1
+        }
+        -1
+      } else {
+        queue.push(start.dist(upperIdx), start.from(upperIdx))
+        lowerLabel(contingentNodeOf(start.label(upperIdx)))
+      }
+    if(queue.isEmpty)
+      return
+
+    val expanded = new util.BitSet()
+    while(!queue.isEmpty) {
+      val dist = queue.topPriority
+      val cur = queue.pop()
+      if(!expanded.get(cur)) {
+        expanded.set(cur)
+        visited.set(cur)
+        if(dist >= 0) {
+          val prevSource = currentSource
+          currentSource = source
+          addEdge(cur, source, dist, REQ)
+          currentSource = prevSource
+        } else {
+          if(negatives.get(cur)) {
+            if(cur == source || onStack.get(cur))
+              throw new NotControllable // semi-reducible negative cycle
+            backprop(cur, onStack)
+          }
+          val edges = inEdges(cur)
+          var i = 0
+          while(i < edges.size) {
+            if(edges.dist(i) >= 0 && edges.label(i) != excludedLower)
+              queue.push(dist + edges.dist(i), edges.from(i))
+            i += 1
+          }
+        }
+      }
+    }
+  }
+
+  /** Binary min-heap of nodes prioritized by an int */
+  private final class LongHeap {
+    private var elems = new Array[Long](16)
+    private var size = 0
+
+    def isEmpty: Boolean = size == 0
+
+    def push(priority: Int, node: Int): Unit = {
+      if(size == elems.length)
+        elems = util.Arrays.copyOf(elems, size * 2)
+      var i = size
+      elems(i) = (priority.toLong << 32) | (node & 0xFFFFFFFFL)
+      size += 1
+      while(i > 0 && elems((i - 1) / 2) > elems(i)) {
+        swap(i, (i - 1) / 2)
+        i = (i - 1) / 2
+      }
+    }
+
+    def topPriority: Int = (elems(0) >> 32).toInt
+
+    def pop(): Int = {
+      val top = elems(0)
+      size -= 1
+      elems(0) = elems(size)
+      var i = 0
+      var done = false
+      while(!done) {
+        val l = 2 * i + 1
+        val r = l + 1
+        var smallest = i
+        if(l < size && elems(l) < elems(smallest)) smallest = l
+        if(r < size && elems(r) < elems(smallest)) smallest = r
+        if(smallest == i) done = true
+        else { swap(i, smallest) ; i = smallest }
+      }
+      top.toInt
+    }
+
+    private def swap(i: Int, j: Int): Unit = {
+      val tmp = elems(i)
+      elems(i) = elems(j)
+      elems(j) = tmp
+    }
+  }
+}
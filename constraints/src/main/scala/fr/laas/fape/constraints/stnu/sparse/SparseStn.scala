@@ -0,0 +1,514 @@
+package fr.laas.fape.constraints.stnu.sparse
+
+import java.util
+
+import fr.laas.fape.anml.model.concrete.{ContingentConstraint, MinDelayConstraint, TPRef, TemporalConstraint}
+import fr.laas.fape.anml.pending.IntExpression
+import fr.laas.fape.constraints.stn.DistanceGraphEdge
+import fr.laas.fape.constraints.stnu.{Controllability, InconsistentTemporalNetwork, STNU}
+import fr.laas.fape.constraints.stnu.structurals.DistanceMatrix
+import fr.laas.fape.structures.IList
+
+import scala.collection.mutable
+
+object SparseStn {
+
+  /** Infinity value that does not overflow when added to itself */
+  final val INF: Int = DistanceMatrix.INF
+
+  /** Maximal number of single-source distance vectors kept in cache (in each direction) */
+  final val maxCachedVectors = 64
+
+  private val emptyRow = new Array[Long](0)
+
+  // an edge in a row is packed in a long: target in the 32 high bits, weight in the 32 low bits
+  private def edge(target: Int, weight: Int): Long = (target.toLong << 32) | (weight & 0xFFFFFFFFL)
+  private def target(e: Long): Int = (e >>> 32).toInt
+  private def weight(e: Long): Int = e.toInt
+
+  /** Weight of the edge to target in this row, or INF if there is none. */
+  private def weightTo(row: Array[Long], target: Int): Int = {
+    var i = 0
+    while(i < row.length) {
+      if(SparseStn.target(row(i)) == target)
+        return weight(row(i))
+      i += 1
+    }
+    INF
+  }
+
+  /** Returns a new row in which the edge to target has the given weight. Rows are never modified in place. */
+  private def withEdge(row: Array[Long], target: Int, weight: Int): Array[Long] = {
+    var i = 0
+    while(i < row.length) {
+      if(SparseStn.target(row(i)) == target) {
+        val newRow = row.clone()
+        newRow(i) = edge(target, weight)
+        return newRow
+      }
+      i += 1
+    }
+    val newRow = util.Arrays.copyOf(row, row.length + 1)
+    newRow(row.length) = edge(target, weight)
+    newRow
+  }
+}
+
+/** Binary min-heap of nodes keyed by long values. A node might be present several times: stale entries
+  * must be recognized and ignored by the user. */
+private[sparse] final class NodeHeap {
+  private var keys = new Array[Long](16)
+  private var nodes = new Array[Int](16)
+  private var size = 0
+
+  def isEmpty: Boolean = size == 0
+  def clear(): Unit = size = 0
+  def minKey: Long = keys(0)
+  def minNode: Int = nodes(0)
+
+  def push(node: Int, key: Long): Unit = {
+    if(size == keys.length) {
+      keys = util.Arrays.copyOf(keys, size * 2)
+      nodes = util.Arrays.copyOf(nodes, size * 2)
+    }
+    var i = size
+    size += 1
+    while(i > 0 && keys((i - 1) / 2) > key) {
+      val parent = (i - 1) / 2
+      keys(i) = keys(parent)
+      nodes(i) = nodes(parent)
+      i = parent
+    }
+    keys(i) = key
+    nodes(i) = node
+  }
+
+  def pop(): Unit = {
+    size -= 1
+    val key = keys(size)
+    val node = nodes(size)
+    var i = 0
+    var done = false
+    while(!done) {
+      var child = 2 * i + 1
+      if(child >= size) {
+        done = true
+      } else {
+        if(child + 1 < size && keys(child + 1) < keys(child))
+          child += 1
+        if(keys(child) < key) {
+          keys(i) = keys(child)
+          nodes(i) = nodes(child)
+          i = child
+        } else {
+          done = true
+        }
+      }
+    }
+    keys(i) = key
+    nodes(i) = node
+  }
+}
+
+import SparseStn._
+
+/**
+  * An STNU that only stores the constraints it was given (as a sparse distance graph) instead of the
+  * minimal network.
+  *
+  * Consistency is maintained incrementally through a potential function (a solution of the network):
+  * when an edge is added, the potential is repaired with a Dijkstra search on reduced costs that is
+  * limited to the timepoints whose potential must decrease (Ramalingam & Reps / Cesta & Oddi).
+  * Distances are computed on demand with single-source searches (again on reduced costs, hence with
+  * Dijkstra) and cached until the next modification of the network.
+  *
+  * Rows of the graph are never modified in place, hence a clone only copies arrays of references
+  * that are linear in the number of timepoints.
+  */
+final class SparseStn(private var indexes: Array[Int], // map: tp.id => index, -1 if not recorded
+                      private var timepointByIndex: Array[TPRef],
+                      private var numTimepoints: Int,
+                      private var out: Array[Array[Long]], // outgoing edges of each timepoint
+                      private var in: Array[Array[Long]], // incoming edges of each timepoint
+                      private var potential: Array[Int],
+                      val contingentLinks: mutable.ArrayBuffer[ContingentConstraint],
+                      var optStart: Option[TPRef],
+                      var optEnd: Option[TPRef],
+                      var originalEdges: List[DistanceGraphEdge],
+                      var consistent: Boolean
+                     )
+  extends STNU {
+
+  /** If true, the STNU will check that the network is Pseudo Controllable when invoking isConsistent */
+  var shouldCheckPseudoControllability = true
+
+  def this() = this(Array.fill(10)(-1), new Array[TPRef](10), 0, new Array[Array[Long]](10), new Array[Array[Long]](10),
+    new Array[Int](10), mutable.ArrayBuffer(), None, None, Nil, true)
+
+  override def clone(): SparseStn = new SparseStn(
+    indexes.clone(), timepointByIndex.clone(), numTimepoints, out.clone(), in.clone(), potential.clone(),
+    contingentLinks.clone(), optStart, optEnd, originalEdges, consistent
+  )
+
+  /** Distances from (resp. to) a timepoint to (resp. from) all others, indexed by the timepoint index.
+    * Those are discarded whenever the network is modified. */
+  private val distancesFrom = mutable.HashMap[Int, Array[Int]]()
+  private val distancesTo = mutable.HashMap[Int, Array[Int]]()
+
+  // work buffers, lazily created as they are not shared with clones
+  private var heap: NodeHeap = _
+  private var reducedDists: Array[Long] = _
+  private var touched: Array[Int] = _
+
+  private def isKnown(tp: TPRef) = indexes.length > tp.id && indexes(tp.id) != -1
+  private def toIndex(tp: TPRef): Int = {
+    assert(isKnown(tp), "Unknown timepoint: "+tp)
+    indexes(tp.id)
+  }
+
+  def timepoints: IList[TPRef] = new IList[TPRef](timepointByIndex.iterator.take(numTimepoints).toList)
+
+  private def invalidateDistances(): Unit = {
+    distancesFrom.clear()
+    distancesTo.clear()
+  }
+
+  override def recordTimePoint(tp: TPRef): Int = {
+    assert(!isKnown(tp))
+    if(indexes.length <= tp.id) {
+      val prevSize = indexes.length
+      indexes = util.Arrays.copyOf(indexes, math.max(prevSize * 2, tp.id + 1))
+      util.Arrays.fill(indexes, prevSize, indexes.length, -1)
+    }
+    if(numTimepoints == timepointByIndex.length) {
+      val newLength = numTimepoints * 2
+      timepointByIndex = util.Arrays.copyOf(timepointByIndex, newLength)
+      out = util.Arrays.copyOf(out, newLength)
+      in = util.Arrays.copyOf(in, newLength)
+      potential = util.Arrays.copyOf(potential, newLength)
+    }
+    val id = numTimepoints
+    numTimepoints += 1
+    indexes(tp.id) = id
+    timepointByIndex(id) = tp
+    out(id) = emptyRow
+    in(id) = emptyRow
+    potential(id) = 0 // an isolated timepoint can take any value
+    invalidateDistances()
+    optEnd match {
+      case Some(end) => enforceMinDelay(tp, end, 0)
+      case None =>
+    }
+    id
+  }
+
+  def addMinDelay(from:TPRef, to:TPRef, minDelay:Int) =
+    addEdge(to, from, -minDelay)
+
+  def addMaxDelay(from: TPRef, to: TPRef, maxDelay: Int) =
+    addMinDelay(to, from, -maxDelay)
+
+  /** Records the constraint b - a <= t */
+  private def addEdge(a: TPRef, b: TPRef, t: Int): Unit = {
+    originalEdges = new DistanceGraphEdge(a, b, t) :: originalEdges
+    if(!isKnown(a))
+      recordTimePoint(a)
+    if(!isKnown(b))
+      recordTimePoint(b)
+    addEdge(toIndex(a), toIndex(b), t)
+  }
+
+  private def addEdge(a: Int, b: Int, w: Int): Unit = {
+    if(w >= INF)
+      return // no constraint
+    if(a == b) {
+      if(w < 0) {
+        consistent = false
+        throw new InconsistentTemporalNetwork
+      }
+      return
+    }
+    if(w >= weightTo(out(a), b))
+      return // dominated by an existing edge
+    distancesFrom.get(a) match {
+      case Some(d) if d(b) <= w => return // dominated by an existing path
+      case _ =>
+    }
+
+    val delta = potential(b).toLong - potential(a) - w
+    if(delta > 0)
+      repairPotential(a, b, delta)
+    out(a) = withEdge(out(a), b, w)
+    in(b) = withEdge(in(b), a, w)
+    invalidateDistances()
+  }
+
+  private def ensureWorkBuffers(): Unit = {
+    if(heap == null)
+      heap = new NodeHeap()
+    if(reducedDists == null || reducedDists.length < numTimepoints) {
+      reducedDists = new Array[Long](timepointByIndex.length)
+      util.Arrays.fill(reducedDists, Long.MaxValue)
+      touched = new Array[Int](timepointByIndex.length)
+    }
+  }
+
+  /**
+    * Updates the potential after the addition of an edge a -> b that is violated by delta.
+    * The potential of every timepoint v must decrease by delta - d(b,v) (with d the distance on reduced
+    * costs) if this quantity is positive. Hence the search from b is stopped at this depth.
+    * If a is reached, the new edge closes a negative cycle and the network is inconsistent.
+    */
+  private def repairPotential(a: Int, b: Int, delta: Long): Unit = {
+    ensureWorkBuffers()
+    var numTouched = 0
+    heap.clear()
+    reducedDists(b) = 0
+    touched(numTouched) = b
+    numTouched += 1
+    heap.push(b, 0)
+    var inconsistent = false
+    while(!heap.isEmpty && !inconsistent) {
+      val u = heap.minNode
+      val du = heap.minKey
+      heap.pop()
+      if(u == a) {
+        inconsistent = true
+      } else if(du == reducedDists(u)) {
+        val row = out(u)
+        var i = 0
+        while(i < row.length) {
+          val v = target(row(i))
+          val dv = du + potential(u) + weight(row(i)) - potential(v)
+          if(dv < delta && dv < reducedDists(v)) {
+            if(reducedDists(v) == Long.MaxValue) {
+              touched(numTouched) = v
+              numTouched += 1
+            }
+            reducedDists(v) = dv
+            heap.push(v, dv)
+          }
+          i += 1
+        }
+      }
+    }
+    var i = 0
+    while(i < numTouched) {
+      val v = touched(i)
+      if(!inconsistent)
+        potential(v) -= (delta - reducedDists(v)).toInt
+      reducedDists(v) = Long.MaxValue
+      i += 1
+    }
+    if(inconsistent) {
+      consistent = false
+      throw new InconsistentTemporalNetwork
+    }
+  }
+
+  /**
+    * Distances from src to all timepoints (if forward) or from all timepoints to src (otherwise).
+    * Computed with Dijkstra on the reduced costs given by the potential.
+    */
+  private def singleSource(src: Int, forward: Boolean): Array[Int] = {
+    ensureWorkBuffers()
+    var numTouched = 0
+    heap.clear()
+    reducedDists(src) = 0
+    touched(numTouched) = src
+    numTouched += 1
+    heap.push(src, 0)
+    while(!heap.isEmpty) {
+      val u = heap.minNode
+      val du = heap.minKey
+      heap.pop()
+      if(du == reducedDists(u)) {
+        val row = if(forward) out(u) else in(u)
+        var i = 0
+        while(i < row.length) {
+          val v = target(row(i))
+          val reduced =
+            if(forward) potential(u).toLong + weight(row(i)) - potential(v)
+            else potential(v).toLong + weight(row(i)) - potential(u)
+          val dv = du + reduced
+          if(dv < reducedDists(v)) {
+            if(reducedDists(v) == Long.MaxValue) {
+              touched(numTouched) = v
+              numTouched += 1
+            }
+            reducedDists(v) = dv
+            heap.push(v, dv)
+          }
+          i += 1
+        }
+      }
+    }
+    val dists = new Array[Int](numTimepoints)
+    util.Arrays.fill(dists, INF)
+    var i = 0
+    while(i < numTouched) {
+      val v = touched(i)
+      val d =
+        if(forward) reducedDists(v) - potential(src) + potential(v)
+        else reducedDists(v) - potential(v) + potential(src)
+      dists(v) = math.min(d, INF).toInt
+      reducedDists(v) = Long.MaxValue
+      i += 1
+    }
+    dists
+  }
+
+  private def cached(cache: mutable.HashMap[Int, Array[Int]], src: Int, forward: Boolean): Array[Int] =
+    cache.get(src) match {
+      case Some(d) => d
+      case None =>
+        if(cache.size >= maxCachedVectors)
+          cache.clear()
+        val d = singleSource(src, forward)
+        cache.put(src, d)
+        d
+    }
+
+  private def from(a: Int): Array[Int] = cached(distancesFrom, a, forward = true)
+  private def to(b: Int): Array[Int] = cached(distancesTo, b, forward = false)
+
+  /** Max delay from a to b (i.e. shortest path in the distance graph) */
+  private def dist(a: TPRef, b: TPRef): Int = {
+    val ia = toIndex(a)
+    val ib = toIndex(b)
+    if(ia == ib)
+      0
+    else distancesFrom.get(ia) match {
+      case Some(d) => d(ib)
+      case None => distancesTo.get(ib) match {
+        case Some(d) => d(ia)
+        case None => from(ia)(ib)
+      }
+    }
+  }
+
+  private def minDelay(from: TPRef, to: TPRef) = -dist(to, from)
+  private def maxDelay(from: TPRef, to: TPRef) = dist(from, to)
+
+  /** Makes an independent clone of this STN. */
+  override def deepCopy(): SparseStn = clone()
+
+  /** Record this time point as the global start of the STN */
+  override def recordTimePointAsStart(tp: TPRef): Int = {
+    if(!isKnown(tp))
+      recordTimePoint(tp)
+    setStart(tp)
+    toIndex(tp)
+  }
+
+  def setStart(start: TPRef): Unit = {
+    assert(isKnown(start))
+    assert(optStart.isEmpty || optStart.get == start)
+    optStart = Some(start)
+    optEnd match {
+      case Some(end) => enforceMinDelay(start, end, 0)
+      case None =>
+    }
+  }
+
+  /** Unifies this time point with the global end of the STN */
+  override def recordTimePointAsEnd(tp: TPRef): Int = {
+    if(!isKnown(tp))
+      recordTimePoint(tp)
+    setEnd(tp)
+    toIndex(tp)
+  }
+
+  def setEnd(end: TPRef): Unit = {
+    assert(isKnown(end))
+    assert(optEnd.isEmpty || optEnd.get == end)
+    optEnd = Some(end)
+    for(tp <- timepoints.asScala) {
+      enforceBefore(tp, end)
+    }
+    optStart match {
+      case Some(start) => enforceMinDelay(start, end, 0)
+      case None =>
+    }
+  }
+
+  /** Returns true if the STN is consistent (might trigger a propagation */
+  override def isConsistent(): Boolean = {
+    consistent &&
+      (!shouldCheckPseudoControllability ||
+        contingentLinks.forall(l => isDelayPossible(l.src, l.dst, l.min.lb) && isConstraintPossible(l.src, l.dst, l.max.ub)))
+  }
+
+  override protected def addConstraint(u: TPRef, v: TPRef, w: Int): Unit =
+    addMaxDelay(u, v, w)
+
+  override protected def isConstraintPossible(u: TPRef, v: TPRef, w: Int): Boolean =
+    w + dist(v, u) >= 0
+
+  /** Set the distance from the global start of the STN to tp to time */
+  override def setTime(tp: TPRef, time: Int): Unit =
+    optStart match {
+      case Some(st) =>
+        addMinDelay(st, tp, time)
+        addMaxDelay(st, tp, time)
+      case None => sys.error("This STN has no start timepoint")
+    }
+
+  /** Returns the minimal time from the start of the STN to u */
+  override def getEarliestTime(u: TPRef): Int =
+    optStart match {
+      case Some(st) => -to(toIndex(st))(toIndex(u))
+      case None => sys.error("This STN has no start timepoint")
+    }
+
+  /** Returns the maximal time from the start of the STN to u */
+  override def getLatestTime(u: TPRef): Int =
+    optStart match {
+      case Some(st) => from(toIndex(st))(toIndex(u))
+      case None => sys.error("This STN has no start timepoint")
+    }
+
+  override def enforceContingent(u: TPRef, v: TPRef, min: Int, max: Int): Unit = {
+    addMinDelay(u, v, min)
+    addMaxDelay(u, v, max)
+    contingentLinks.append(new ContingentConstraint(u, v, IntExpression.lit(min), IntExpression.lit(max)))
+  }
+
+  override def getMaxDelay(u: TPRef, v: TPRef): Int = maxDelay(u, v)
+
+  override def getMinDelay(u: TPRef, v: TPRef): Int = minDelay(u, v)
+
+  override def checksPseudoControllability: Boolean = true
+
+  override def checksDynamicControllability: Boolean = false
+
+  override def controllability: Controllability = Controllability.PSEUDO_CONTROLLABILITY
+
+  /** If there is a contingent constraint [min, max] between those two timepoints, it returns
+    * Some((min, max).
+    * Otherwise, None is returned.
+    */
+  override def contingentDelay(from: TPRef, to: TPRef): Option[(Integer, Integer)] =
+    contingentLinks.find(l => l.src == from && l.dst == to) match {
+      case Some(x) => Some(x.min.lb.asInstanceOf[Integer], x.max.ub.asInstanceOf[Integer])
+      case None => None
+    }
+
+  override def start: Option[TPRef] = optStart
+
+  override def end: Option[TPRef] = optEnd
+
+  /** Structural timepoints are compiled away by giving the minimal network on non-structural timepoints.
+    * This requires a single-source search from each non-structural timepoint. */
+  override def getConstraintsWithoutStructurals: IList[TemporalConstraint] = {
+    val nonStructurals = timepoints.asScala.filter(!_.genre.isStructural).toList
+    val constraints =
+      for(tp1 <- nonStructurals ; tp2 <- nonStructurals if tp1 != tp2 && dist(tp1, tp2) < INF)
+        yield new MinDelayConstraint(tp2, tp1, IntExpression.lit(-dist(tp1, tp2)))
+    new IList(contingentLinks.toList ++ constraints)
+  }
+
+  def getOriginalConstraints: IList[TemporalConstraint] = {
+    new IList(originalEdges.map(e => new MinDelayConstraint(e.to, e.from, IntExpression.lit(-e.value))) ++ contingentLinks)
+  }
+}
@@ -11,6 +11,12 @@ object DistanceMatrix {
   /** number of spot to create when needing to grow the network */
   final val growthIncrement = 5
 
+  /** Kinds of entries of the trail, always the last int of an entry */
+  private final val CELL = 0 // [i, j, previous distance, CELL]
+  private final val ROW = 1 // [i, ROW], the previous row being on the stack of trailed rows
+  private final val CREATE = 2 // [node, CREATE]
+  private final val ERASE = 3 // [node, position in active nodes, ERASE]
+
   /** Infinity value that does not overflow when added to itself */
   final val INF :Int = Integer.MAX_VALUE /2 -1
 
@@ -25,6 +31,71 @@ object DistanceMatrix {
     else
       a + b
   }
+
+  /** Same as plus but without assertions, for use in the innermost loops of the propagation. */
+  @inline private[structurals] final def sum(a: Int, b: Int): Int = {
+    if(a == INF || b == INF)
+      INF
+    else {
+      val s = a + b
+      if(s >= INF) INF else s
+    }
+  }
+}
+
+/**
+  * Work buffers of DistanceMatrix.enforceDist, reused from one call to the next by all matrices of a thread.
+  * If a propagation is triggered from a listener while another one is in progress, the nested propagation
+  * gets fresh buffers.
+  */
+private[structurals] final class PropagationBuffers {
+  private var inUse = false
+
+  /** Nodes whose distance to the target (I) or from the source (J) of the new edge was updated */
+  var I: Array[Int] = new Array[Int](16)
+  var numI = 0
+  var J: Array[Int] = new Array[Int](16)
+  var numJ = 0
+
+  /** Updated edges, with the source in the 32 high bits and the target in the 32 low bits */
+  var updated: Array[Long] = new Array[Long](64)
+  var numUpdated = 0
+
+  def clearNodes(numNodes: Int): Unit = {
+    if(I.length < numNodes) {
+      I = new Array[Int](numNodes)
+      J = new Array[Int](numNodes)
+    }
+    numI = 0
+    numJ = 0
+  }
+
+  def clearUpdated(): Unit = numUpdated = 0
+
+  def addUpdated(a: Int, b: Int): Unit = {
+    if(numUpdated == updated.length)
+      updated = util.Arrays.copyOf(updated, numUpdated * 2)
+    updated(numUpdated) = (a.toLong << 32) | (b & 0xFFFFFFFFL)
+    numUpdated += 1
+  }
+}
+
+private[structurals] object PropagationBuffers {
+  private val perThread = new ThreadLocal[PropagationBuffers] {
+    override def initialValue() = new PropagationBuffers()
+  }
+
+  def acquire(): PropagationBuffers = {
+    val buffers = perThread.get()
+    if(buffers.inUse) {
+      new PropagationBuffers() // nested propagation
+    } else {
+      buffers.inUse = true
+      buffers
+    }
+  }
+
+  def release(buffers: PropagationBuffers): Unit = buffers.inUse = false
 }
 
 trait DistanceMatrixListener {
@@ -33,19 +104,78 @@ trait DistanceMatrixListener {
 
 import DistanceMatrix._
 
+/**
+  * Dense matrix of the distances between all active nodes.
+  *
+  * Rows are shared between a matrix and its clones: each row is owned by at most one matrix (identified
+  * by a token) and is copied before being modified by any other one. Hence cloning only copies the array
+  * of rows and the set of empty spots.
+  *
+  * When a node is erased, its spot is only marked as empty. Its row and column are reset when the spot is
+  * reused, to avoid copying all rows of the matrix when compiling away a timepoint.
+  *
+  * While a checkpoint is open, every modification is recorded on a trail (previous value of each updated
+  * cell, created and erased nodes) so that the matrix can be rolled back to the checkpoint. The trail is
+  * not shared with clones.
+  */
 final class DistanceMatrix(
                       private var dists: Array[Array[Int]],
-                      private val emptySpots: util.BitSet
+                      private var rowOwners: Array[AnyRef],
+                      private val emptySpots: util.BitSet,
+                      private var activeNodes: Array[Int], // dense list of all active nodes
+                      private var numActive: Int,
+                      private var positions: Array[Int] // position of each node in activeNodes, -1 if not active
                     ) {
 
-  def this() = this(new Array[Array[Int]](0), new util.BitSet())
+  def this() = this(new Array[Array[Int]](0), new Array[AnyRef](0), new util.BitSet(), new Array[Int](0), 0, new Array[Int](0))
+
+  /** Token identifying this matrix as the owner of rows, replaced whenever the matrix is cloned */
+  private var token: AnyRef = new Object()
+
+  /** Buffers in which edges updated during the current batch are accumulated, null if there is no batch in progress */
+  private var batchBuffers: PropagationBuffers = null
+
+  /** Modifications made since the first open checkpoint, as a sequence of entries whose last int gives the kind */
+  private var trail: Array[Int] = null
+  private var trailSize = 0
+  /** Rows replaced since the first open checkpoint, in the order of the ROW entries of the trail */
+  private val trailedRows = mutable.ArrayStack[Array[Int]]()
+  /** Size of the trail when each open checkpoint was created */
+  private var marks: Array[Int] = null
+  private var numMarks = 0
+
+  private final def isTrailing = numMarks > 0
+
+  private final def pushTrail(x: Int): Unit = {
+    if(trailSize == trail.length)
+      trail = util.Arrays.copyOf(trail, trailSize * 2)
+    trail(trailSize) = x
+    trailSize += 1
+  }
+
+  /** Records the current distance from i to j on the trail, to be called before modifying it. */
+  private final def trailCell(i: Int, j: Int): Unit = {
+    pushTrail(i)
+    pushTrail(j)
+    pushTrail(dists(i)(j))
+    pushTrail(CELL)
+  }
 
   override def clone() : DistanceMatrix = {
-    val newDists = new Array[Array[Int]](dists.length)
-    for(i <- dists.indices if dists(i) != null)
-      newDists(i) = util.Arrays.copyOf(dists(i), dists(i).length)
     val newEmptySpots = emptySpots.clone().asInstanceOf[util.BitSet]
-    new DistanceMatrix(newDists, newEmptySpots)
+    // rows currently owned by this matrix are now shared, neither matrix can modify them in place
+    token = new Object()
+    new DistanceMatrix(dists.clone(), new Array[AnyRef](dists.length), newEmptySpots,
+      activeNodes.clone(), numActive, positions.clone())
+  }
+
+  /** Returns the i-th row, making sure it can be modified by this matrix. */
+  private final def mutableRow(i: Int): Array[Int] = {
+    if(rowOwners(i) ne token) {
+      dists(i) = util.Arrays.copyOf(dists(i), dists(i).length)
+      rowOwners(i) = token
+    }
+    dists(i)
   }
 
   private val listeners = mutable.ArrayBuffer[DistanceMatrixListener]()
@@ -55,7 +185,7 @@ final class DistanceMatrix(
 
   private final def isActive(tp: Int) = {
     assert(tp < dists.length)
-    !emptySpots.get(tp)
+    positions(tp) != -1
   }
 
   /**
@@ -64,6 +194,7 @@ final class DistanceMatrix(
     * @return The id of the new node
     */
   def createNewNode(): Int = {
+    // growing the matrix is not undone on rollback, the new spots simply remain empty
     if(emptySpots.isEmpty) {
       // grow matrix
       val prevLength = dists.length
@@ -79,21 +210,66 @@ final class DistanceMatrix(
         emptySpots.set(i)
       }
       dists = newDists
+      rowOwners = new Array[AnyRef](newLength)
+      util.Arrays.fill(rowOwners, token) // all rows were just created
+      activeNodes = util.Arrays.copyOf(activeNodes, newLength)
+      positions = util.Arrays.copyOf(positions, newLength)
+      util.Arrays.fill(positions, prevLength, newLength, -1)
     }
     val newNode = emptySpots.nextSetBit(0)
     emptySpots.clear(newNode)
-    dists(newNode)(newNode) = 0
+    resetNode(newNode)
+    activeNodes(numActive) = newNode
+    positions(newNode) = numActive
+    numActive += 1
+    if(isTrailing) {
+      pushTrail(newNode)
+      pushTrail(CREATE)
+    }
     newNode
   }
 
+  /** Resets the row and column of a node that is (re)used, so that it is at distance INF of all other nodes. */
+  private def resetNode(n: Int): Unit = {
+    val row = new Array[Int](dists.length)
+    util.Arrays.fill(row, INF)
+    row(n) = 0
+    if(isTrailing) {
+      trailedRows.push(dists(n))
+      pushTrail(n)
+      pushTrail(ROW)
+    }
+    dists(n) = row
+    rowOwners(n) = token
+    var x = 0
+    while(x < numActive) {
+      val i = activeNodes(x)
+      if(dists(i)(n) != INF) {
+        if(isTrailing)
+          trailCell(i, n)
+        mutableRow(i)(n) = INF
+      }
+      x += 1
+    }
+  }
+
   /**
-    * Removes a node from the network. Note that all constraints previously inferred will stay in the matrix
+    * Removes a node from the network. Note that all constraints previously inferred will stay in the matrix.
+    * The row and column of the node are only reset when its spot is reused.
     */
   private def eraseNode(n: Int): Unit = {
-    util.Arrays.fill(dists(n), INF)
-    for(i <- dists.indices)
-      dists(i)(n) = INF
     emptySpots.set(n)
+    val pos = positions(n)
+    val last = activeNodes(numActive - 1)
+    activeNodes(pos) = last
+    positions(last) = pos
+    positions(n) = -1
+    numActive -= 1
+    if(isTrailing) {
+      pushTrail(n)
+      pushTrail(pos)
+      pushTrail(ERASE)
+    }
   }
 
   /**
@@ -108,33 +284,205 @@ final class DistanceMatrix(
     if(d >= dists(a)(b))
       return // constraint is dominated
 
-    dists(a)(b) = d
-    val updatedEdges = mutable.ArrayBuffer[(Int,Int)]()
-    updatedEdges += ((a,b))
-    val nodes = dists.indices.filterNot(emptySpots.get)
-
-    val I = mutable.ArrayBuffer[Int]()
-    val J = mutable.ArrayBuffer[Int]()
-    for(k <- nodes if k != a && k!= b) {
-      if(dists(k)(b) > plus(dists(k)(a), d)) {
-        dists(k)(b) = plus(dists(k)(a), d)
-        updatedEdges += ((k,b))
-        I += k
+    if(batchBuffers != null) {
+      propagate(a, b, d, batchBuffers) // listeners will be notified at the end of the batch
+      return
+    }
+
+    val buffers = PropagationBuffers.acquire()
+    try {
+      buffers.clearUpdated()
+      propagate(a, b, d, buffers)
+      // listeners are only notified once the matrix is minimal, they might modify it (e.g. erase nodes)
+      var x = 0
+      while(x < buffers.numUpdated) {
+        val e = buffers.updated(x)
+        updated((e >>> 32).toInt, e.toInt)
+        x += 1
       }
-      if(dists(a)(k) > plus(d, dists(b)(k))) {
-        dists(a)(k) = plus(d, dists(b)(k))
-        updatedEdges += ((a,k))
-        J += k
+    } finally {
+      PropagationBuffers.release(buffers)
+    }
+  }
+
+  /** Sets the distance from a to b to d and updates all distances going through this edge.
+    * All updated edges are recorded in the buffers. */
+  private def propagate(a: Int, b: Int, d: Int, buffers: PropagationBuffers): Unit = {
+    buffers.clearNodes(numActive)
+    val trailing = isTrailing
+    val rowA = mutableRow(a)
+    val rowB = dists(b)
+    if(trailing)
+      trailCell(a, b)
+    rowA(b) = d
+    buffers.addUpdated(a, b)
+
+    var x = 0
+    while(x < numActive) {
+      val k = activeNodes(x)
+      if(k != a && k != b) {
+        val kb = sum(dists(k)(a), d)
+        if(dists(k)(b) > kb) {
+          if(trailing)
+            trailCell(k, b)
+          mutableRow(k)(b) = kb
+          buffers.addUpdated(k, b)
+          buffers.I(buffers.numI) = k
+          buffers.numI += 1
+        }
+        val ak = sum(d, rowB(k))
+        if(rowA(k) > ak) {
+          if(trailing)
+            trailCell(a, k)
+          rowA(k) = ak
+          buffers.addUpdated(a, k)
+          buffers.J(buffers.numJ) = k
+          buffers.numJ += 1
+        }
       }
+      x += 1
     }
-    for(i <- I ; j <- J if i != j) {
-      if(dists(i)(j) > plus(dists(i)(a), dists(a)(j))) {
-        dists(i)(j) = plus(dists(i)(a), dists(a)(j))
-        updatedEdges += ((i,j))
+
+    var y = 0
+    while(y < buffers.numI) {
+      val i = buffers.I(y)
+      val rowI = dists(i) // already owned as it was updated in the previous loop
+      val ia = rowI(a)
+      var z = 0
+      while(z < buffers.numJ) {
+        val j = buffers.J(z)
+        if(i != j) {
+          val ij = sum(ia, rowA(j))
+          if(rowI(j) > ij) {
+            if(trailing)
+              trailCell(i, j)
+            rowI(j) = ij
+            buffers.addUpdated(i, j)
+          }
+        }
+        z += 1
       }
+      y += 1
+    }
+  }
+
+  /**
+    * Starts a batch: until endBatch() is called, distances are still propagated on each call to enforceDist
+    * (the matrix remains minimal) but listeners are not notified of updated edges.
+    */
+  def startBatch(): Unit = {
+    assert(batchBuffers == null, "A batch is already in progress")
+    batchBuffers = PropagationBuffers.acquire()
+    batchBuffers.clearUpdated()
+  }
+
+  /**
+    * Ends the current batch and notifies listeners of all edges updated since its start.
+    * Listeners are called once per updated edge, even if it was updated by several constraints.
+    */
+  def endBatch(): Unit = {
+    assert(batchBuffers != null, "No batch in progress")
+    val buffers = batchBuffers
+    batchBuffers = null
+    try {
+      util.Arrays.sort(buffers.updated, 0, buffers.numUpdated)
+      var prev = -1L
+      var x = 0
+      while(x < buffers.numUpdated) {
+        val e = buffers.updated(x)
+        if(e != prev)
+          updated((e >>> 32).toInt, e.toInt)
+        prev = e
+        x += 1
+      }
+    } finally {
+      PropagationBuffers.release(buffers)
+    }
+  }
+
+  /** Ends the current batch without notifying listeners of the edges updated since its start. */
+  def abortBatch(): Unit = {
+    assert(batchBuffers != null, "No batch in progress")
+    PropagationBuffers.release(batchBuffers)
+    batchBuffers = null
+  }
+
+  /** Opens a checkpoint: all subsequent modifications can be undone with rollback(). */
+  def checkpoint(): Unit = {
+    assert(batchBuffers == null, "Cannot create a checkpoint in the middle of a batch")
+    if(trail == null) {
+      trail = new Array[Int](256)
+      marks = new Array[Int](8)
+    } else if(numMarks == marks.length) {
+      marks = util.Arrays.copyOf(marks, numMarks * 2)
+    }
+    marks(numMarks) = trailSize
+    numMarks += 1
+  }
+
+  /**
+    * Restores the matrix in the state it had when the last checkpoint was created, and closes this checkpoint.
+    * Listeners are not notified of the restored distances.
+    */
+  def rollback(): Unit = {
+    assert(numMarks > 0, "No checkpoint to roll back to")
+    assert(batchBuffers == null, "Cannot roll back in the middle of a batch")
+    numMarks -= 1
+    val mark = marks(numMarks)
+    while(trailSize > mark) {
+      trailSize -= 1
+      trail(trailSize) match {
+        case CELL =>
+          val prev = trail(trailSize -1)
+          val j = trail(trailSize -2)
+          val i = trail(trailSize -3)
+          trailSize -= 3
+          mutableRow(i)(j) = prev
+        case ROW =>
+          val n = trail(trailSize -1)
+          trailSize -= 1
+          val prevRow = trailedRows.pop()
+          if(prevRow.length < dists.length) {
+            // the matrix was grown since this row was replaced
+            val grown = util.Arrays.copyOf(prevRow, dists.length)
+            util.Arrays.fill(grown, prevRow.length, dists.length, INF)
+            dists(n) = grown
+            rowOwners(n) = token
+          } else {
+            dists(n) = prevRow
+            rowOwners(n) = null // might be shared with a clone
+          }
+        case CREATE =>
+          val n = trail(trailSize -1)
+          trailSize -= 1
+          assert(activeNodes(numActive -1) == n)
+          numActive -= 1
+          positions(n) = -1
+          emptySpots.set(n)
+        case ERASE =>
+          val pos = trail(trailSize -1)
+          val n = trail(trailSize -2)
+          trailSize -= 2
+          // undo the swap with the last active node
+          val moved = activeNodes(pos)
+          activeNodes(numActive) = moved
+          positions(moved) = numActive
+          activeNodes(pos) = n
+          positions(n) = pos
+          numActive += 1
+          emptySpots.clear(n)
+      }
+    }
+  }
+
+  /** Closes the last checkpoint, keeping all modifications made since then. */
+  def commit(): Unit = {
+    assert(numMarks > 0, "No checkpoint to commit")
+    numMarks -= 1
+    if(numMarks == 0) {
+      trailSize = 0
+      trailedRows.clear()
     }
-    for((u,v) <- updatedEdges)
-      updated(u, v)
   }
 
   /**
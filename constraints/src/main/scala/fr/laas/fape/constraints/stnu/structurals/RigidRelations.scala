@@ -3,6 +3,7 @@ package fr.laas.fape.constraints.stnu.structurals
 import java.util
 
 import fr.laas.fape.anml.model.concrete.TPRef
+import fr.laas.fape.constraints.Trail
 import java.util.{HashMap => JMap}
 
 import scala.collection.JavaConverters._
@@ -16,6 +17,11 @@ final class RigidRelations(private val anchored: JMap[TPRef, JMap[TPRef,Int]],
 
   def this() = this(new JMap(), new Array[AnchorOf](10))
 
+  /** Trail on which modifications are recorded, if any. It is not transmitted to clones. */
+  private[structurals] var trail: Trail = null
+
+  private def recording = trail != null && trail.isRecording
+
   override def clone() : RigidRelations = {
     val newAnchored = new JMap[TPRef, JMap[TPRef,Int]]()
     for((tp,map) <- anchored.asScala)
@@ -35,12 +41,36 @@ final class RigidRelations(private val anchored: JMap[TPRef, JMap[TPRef,Int]],
     if(_anchorOf.size <= tp.id) {
       _anchorOf = util.Arrays.copyOf(_anchorOf, math.max(tp.id+1 * 2, _anchorOf.size * 2))
     }
+    if(recording) {
+      val prev = _anchorOf(tp.id)
+      trail.record(() => _anchorOf(tp.id) = prev)
+    }
     _anchorOf(tp.id) = anchorOf
   }
   def getTimepointsAnchoredTo(tp: TPRef) : List[TPRef] = anchored.get(tp).asScala.keys.toList
 
   def addAnchor(tp: TPRef): Unit = {
-    anchored.put(tp, new JMap[TPRef, Int]())
+    putAnchor(tp, new JMap[TPRef, Int]())
+  }
+
+  private def putAnchor(tp: TPRef, timepointsAnchored: JMap[TPRef,Int]): Unit = {
+    val prev = anchored.put(tp, timepointsAnchored)
+    if(recording)
+      trail.record(() => if(prev == null) anchored.remove(tp) else anchored.put(tp, prev))
+  }
+
+  private def removeAnchor(tp: TPRef): Unit = {
+    val prev = anchored.remove(tp)
+    if(recording)
+      trail.record(() => anchored.put(tp, prev))
+  }
+
+  private def putAnchored(anchor: TPRef, tp: TPRef, distFromAnchor: Int): Unit = {
+    val timepointsAnchored = anchored.get(anchor)
+    val hadPrev = timepointsAnchored.containsKey(tp)
+    val prev = timepointsAnchored.put(tp, distFromAnchor)
+    if(recording)
+      trail.record(() => if(hadPrev) timepointsAnchored.put(tp, prev) else timepointsAnchored.remove(tp))
   }
 
   /** record a new rigid relation between those two timepoints.
@@ -54,12 +84,12 @@ final class RigidRelations(private val anchored: JMap[TPRef, JMap[TPRef,Int]],
     } else {
       for (tp <- anchored.get(to).asScala.keys) {
         val distFromNewAnchor = d + distFromAnchor(tp)
-        anchored.get(from).put(tp, distFromNewAnchor)
+        putAnchored(from, tp, distFromNewAnchor)
         addAnchored(tp, new AnchorOf(from, distFromNewAnchor))
       }
-      anchored.remove(to)
+      removeAnchor(to)
       addAnchored(to, new AnchorOf(from, d))
-      anchored.get(from).put(to, d)
+      putAnchored(from, to, d)
     }
   }
 }
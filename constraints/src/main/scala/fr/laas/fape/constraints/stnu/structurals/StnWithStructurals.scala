@@ -4,8 +4,10 @@ import java.util
 
 import fr.laas.fape.anml.model.concrete.{ContingentConstraint, MinDelayConstraint, TPRef, TemporalConstraint}
 import fr.laas.fape.anml.pending.IntExpression
+import fr.laas.fape.constraints.Trail
 import fr.laas.fape.constraints.stn.DistanceGraphEdge
 import fr.laas.fape.constraints.stnu.{Controllability, InconsistentTemporalNetwork, STNU}
+import fr.laas.fape.constraints.stnu.morris.IncrementalDCMorris
 import fr.laas.fape.constraints.stnu.parser.STNUParser
 import fr.laas.fape.structures.IList
 
@@ -64,12 +66,35 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
   /** If true, the STNU will check that the network is Pseudo Controllable when invoking isConsistent */
   var shouldCheckPseudoControllability = true
 
+  /** Number of batches in progress (see startBatch()) */
+  private var batchDepth = 0
+
+  /** Undo log of the modifications made since the first open checkpoint (see checkpoint()), not shared with clones */
+  private val trail = new Trail()
+  rigidRelations.trail = trail
+
   def this() = this(Array.fill(10)(-1), mutable.ArrayBuffer(), new DistanceMatrix(), new RigidRelations(), mutable.ArrayBuffer(), None, None, Nil, true, mutable.Set())
 
-  override def clone() : StnWithStructurals = new StnWithStructurals(
-    nonRigidIndexes.clone(), timepointByIndex.clone(), dist.clone(), rigidRelations.clone(), contingentLinks.clone(),
-    optStart, optEnd, originalEdges, consistent, executed.clone()
-  )
+  /** Incremental checker of dynamic controllability, null if only pseudo controllability is checked */
+  private var dcChecker: IncrementalDCMorris = null
+
+  override def clone() : StnWithStructurals = {
+    val copy = new StnWithStructurals(
+      nonRigidIndexes.clone(), timepointByIndex.clone(), dist.clone(), rigidRelations.clone(), contingentLinks.clone(),
+      optStart, optEnd, originalEdges, consistent, executed.clone())
+    if(dcChecker != null)
+      copy.dcChecker = dcChecker.clone()
+    copy
+  }
+
+  /**
+    * Makes isConsistent() check the dynamic controllability of the network, incrementally.
+    * Must be invoked before any constraint is added. Such a network does not support checkpoints.
+    */
+  def enableDynamicControllabilityChecking(): Unit = {
+    assert(originalEdges.isEmpty && contingentLinks.isEmpty, "Constraints were already added")
+    dcChecker = new IncrementalDCMorris()
+  }
 
   /** Callbacks to be invoked whenever the earliest start time of a timepoint changes */
   val earliestExecutionUpdatesListener = mutable.ArrayBuffer[TPRef => Unit]()
@@ -97,9 +122,23 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
         i += 1
       }
     }
+    setFlexIndex(tp, idx)
+  }
+  private def removeFlexIndex(tp: TPRef): Unit = setFlexIndex(tp, -1)
+  private def setFlexIndex(tp: TPRef, idx: Int): Unit = {
+    if(trail.isRecording) {
+      val prev = nonRigidIndexes(tp.id)
+      trail.record(() => nonRigidIndexes(tp.id) = prev)
+    }
     nonRigidIndexes(tp.id) = idx
   }
-  private def removeFlexIndex(tp: TPRef): Unit = nonRigidIndexes(tp.id) = -1
+  private def setTimepointOfIndex(index: Int, tp: TPRef): Unit = {
+    if(trail.isRecording) {
+      val prev = timepointByIndex(index)
+      trail.record(() => timepointByIndex(index) = prev)
+    }
+    timepointByIndex(index) = tp
+  }
   def timepointFromIndex(index: Int) : TPRef = timepointByIndex(index)
 
   private def isKnown(tp: TPRef) = hasFlexIndex(tp) || rigidRelations.isAnchored(tp)
@@ -109,11 +148,15 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
     val id = dist.createNewNode()
     addFlexIndex(tp, id)
     rigidRelations.addAnchor(tp)
+    if(timepointByIndex.size <= id && trail.isRecording) {
+      val prevSize = timepointByIndex.size
+      trail.record(() => timepointByIndex.reduceToSize(prevSize))
+    }
     while(timepointByIndex.size <= id) {
       timepointByIndex.append(null)
     }
     assert(timepointByIndex(id) == null)
-    timepointByIndex(id) = tp
+    setTimepointOfIndex(id, tp)
     optEnd match {
       case Some(end)  => enforceMinDelay(tp, end, 0)
       case None =>
@@ -121,6 +164,61 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
     id
   }
 
+  /**
+    * Starts a batch of constraints.
+    * Distances are still propagated for each constraint but the processing of updated distances (consistency
+    * checks, compilation of rigid timepoints and notification of earliest start times) is done once per
+    * updated pair when the batch ends.
+    */
+  override def startBatch(): Unit = {
+    if(batchDepth == 0)
+      dist.startBatch()
+    batchDepth += 1
+  }
+
+  override def endBatch(): Unit = {
+    assert(batchDepth > 0, "No batch in progress")
+    batchDepth -= 1
+    if(batchDepth == 0)
+      dist.endBatch()
+  }
+
+  override def abortBatch(): Unit = {
+    assert(batchDepth > 0, "No batch in progress")
+    batchDepth -= 1
+    if(batchDepth == 0)
+      dist.abortBatch()
+  }
+
+  override def isBacktrackable: Boolean = dcChecker == null
+
+  override def checkpoint(): Unit = {
+    assert(batchDepth == 0, "Cannot create a checkpoint in the middle of a batch")
+    if(dcChecker != null)
+      throw new UnsupportedOperationException("Checkpoints are not supported when checking dynamic controllability")
+    trail.checkpoint()
+    dist.checkpoint()
+  }
+
+  override def rollback(): Unit = {
+    assert(batchDepth == 0, "Cannot roll back in the middle of a batch")
+    trail.rollback()
+    dist.rollback()
+  }
+
+  override def commit(): Unit = {
+    trail.commit()
+    dist.commit()
+  }
+
+  private def setConsistent(value: Boolean): Unit = {
+    if(trail.isRecording) {
+      val prev = consistent
+      trail.record(() => consistent = prev)
+    }
+    consistent = value
+  }
+
   // TODO: this method was removed as its implementation require non final fields that led to an important runtime cost.
   def forceExecutionTime(tp: TPRef, time: Int): Unit =
     throw new UnsupportedOperationException("This method is temporarily unsupported until a better implementation is found.")
@@ -183,7 +281,14 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
   def addMaxDelay(from: TPRef, to: TPRef, maxDelay: Int) =
     addMinDelay(to, from, -maxDelay)
 
-  private def addEdge(a:TPRef, b :TPRef, t:Int): Unit = {
+  /** Adds the edge a --t--> b, i.e. b - a <= t. Unless it is the bound of a contingent link, it is a requirement. */
+  private def addEdge(a:TPRef, b :TPRef, t:Int, isRequirement: Boolean = true): Unit = {
+    if(dcChecker != null && isRequirement)
+      dcChecker.addRequirement(a.id, b.id, t)
+    if(trail.isRecording) {
+      val prev = originalEdges
+      trail.record(() => originalEdges = prev)
+    }
     originalEdges = new DistanceGraphEdge(a, b, t) :: originalEdges
     if(!isKnown(a))
       recordTimePoint(a)
@@ -207,9 +312,8 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
       case req: MinDelayConstraint if req.minDelay.isKnown =>
         addMinDelay(req.src, req.dst, req.minDelay.get)
       case cont: ContingentConstraint if cont.min.isKnown && cont.max.isKnown =>
-        addMinDelay(cont.src, cont.dst, cont.min.get)
-        addMaxDelay(cont.src, cont.dst, cont.max.get)
-        contingentLinks.append(cont)
+        addContingentBounds(cont.src, cont.dst, cont.min.get, cont.max.get)
+        addContingentLink(cont)
       case _ =>
         throw new RuntimeException("Constraint: "+c+" is not properly supported")
     }
@@ -252,7 +356,7 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
     if (dist.getDistance(a, b) + dist.getDistance(b, a) < 0) {
       if(debugging)
         assert(!consistencyWithBellmanFord(), "Problem with the consistency of the STN")
-      consistent = false
+      setConsistent(false)
       throw new InconsistentTemporalNetwork
     }
 
@@ -295,7 +399,7 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
 
       // remove the anchored timepoint from distance matrix
       dist.compileAwayRigid(toIndex(anchored), toIndex(anchor))
-      timepointByIndex(toIndex(anchored)) = null
+      setTimepointOfIndex(toIndex(anchored), null)
       removeFlexIndex(anchored)
       assert(originalDist == rigidAwareDist(tpA, tpB))
     }
@@ -319,6 +423,10 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
   def setStart(start: TPRef): Unit = {
     assert(isKnown(start))
     assert(optStart.isEmpty || optStart.get == start)
+    if(trail.isRecording) {
+      val prev = optStart
+      trail.record(() => optStart = prev)
+    }
     optStart = Some(start)
     optEnd match {
       case Some(end) => enforceMinDelay(start, end, 0)
@@ -337,6 +445,10 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
   def setEnd(end: TPRef): Unit = {
     assert(isKnown(end))
     assert(optEnd.isEmpty || optEnd.get == end)
+    if(trail.isRecording) {
+      val prev = optEnd
+      trail.record(() => optEnd = prev)
+    }
     optEnd = Some(end)
     for(tp <- timepoints.asScala) {
       enforceBefore(tp, end)
@@ -354,7 +466,8 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
     }
     consistent &&
       (!shouldCheckPseudoControllability ||
-        contingentLinks.forall(l => isDelayPossible(l.src, l.dst, l.min.lb) && isConstraintPossible(l.src, l.dst, l.max.ub)))
+        contingentLinks.forall(l => isDelayPossible(l.src, l.dst, l.min.lb) && isConstraintPossible(l.src, l.dst, l.max.ub))) &&
+      (dcChecker == null || dcChecker.isDynamicallyControllable)
   }
 
   override protected def addConstraint(u: TPRef, v: TPRef, w: Int): Unit =
@@ -449,18 +562,34 @@ final class StnWithStructurals(private var nonRigidIndexes: Array[Int], // map:
   }
 
   override def enforceContingent(u: TPRef, v: TPRef, min: Int, max: Int): Unit = {
-    addMinDelay(u, v, min)
-    addMaxDelay(u, v, max)
-    contingentLinks.append(new ContingentConstraint(u, v, IntExpression.lit(min), IntExpression.lit(max)))
+    addContingentBounds(u, v, min, max)
+    addContingentLink(new ContingentConstraint(u, v, IntExpression.lit(min), IntExpression.lit(max)))
+  }
+
+  private def addContingentBounds(src: TPRef, dst: TPRef, min: Int, max: Int): Unit = {
+    addEdge(dst, src, -min, isRequirement = false)
+    addEdge(src, dst, max, isRequirement = false)
+  }
+
+  private def addContingentLink(c: ContingentConstraint): Unit = {
+    if(dcChecker != null)
+      dcChecker.addContingent(c.src.id, c.dst.id, c.min.get, c.max.get)
+    if(trail.isRecording) {
+      val prevSize = contingentLinks.size
+      trail.record(() => contingentLinks.reduceToSize(prevSize))
+    }
+    contingentLinks.append(c)
   }
 
   override def getMaxDelay(u: TPRef, v: TPRef): Int = maxDelay(u, v)
 
   override def checksPseudoControllability: Boolean = true
 
-  override def checksDynamicControllability: Boolean = false
+  override def checksDynamicControllability: Boolean = dcChecker != null
 
-  override def controllability: Controllability = Controllability.PSEUDO_CONTROLLABILITY
+  override def controllability: Controllability =
+    if(dcChecker != null) Controllability.DYNAMIC_CONTROLLABILITY
+    else Controllability.PSEUDO_CONTROLLABILITY
 
   /** If there is a contingent constraint [min, max] between those two timepoints, it returns
     * Some((min, max).
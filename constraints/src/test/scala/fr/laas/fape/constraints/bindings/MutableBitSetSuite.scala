@@ -0,0 +1,32 @@
+package fr.laas.fape.constraints.bindings
+
+import org.scalatest.FunSuite
+
+class MutableBitSetSuite extends FunSuite {
+  def S(vals : Int*) : IBitSet = IBitSet(vals: _*)
+
+  test("In place operations give the same sets as the immutable ones") {
+    val rand = new scala.util.Random(5)
+    for(run <- 0 until 50) {
+      val a = S((0 until 200).filter(_ => rand.nextBoolean()): _*)
+      val b = S((0 until 150).filter(_ => rand.nextBoolean()): _*)
+      val bs = MutableBitSet.acquire()
+      assert(bs.load(a).and(b).toIBitSet == (a & b))
+      assert(bs.load(a).or(b).toIBitSet == (a | b))
+      assert(bs.load(a).remove(70).toIBitSet == a - 70)
+      val bound = rand.nextInt(220)
+      assert(bs.load(a).removeBelow(bound).toIBitSet == S(a.filter(_ >= bound).toSeq: _*))
+      assert(bs.load(a).removeAbove(bound).toIBitSet == S(a.filter(_ <= bound).toSeq: _*))
+      assert(bs.load(a).size == a.size)
+      MutableBitSet.release(bs)
+    }
+  }
+
+  test("Materialized sets have no trailing empty words") {
+    val bs = MutableBitSet.acquire()
+    bs.load(S(3, 130)).remove(130)
+    assert(bs.toIBitSet.nwords == 1)
+    assert(bs.clear().toIBitSet.isEmpty)
+    MutableBitSet.release(bs)
+  }
+}
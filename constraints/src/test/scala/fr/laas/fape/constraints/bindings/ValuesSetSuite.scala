@@ -62,4 +62,68 @@ class ValuesSetSuite extends FunSuite {
     val c = Array(S(11), S(22), S(13,23,33))
     assert(ext2.restrictedDomains(c)(2) == S(23, 33))
   }
+
+  test("Compact table filtering gives the same domains as the restricted domains") {
+    val rand = new scala.util.Random(3)
+    for(run <- 0 until 20) {
+      val ext = new ExtensionConstraint("rand"+run, false, 3)
+      for(i <- 0 until 150)
+        ext.addTuple(Array(rand.nextInt(10), 10 + rand.nextInt(10), 20 + rand.nextInt(10)))
+      val table = new CompactTable(ext)
+      var domains = Array.tabulate(3)(v => S((0 until 10).map(_ + 10*v): _*))
+      // domains are successively reduced, the table being updated incrementally
+      for(step <- 0 until 10 if !table.isEmpty) {
+        val reduced = domains.map(d => if(rand.nextInt(3) == 0) S(d.filter(_ => rand.nextInt(4) != 0).toSeq: _*) else d)
+        val expected = ext.restrictedDomains(reduced)
+        val filtered = reduced.clone()
+        if(table.filter(filtered)) {
+          for(v <- 0 until 3)
+            assert(filtered(v) == expected(v))
+          domains = filtered
+        } else {
+          assert(expected.forall(_.isEmpty))
+        }
+      }
+    }
+  }
+
+  test("Tuples added after the creation of a compact table are ignored by it") {
+    val ext = new ExtensionConstraint("growing", false, 2)
+    ext.addTuple(Array(1, 3))
+    ext.addTuple(Array(2, 4))
+    val table = new CompactTable(ext)
+    ext.addTuple(Array(1, 4))
+    assert(!table.isUpToDate)
+    val filtered = Array(S(1), S(3, 4))
+    assert(table.filter(filtered))
+    assert(filtered(1) == S(3))
+    assert(ext.restrictedDomains(Array(S(1), S(3, 4)))(1) == S(3, 4))
+  }
+
+  test("Readers see a consistent prefix of the tuples of an extension that is concurrently extended") {
+    val ext = new ExtensionConstraint("concurrent", false, 2)
+    val n = 2000
+    val writer = new Thread(new Runnable {
+      override def run(): Unit =
+        for(i <- 0 until n)
+          ext.addTuple(Array(i, n + i))
+    })
+    writer.start()
+    val domains = Array(S(0 until n: _*), S(n until 2*n: _*))
+    var last = 0
+    while(last < n) {
+      val restricted = ext.restrictedDomains(domains)
+      val k = restricted(0).size
+      assert(k >= last)
+      assert(restricted(0) == S(0 until k: _*))
+      assert(restricted(1) == S(n until n + k: _*))
+      last = k
+    }
+    writer.join()
+  }
+
+  test("Compact table of an empty extension") {
+    val ext = new ExtensionConstraint("empty", false, 2)
+    assert(!new CompactTable(ext).filter(Array(S(1, 2), S(3))))
+  }
 }
@@ -0,0 +1,129 @@
+package fr.laas.fape.constraints.stnu.morris
+
+import fr.laas.fape.anml.model.concrete.TPRef
+import fr.laas.fape.constraints.stnu.structurals.StnWithStructurals
+import org.scalatest.FunSuite
+
+import scala.util.Random
+
+class IncrementalDCMorrisSuite extends FunSuite {
+
+  private def dcStn(): StnWithStructurals = {
+    val stn = new StnWithStructurals()
+    stn.enableDynamicControllabilityChecking()
+    stn
+  }
+
+  test("Waiting for a contingent timepoint is controllable") {
+    val stn = dcStn()
+    val Seq(a, b, c) = (0 until 3).map(new TPRef(_))
+    stn.enforceContingent(a, c, 1, 10)
+    // b in [0, 2] after c
+    stn.addMinDelay(c, b, 0)
+    stn.addMaxDelay(c, b, 2)
+    assert(stn.isConsistent())
+  }
+
+  test("Preceding a contingent timepoint by a bounded delay is not controllable") {
+    val stn = dcStn()
+    val Seq(a, b, c) = (0 until 3).map(new TPRef(_))
+    stn.enforceContingent(a, c, 1, 10)
+    assert(stn.isConsistent())
+    // b in [0, 2] before c: pseudo controllable but not dynamically controllable
+    stn.addMinDelay(b, c, 0)
+    stn.addMaxDelay(b, c, 2)
+    assert(!stn.isConsistent())
+  }
+
+  test("Clones are checked independently") {
+    val stn = dcStn()
+    val Seq(a, b, c) = (0 until 3).map(new TPRef(_))
+    stn.enforceContingent(a, c, 1, 10)
+    assert(stn.isConsistent())
+    val copy = stn.clone()
+    copy.addMinDelay(b, c, 0)
+    copy.addMaxDelay(b, c, 2)
+    assert(!copy.isConsistent())
+    stn.addMinDelay(c, b, 0)
+    assert(stn.isConsistent())
+  }
+
+  /** Random network over the timepoints 0 to 8, with contingent links ending in 6, 7 and 8 */
+  private def randomConstraints(rand: Random): Seq[(Boolean, Int, Int, Int, Int)] =
+    (0 until 12).map(i =>
+      if(i % 4 == 0) (true, i % 6, 6 + i / 4, rand.nextInt(5), 5 + rand.nextInt(10))
+      else (false, rand.nextInt(9), rand.nextInt(9), rand.nextInt(20) - 8, 0))
+      .filter { case (_, a, b, _, _) => a != b }
+
+  /** Dynamic controllability of the network given by the (non-incremental) DCMorris algorithm */
+  private def batchCheck(constraints: Seq[(Boolean, Int, Int, Int, Int)]): Boolean = {
+    import DCMorris._
+    val edges: List[Edge] = constraints.toList.flatMap {
+      case (true, a, b, min, max) => List(Lower(a, b, min, b, Set()), Upper(b, a, -max, b, Set()))
+      case (false, a, b, d, _) => List(Req(a, b, d, Set()))
+    }
+    val contingents = constraints.filter(_._1).map(_._3).toSet
+    val tn = new TemporalNetwork((0 until 9).toSet -- contingents, contingents, Set(), Set(), edges)
+    checkDynamicControllability(tn.normalForm)._1
+  }
+
+  test("Incremental checks agree with a single check at the end") {
+    val rand = new Random(7)
+    for(run <- 0 until 50) {
+      val constraints = randomConstraints(rand)
+      val incremental = new IncrementalDCMorris()
+      var controllable = true
+      for((isContingent, a, b, d1, d2) <- constraints) {
+        if(isContingent) incremental.addContingent(a, b, d1, d2)
+        else incremental.addRequirement(a, b, d1)
+        controllable = incremental.isDynamicallyControllable
+      }
+      val atOnce = new IncrementalDCMorris()
+      for((isContingent, a, b, d1, d2) <- constraints) {
+        if(isContingent) atOnce.addContingent(a, b, d1, d2)
+        else atOnce.addRequirement(a, b, d1)
+      }
+      assert(atOnce.isDynamicallyControllable == controllable)
+    }
+  }
+
+  test("Incremental checks agree with the batch DCMorris algorithm") {
+    val rand = new Random(7)
+    for(run <- 0 until 50) {
+      val constraints = randomConstraints(rand)
+      val incremental = new IncrementalDCMorris()
+      for(i <- constraints.indices) {
+        val (isContingent, a, b, d1, d2) = constraints(i)
+        if(isContingent) incremental.addContingent(a, b, d1, d2)
+        else incremental.addRequirement(a, b, d1)
+        assert(incremental.isDynamicallyControllable == batchCheck(constraints.take(i + 1)),
+          s"run $run, after ${i+1} constraints: ${constraints.take(i+1)}")
+      }
+    }
+  }
+
+  test("Modifying a checker after cloning it impacts neither the clone nor the original") {
+    // c is contingent in [1, 10] after a
+    val (a, b, c) = (0, 1, 2)
+    val original = new IncrementalDCMorris()
+    original.addContingent(a, c, 1, 10)
+    original.addRequirement(c, b, 2)
+    assert(original.isDynamicallyControllable)
+
+    val first = original.clone()
+    val second = original.clone()
+    // b in [0, 2] before c: not dynamically controllable. All edges are added to lists shared at cloning time.
+    first.addRequirement(b, c, 2)
+    first.addRequirement(c, b, 0)
+    assert(!first.isDynamicallyControllable)
+    assert(original.isDynamicallyControllable)
+    assert(second.isDynamicallyControllable)
+
+    original.addRequirement(b, c, 2)
+    original.addRequirement(c, b, 0)
+    assert(!original.isDynamicallyControllable)
+    second.addRequirement(a, b, 20)
+    assert(second.isDynamicallyControllable)
+    assert(!first.isDynamicallyControllable)
+  }
+}
@@ -0,0 +1,82 @@
+package fr.laas.fape.constraints.stnu.sparse
+
+import fr.laas.fape.anml.model.concrete.TPRef
+import fr.laas.fape.constraints.stnu.InconsistentTemporalNetwork
+import fr.laas.fape.constraints.stnu.structurals.StnWithStructurals
+import org.scalatest.FunSuite
+
+import scala.util.Random
+
+class SparseStnSuite extends FunSuite {
+
+  test("Inconsistent cycle is detected") {
+    val stn = new SparseStn()
+    val a = new TPRef(0)
+    val b = new TPRef(1)
+    stn.recordTimePoint(a)
+    stn.recordTimePoint(b)
+    stn.enforceMinDelay(a, b, 5)
+    assert(stn.isConsistent())
+    assert(stn.getMinDelay(a, b) == 5)
+    intercept[InconsistentTemporalNetwork] {
+      stn.enforceMaxDelay(a, b, 4)
+    }
+    assert(!stn.isConsistent())
+  }
+
+  test("Distances are the same as with the distance matrix") {
+    val rand = new Random(1)
+    for(run <- 0 until 30) {
+      val numTps = 12
+      val tps = (0 until numTps).map(new TPRef(_))
+      var sparse = new SparseStn()
+      var matrix = new StnWithStructurals()
+      sparse.recordTimePointAsStart(tps(0))
+      matrix.recordTimePointAsStart(tps(0))
+      sparse.recordTimePointAsEnd(tps(1))
+      matrix.recordTimePointAsEnd(tps(1))
+      for(tp <- tps.drop(2)) {
+        sparse.recordTimePoint(tp)
+        matrix.recordTimePoint(tp)
+      }
+
+      var consistent = true
+      for(i <- 0 until 30 if consistent) {
+        val a = tps(rand.nextInt(numTps))
+        val b = tps(rand.nextInt(numTps))
+        val d = rand.nextInt(40) - 10
+        if(a != b) {
+          val sparseResult = try { sparse.enforceMinDelay(a, b, d) ; sparse.isConsistent() }
+                             catch { case _: InconsistentTemporalNetwork => false }
+          val matrixResult = try { matrix.enforceMinDelay(a, b, d) ; matrix.isConsistent() }
+                             catch { case _: InconsistentTemporalNetwork => false }
+          assert(sparseResult == matrixResult)
+          consistent = sparseResult
+          if(consistent) {
+            // alternate between the original networks and their clones
+            if(i % 3 == 0) {
+              sparse = sparse.clone()
+              matrix = matrix.clone()
+            }
+            for(tp1 <- tps ; tp2 <- tps)
+              assert(sparse.getMaxDelay(tp1, tp2) == matrix.getMaxDelay(tp1, tp2))
+            for(tp <- tps)
+              assert(sparse.getEarliestTime(tp) == matrix.getEarliestTime(tp))
+          }
+        }
+      }
+    }
+  }
+
+  test("Clones are independent") {
+    val stn = new SparseStn()
+    val tps = (0 until 3).map(new TPRef(_))
+    tps.foreach(stn.recordTimePoint)
+    stn.enforceMinDelay(tps(0), tps(1), 2)
+    val copy = stn.clone()
+    copy.enforceMinDelay(tps(1), tps(2), 3)
+    assert(copy.getMinDelay(tps(0), tps(2)) == 5)
+    assert(stn.getMaxDelay(tps(2), tps(0)) == SparseStn.INF)
+    assert(stn.getMinDelay(tps(0), tps(1)) == 2)
+  }
+}
@@ -1,5 +1,7 @@
 package fr.laas.fape.constraints.stnu.structurals
 
+import fr.laas.fape.anml.model.concrete.TPRef
+import fr.laas.fape.constraints.stnu.InconsistentTemporalNetwork
 import org.scalatest.FunSuite
 
 class StnWithStructuralsSuite extends FunSuite {
@@ -15,6 +17,194 @@ class StnWithStructuralsSuite extends FunSuite {
     val stn = StnWithStructurals.buildFromString(pb)
     assert(stn.isConsistent())
   }
+
+  test("Distance matrix of a clone is independent of the original one") {
+    val dm = new DistanceMatrix()
+    val nodes = (0 until 4).map(_ => dm.createNewNode())
+    dm.enforceDist(nodes(0), nodes(1), 10)
+    val copy = dm.clone()
+    copy.enforceDist(nodes(1), nodes(2), 5)
+    copy.enforceDist(nodes(0), nodes(1), 3)
+    assert(copy.getDistance(nodes(0), nodes(2)) == 8)
+    assert(dm.getDistance(nodes(0), nodes(1)) == 10)
+    assert(dm.getDistance(nodes(0), nodes(2)) == DistanceMatrix.INF)
+
+    // modifying the original does not impact the copy either
+    dm.enforceDist(nodes(0), nodes(1), 1)
+    assert(copy.getDistance(nodes(0), nodes(1)) == 3)
+  }
+
+  test("Incremental propagation gives the same distances as Floyd-Warshall") {
+    val rand = new scala.util.Random(3)
+    val n = 15
+    val dm = new DistanceMatrix()
+    val nodes = (0 until n).map(_ => dm.createNewNode())
+    val ref = Array.tabulate(n, n)((i, j) => if(i == j) 0 else DistanceMatrix.INF)
+    val solution = Array.fill(n)(rand.nextInt(100))
+    var numUpdates = 0
+    dm.addListener(new DistanceMatrixListener {
+      override def distanceUpdated(a: Int, b: Int): Unit = numUpdates += 1
+    })
+    for(_ <- 0 until 60) {
+      val a = rand.nextInt(n)
+      val b = rand.nextInt(n)
+      val d = solution(b) - solution(a) + rand.nextInt(10)
+      val before = numUpdates
+      dm.enforceDist(nodes(a), nodes(b), d)
+      if(d < ref(a)(b))
+        assert(numUpdates > before)
+      ref(a)(b) = math.min(ref(a)(b), d)
+      for(k <- 0 until n ; i <- 0 until n ; j <- 0 until n)
+        ref(i)(j) = math.min(ref(i)(j), DistanceMatrix.plus(ref(i)(k), ref(k)(j)))
+      for(i <- 0 until n ; j <- 0 until n)
+        assert(dm.getDistance(nodes(i), nodes(j)) == ref(i)(j))
+    }
+  }
+
+  test("Listeners are notified once per updated edge at the end of a batch") {
+    val dm = new DistanceMatrix()
+    val nodes = (0 until 4).map(_ => dm.createNewNode())
+    val notified = scala.collection.mutable.ArrayBuffer[(Int,Int)]()
+    dm.addListener(new DistanceMatrixListener {
+      override def distanceUpdated(a: Int, b: Int): Unit = notified += ((a, b))
+    })
+    dm.startBatch()
+    dm.enforceDist(nodes(0), nodes(1), 10)
+    dm.enforceDist(nodes(0), nodes(1), 8)
+    dm.enforceDist(nodes(1), nodes(2), 5)
+    assert(notified.isEmpty)
+    assert(dm.getDistance(nodes(0), nodes(2)) == 13) // distances are propagated during the batch
+    dm.endBatch()
+    assert(notified.toSet == Set((nodes(0), nodes(1)), (nodes(1), nodes(2)), (nodes(0), nodes(2))))
+    assert(notified.size == 3)
+  }
+
+  test("Batched constraints give the same network") {
+    val tps = (0 until 5).map(new TPRef(_))
+    val batched = new StnWithStructurals()
+    val sequential = new StnWithStructurals()
+    tps.foreach(batched.recordTimePoint)
+    tps.foreach(sequential.recordTimePoint)
+    val constraints = List((0, 1, 2), (1, 2, 3), (2, 3, 0), (3, 4, 1), (1, 4, 4))
+    batched.startBatch()
+    for((a, b, d) <- constraints)
+      batched.enforceMinDelay(tps(a), tps(b), d)
+    batched.enforceConstraint(tps(0), tps(1), 2, 2) // rigid relation only compiled at the end of the batch
+    batched.endBatch()
+    for((a, b, d) <- constraints)
+      sequential.enforceMinDelay(tps(a), tps(b), d)
+    sequential.enforceConstraint(tps(0), tps(1), 2, 2)
+    for(tp1 <- tps ; tp2 <- tps)
+      assert(batched.getMaxDelay(tp1, tp2) == sequential.getMaxDelay(tp1, tp2))
+  }
+
+  test("Compiling away rigid timepoints in a clone does not impact the original") {
+    val stn = new StnWithStructurals()
+    val tps = (0 until 4).map(new TPRef(_))
+    tps.foreach(stn.recordTimePoint)
+    stn.enforceMinDelay(tps(0), tps(1), 2)
+    stn.enforceMinDelay(tps(1), tps(2), 2)
+    val copy = stn.clone()
+    copy.enforceConstraint(tps(0), tps(1), 2, 2) // tps(1) is now rigidly linked to tps(0)
+    copy.enforceMinDelay(tps(2), tps(3), 1)
+    assert(copy.getMinDelay(tps(0), tps(3)) == 5)
+    assert(copy.getMaxDelay(tps(0), tps(1)) == 2)
+    assert(stn.getMaxDelay(tps(0), tps(1)) == DistanceMatrix.INF)
+    assert(stn.getMaxDelay(tps(2), tps(3)) == DistanceMatrix.INF)
+  }
+
+  test("Rolling back restores the network of the checkpoint") {
+    val stn = new StnWithStructurals()
+    val tps = (0 until 6).map(new TPRef(_))
+    tps.take(4).foreach(stn.recordTimePoint)
+    stn.enforceMinDelay(tps(0), tps(1), 2)
+    stn.enforceMinDelay(tps(1), tps(2), 1)
+    def distances = for(tp1 <- tps.take(4) ; tp2 <- tps.take(4)) yield stn.getMaxDelay(tp1, tp2)
+    val before = distances
+
+    stn.checkpoint()
+    stn.enforceConstraint(tps(0), tps(1), 2, 2) // compiles away a rigid timepoint
+    stn.recordTimePoint(tps(4))
+    stn.enforceMinDelay(tps(2), tps(4), 3)
+    stn.enforceMinDelay(tps(4), tps(3), 1)
+    assert(stn.getMinDelay(tps(0), tps(3)) == 7)
+    stn.rollback()
+
+    assert(distances == before)
+    assert(stn.isConsistent())
+    // the timepoint recorded after the checkpoint can be recorded again
+    stn.recordTimePoint(tps(4))
+    stn.enforceMinDelay(tps(0), tps(4), 1)
+    assert(stn.getMinDelay(tps(1), tps(2)) == 1)
+    assert(stn.getMaxDelay(tps(0), tps(1)) == DistanceMatrix.INF)
+  }
+
+  test("Rolling back an inconsistent network and nested checkpoints") {
+    val stn = new StnWithStructurals()
+    val tps = (0 until 3).map(new TPRef(_))
+    tps.foreach(stn.recordTimePoint)
+    stn.enforceMinDelay(tps(0), tps(1), 2)
+
+    stn.checkpoint()
+    intercept[InconsistentTemporalNetwork] {
+      stn.enforceMaxDelay(tps(0), tps(1), 1)
+      stn.enforceMinDelay(tps(1), tps(0), 0)
+    }
+    stn.rollback()
+    assert(stn.isConsistent())
+    assert(stn.getMinDelay(tps(0), tps(1)) == 2)
+
+    stn.checkpoint()
+    stn.enforceMinDelay(tps(1), tps(2), 3)
+    stn.checkpoint()
+    stn.enforceMaxDelay(tps(0), tps(2), 5)
+    stn.rollback()
+    assert(stn.getMaxDelay(tps(0), tps(2)) == DistanceMatrix.INF)
+    stn.commit()
+    assert(stn.getMinDelay(tps(0), tps(2)) == 5)
+  }
+
+  test("Aborting a failed batch notifies no listener and allows a rollback") {
+    val dm = new DistanceMatrix()
+    val nodes = (0 until 3).map(_ => dm.createNewNode())
+    val notified = scala.collection.mutable.ArrayBuffer[(Int,Int)]()
+    dm.addListener(new DistanceMatrixListener {
+      override def distanceUpdated(a: Int, b: Int): Unit = notified += ((a, b))
+    })
+    dm.enforceDist(nodes(0), nodes(1), 5)
+    notified.clear()
+
+    dm.checkpoint()
+    dm.startBatch()
+    dm.enforceDist(nodes(1), nodes(2), 3)
+    intercept[InconsistentTemporalNetwork] {
+      dm.enforceDist(nodes(1), nodes(0), -6)
+    }
+    dm.abortBatch()
+    assert(notified.isEmpty)
+    dm.rollback()
+    assert(dm.getDistance(nodes(1), nodes(2)) == DistanceMatrix.INF)
+
+    // a new batch can be started
+    dm.startBatch()
+    dm.enforceDist(nodes(1), nodes(2), 3)
+    dm.endBatch()
+    assert(notified.toSet == Set((nodes(1), nodes(2)), (nodes(0), nodes(2))))
+  }
+
+  test("Rolling back does not impact clones") {
+    val stn = new StnWithStructurals()
+    val tps = (0 until 3).map(new TPRef(_))
+    tps.foreach(stn.recordTimePoint)
+    stn.checkpoint()
+    stn.enforceMinDelay(tps(0), tps(1), 2)
+    val copy = stn.clone()
+    stn.enforceMinDelay(tps(1), tps(2), 2)
+    stn.rollback()
+    assert(stn.getMaxDelay(tps(1), tps(0)) == DistanceMatrix.INF)
+    assert(copy.getMinDelay(tps(0), tps(1)) == 2)
+    assert(copy.getMaxDelay(tps(2), tps(1)) == DistanceMatrix.INF)
+  }
 //
 //  test("load from file") {
 //    val source = scala.io.Source.fromFile("/tmp/stn.txt")
@@ -7,6 +7,7 @@ import fr.laas.fape.planning.core.planning.reachability.ReachabilityHandler;
 import fr.laas.fape.planning.core.planning.planner.GlobalOptions;
 import fr.laas.fape.planning.core.planning.planner.Planner;
 import fr.laas.fape.planning.core.planning.planner.PlanningOptions;
+import fr.laas.fape.planning.core.planning.planner.PortfolioPlanner;
 import fr.laas.fape.planning.core.planning.search.flaws.finders.NeededObservationsFinder;
 import fr.laas.fape.planning.core.planning.search.flaws.flaws.mutexes.MutexesHandler;
 import fr.laas.fape.planning.core.planning.states.Printer;
@@ -50,6 +51,8 @@ public class Planning {
                         new Switch("dispatchable", JSAP.NO_SHORTFLAG, "dispatchable", "[experimental] FAPE will build a dispatchable Plan. "+
                                 "This is step mainly involves building a dynamically controllable STNU that is used to check " +
                                 "which actions can be dispatched."),
+                        new Switch("dynamic-controllability", JSAP.NO_SHORTFLAG, "dc", "[experimental] Plans are required to be " +
+                                "dynamically controllable (checked incrementally at each search node) rather than pseudo controllable."),
                         new Switch("mutex", 'm', "mutex", "[experimental] Use mutex for temporal reasoning as in CPT."),
                         new Switch("reach-test", JSAP.NO_SHORTFLAG, "reach-test", "Deactivate the use of minspan heuristic. This option only meant to be used for benchmarking purpose."),
                         new FlaggedOption("max-time")
@@ -119,6 +122,17 @@ public class Planning {
                                 .setLongFlag("multi-supports")
                                 .setDefault("false")
                                 .setHelp("[experimental] Allow an action to support mutliple tasks"),
+                        new FlaggedOption("expansion-threads")
+                                .setStringParser(JSAP.INTEGER_PARSER)
+                                .setShortFlag(JSAP.NO_SHORTFLAG)
+                                .setLongFlag("expansion-threads")
+                                .setDefault("1")
+                                .setHelp("[experimental] Number of threads used to build the children of a search node. " +
+                                        "With more than one thread, all children of a node are built concurrently and then " +
+                                        "inserted in the queue in the same order as in a sequential expansion."),
+                        new Switch("portfolio", JSAP.NO_SHORTFLAG, "portfolio", "[experimental] Runs concurrently several planners with " +
+                                "different search strategies (the configured one, the same one with A-Epsilon toggled and the default strategies for " +
+                                "hierarchical and non-hierarchical domains). The first solution found is returned. Grounding is shared between all planners."),
                         new FlaggedOption("repetitions")
                                 .setStringParser(JSAP.INTEGER_PARSER)
                                 .setShortFlag('n')
@@ -210,6 +224,110 @@ public class Planning {
         return confFile.getPath();
     }
 
+    /** Plan selection strategies to use for this problem: the ones given in the configuration or the defaults. */
+    public static List<String> planSelection(Configuration config, AnmlProblem pb) {
+        if(config.getBoolean("reach-test") && !pb.allActionsAreMotivated())
+            return Collections.singletonList("soca");
+        return config.specified("plan-selection") ?
+                Arrays.asList(config.getStringArray("plan-selection")) :
+                pb.allActionsAreMotivated() ?
+                        hier_plan_sel : flat_plan_sel;
+    }
+
+    /** Flaw selection strategies to use for this problem: the ones given in the configuration or the defaults. */
+    public static List<String> flawSelection(Configuration config, AnmlProblem pb) {
+        return config.specified("flaw-selection") ?
+                Arrays.asList(config.getStringArray("flaw-selection")) :
+                pb.allActionsAreMotivated() ?
+                        hier_flaw_sel : flat_flaw_sel;
+    }
+
+    /** True if A-Epsilon should be used for this problem: as given in the configuration or the default. */
+    public static boolean useAEpsilon(Configuration config, AnmlProblem pb) {
+        return config.specified("a-epsilon") ?
+                config.getBoolean("a-epsilon") :
+                pb.allActionsAreMotivated() ?
+                        hier_use_epsilon : flat_use_epsilon;
+    }
+
+    /**
+     * Builds the planning options corresponding to the given configuration with the given search strategies.
+     * A new instance is created for every call, with its own handlers.
+     */
+    public static PlanningOptions buildOptions(Configuration config, List<String> planStrat, List<String> flawStrat, boolean useAEpsilon) {
+        PlanningOptions options = new PlanningOptions(planStrat, flawStrat);
+        options.useFastForward = config.getBoolean("fast-forward");
+
+        options.useAEpsilon = useAEpsilon;
+
+        options.displaySearch = config.getBoolean("display-search");
+        options.actionsSupportMultipleTasks = config.getBoolean("multi-supports");
+        options.checkUnsolvableThreatsForOpenGoalsResolvers = config.getBoolean("threats-early-check");
+        options.numExpansionThreads = config.getInt("expansion-threads");
+
+        if(config.getBoolean("needed-observations"))
+            options.flawFinders.add(new NeededObservationsFinder());
+
+        switch(config.getString("action-insertion")) {
+            case "local":
+                options.actionInsertionStrategy = PlanningOptions.ActionInsertionStrategy.UP_OR_DOWN;
+                break;
+            case "dec":
+                options.actionInsertionStrategy = PlanningOptions.ActionInsertionStrategy.DOWNWARD_ONLY;
+                break;
+            default:
+                throw new FAPEException("Invalid option for action insertion: "+config.getString("action-insertion"));
+        }
+
+        if(config.getBoolean("reachability-graph") && !config.getString("reachability-graph").equals("none")) {
+            options.handlers.add(new ReachabilityHandler());
+            String degGraphOption = config.getString("reachability-graph");
+            switch (degGraphOption) {
+                case "full":
+                    options.depGraphStyle = "full";
+                    break;
+                case "popf":
+                    options.depGraphStyle = "popf";
+                    break;
+                case "base":
+                    options.depGraphStyle = "base";
+                    break;
+                default:
+                    assert degGraphOption.startsWith("maxiter") : "Invalid parameter for the dependency graph option: "+degGraphOption;
+                    options.depGraphStyle = "full";
+                    options.depGraphMaxIters = Integer.parseInt(degGraphOption.replaceFirst("maxiter", ""));
+            }
+        }
+        if(config.getBoolean("mutex")) {
+            options.handlers.add(new MutexesHandler());
+        }
+        return options;
+    }
+
+    /**
+     * Options of all planners to run in portfolio mode: the configured one, the same one with A-Epsilon
+     * toggled and the default strategies for both hierarchical and non-hierarchical problems.
+     */
+    private static List<PlanningOptions> portfolioOptions(Configuration config, List<String> planStrat, List<String> flawStrat, boolean useAEpsilon) {
+        List<List<Object>> strategies = new LinkedList<>();
+        strategies.add(Arrays.asList(planStrat, flawStrat, useAEpsilon));
+        strategies.add(Arrays.asList(planStrat, flawStrat, !useAEpsilon));
+        strategies.add(Arrays.asList(hier_plan_sel, hier_flaw_sel, hier_use_epsilon));
+        strategies.add(Arrays.asList(flat_plan_sel, flat_flaw_sel, flat_use_epsilon));
+
+        List<PlanningOptions> portfolio = new LinkedList<>();
+        List<List<Object>> alreadyUsed = new LinkedList<>();
+        for(List<Object> strat : strategies) {
+            if(alreadyUsed.contains(strat))
+                continue;
+            alreadyUsed.add(strat);
+            @SuppressWarnings("unchecked") List<String> planSel = (List<String>) strat.get(0);
+            @SuppressWarnings("unchecked") List<String> flawSel = (List<String>) strat.get(1);
+            portfolio.add(buildOptions(config, planSel, flawSel, (Boolean) strat.get(2)));
+        }
+        return portfolio;
+    }
+
     public static void main(String[] args) throws Exception {
         SimpleJSAP jsap = getCommandLineParser(true);
 
@@ -284,19 +402,8 @@ public class Planning {
 
 
                 // creates the planner that will be tested for this problem
-                List<String> planStrat =
-                        config.specified("plan-selection") ?
-                                Arrays.asList(config.getStringArray("plan-selection")) :
-                                pb.allActionsAreMotivated() ?
-                                        hier_plan_sel : flat_plan_sel;
-                if(config.getBoolean("reach-test") && !pb.allActionsAreMotivated()) {
-                    planStrat = Collections.singletonList("soca");
-                }
-                List<String> flawStrat =
-                        config.specified("flaw-selection") ?
-                                Arrays.asList(config.getStringArray("flaw-selection")) :
-                                pb.allActionsAreMotivated() ?
-                                        hier_flaw_sel : flat_flaw_sel;
+                List<String> planStrat = planSelection(config, pb);
+                List<String> flawStrat = flawSelection(config, pb);
 
                 if(!quiet) {
                     System.out.println(pb.allActionsAreMotivated() ?
@@ -314,59 +421,23 @@ public class Planning {
 
                 long start = System.currentTimeMillis();
 
-                PlanningOptions options = new PlanningOptions(planStrat, flawStrat);
-                options.useFastForward = config.getBoolean("fast-forward");
-
-                options.useAEpsilon = config.specified("a-epsilon") ?
-                        config.getBoolean("a-epsilon") :
-                        pb.allActionsAreMotivated() ?
-                                hier_use_epsilon : flat_use_epsilon;
-
-                options.displaySearch = config.getBoolean("display-search");
-                options.actionsSupportMultipleTasks = config.getBoolean("multi-supports");
-                options.checkUnsolvableThreatsForOpenGoalsResolvers = config.getBoolean("threats-early-check");
-
-                if(config.getBoolean("needed-observations"))
-                    options.flawFinders.add(new NeededObservationsFinder());
-
-                switch(config.getString("action-insertion")) {
-                    case "local":
-                        options.actionInsertionStrategy = PlanningOptions.ActionInsertionStrategy.UP_OR_DOWN;
-                        break;
-                    case "dec":
-                        options.actionInsertionStrategy = PlanningOptions.ActionInsertionStrategy.DOWNWARD_ONLY;
-                        break;
-                    default:
-                        throw new FAPEException("Invalid option for action insertion: "+config.getString("action-insertion"));
-                }
+                final boolean useAEpsilon = useAEpsilon(config, pb);
+                final Controllability controllability = config.getBoolean("dynamic-controllability") ?
+                        Controllability.DYNAMIC_CONTROLLABILITY : Controllability.PSEUDO_CONTROLLABILITY;
+                PlanningOptions options = buildOptions(config, planStrat, flawStrat, useAEpsilon);
 
-                if(config.getBoolean("reachability-graph") && !config.getString("reachability-graph").equals("none")) {
-                    options.handlers.add(new ReachabilityHandler());
-                    String degGraphOption = config.getString("reachability-graph");
-                    switch (degGraphOption) {
-                        case "full":
-                            options.depGraphStyle = "full";
-                            break;
-                        case "popf":
-                            options.depGraphStyle = "popf";
-                            break;
-                        case "base":
-                            options.depGraphStyle = "base";
-                            break;
-                        default:
-                            assert degGraphOption.startsWith("maxiter") : "Invalid parameter for the dependency graph option: "+degGraphOption;
-                            options.depGraphStyle = "full";
-                            options.depGraphMaxIters = Integer.parseInt(degGraphOption.replaceFirst("maxiter", ""));
-                    }
-                }
-                if(config.getBoolean("mutex")) {
-                    options.handlers.add(new MutexesHandler());
-                }
                 PartialPlan iniPartialPlan = null;
                 Planner planner = null;
+                PortfolioPlanner portfolio = null;
                 try {
-                    iniPartialPlan = new PartialPlan(pb, Controllability.PSEUDO_CONTROLLABILITY);
-                    planner = new Planner(iniPartialPlan, options);
+                    if(config.getBoolean("portfolio")) {
+                        portfolio = new PortfolioPlanner(pb, controllability,
+                                portfolioOptions(config, planStrat, flawStrat, useAEpsilon));
+                        planner = portfolio.planners.get(0);
+                    } else {
+                        iniPartialPlan = new PartialPlan(pb, controllability);
+                        planner = new Planner(iniPartialPlan, options);
+                    }
                 } catch (InconsistencyException e) {
                     System.out.println("Inconsistency in the problem definition");
                     e.printStackTrace();
@@ -377,7 +448,12 @@ public class Planning {
                 PartialPlan sol;
                 try {
                     planningStart = System.currentTimeMillis();
-                    sol = planner.search(planningStart + 1000 * maxtime, maxDepth, incrementalDeepening);
+                    if(portfolio != null) {
+                        sol = portfolio.search(planningStart + 1000 * maxtime, maxDepth, incrementalDeepening);
+                        planner = portfolio.getSelectedPlanner();
+                    } else {
+                        sol = planner.search(planningStart + 1000 * maxtime, maxDepth, incrementalDeepening);
+                    }
                     failure = sol == null;
                 } catch (Exception ex) {
                     ex.printStackTrace();
@@ -403,9 +479,12 @@ public class Planning {
                 }
 
                 if (!failure && !config.getBoolean("quiet")) {
-                    System.out.println("Expanded states: "+planner.numExpandedPartialPlans);
-                    System.out.println("Generated states: "+planner.numGeneratedPartialPlans);
-                    System.out.println("Fast-Forwarded states: "+planner.numFastForwardedPartialPlans);
+                    System.out.println("Expanded states: "+planner.numExpandedPartialPlans.get());
+                    System.out.println("Generated states: "+planner.numGeneratedPartialPlans.get());
+                    System.out.println("Fast-Forwarded states: "+planner.numFastForwardedPartialPlans.get());
+                    System.out.println("Released states: "+planner.memoryManager.getNumReleased());
+                    System.out.println("Rebuilt states: "+planner.memoryManager.getNumRebuilt());
+                    System.out.println("State cache hits/misses: "+planner.memoryManager.getNumHits()+"/"+planner.memoryManager.getNumMisses());
                     System.out.println("Makespan: "+sol.getMakespan());
                     System.out.println("Num actions: "+sol.getAllActions().size());
                     System.out.println();
@@ -426,16 +505,16 @@ public class Planning {
 
                 final String reachStr = config.getString("reachability-graph");
                 final String ffStr = config.getBoolean("fast-forward") ? "ff" : "no-ff";
-                final String aeStr = options.useAEpsilon ? "ae" : "no-ae";
+                final String aeStr = planner.options.useAEpsilon ? "ae" : "no-ae";
 
                 writer.write(
                         i + ", "
                                 + time + ", "
                                 + planningTime + ", "
                                 + anmlFile + ", "
-                                + planner.numExpandedPartialPlans + ", "
-                                + planner.numGeneratedPartialPlans + ", "
-                                + planner.numFastForwardedPartialPlans + ", "
+                                + planner.numExpandedPartialPlans.get() + ", "
+                                + planner.numGeneratedPartialPlans.get() + ", "
+                                + planner.numFastForwardedPartialPlans.get() + ", "
                                 + (failure ? "-" : sol.getDepth()) + ", "
                                 + Utils.print(planner.options.flawSelStrategies, ":") + ", "
                                 + Utils.print(planner.options.planSelStrategies, ":") + ", "
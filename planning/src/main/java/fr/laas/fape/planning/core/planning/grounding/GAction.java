@@ -256,7 +256,7 @@ public class GAction implements Identifiable {
         // with temporal actions, a lot of actions can be self suportive
         pre.removeAll(add);
 
-        this.id = planner.preprocessor.nextGActionID++;
+        this.id = planner.preprocessor.nextGActionID();
         this.subTasks = initSubTasks(gPb.liftedPb, planner);
         this.task = initTask(gPb.liftedPb, planner);
         this.preconditions = new int[pre.size()];
@@ -1,24 +1,26 @@
 package fr.laas.fape.planning.core.planning.planner;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Counters {
 
     public static boolean isActive = GlobalOptions.getBooleanOption("counters-on");
-    private static Map<String, Integer> counts = new HashMap<>();
+    private static Map<String, Integer> counts = new ConcurrentHashMap<>();
 
     public static void inc(String name) {
-        if(isActive) {
-            if (!counts.containsKey(name))
-                counts.put(name, 1);
-            else
-                counts.put(name, counts.get(name) + 1);
-        }
+        if(isActive)
+            counts.merge(name, 1, Integer::sum);
+    }
+
+    /** Current value of all counters */
+    static Map<String, Integer> counts() {
+        return counts;
     }
 
     public static void reset() {
         counts.clear();
+        Telemetry.reset();
     }
 
     public static void echo() {
@@ -27,6 +29,7 @@ public class Counters {
             for (Map.Entry<String, Integer> e : counts.entrySet()) {
                 System.out.println("  " + e.getKey() + ": " + e.getValue());
             }
+            Telemetry.export();
         }
     }
 }
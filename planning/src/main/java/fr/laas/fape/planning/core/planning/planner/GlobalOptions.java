@@ -29,13 +29,19 @@ public class GlobalOptions {
             new Option("heur-weight-unrefined-tasks", "real", "0", ""),
             new Option("heur-weight-unbinded-variables", "real", "0", ""),
             new Option("search-epsilon", "real", "0.3", "Epsilon value of the A-Epsilon algorithm."),
+            new Option("search-deferred-heuristic", "boolean", "false", "If true, children are queued with the heuristic value of their parent. The heuristic of a node is only computed when it is selected, and given to its children."),
+            new Option("lds-max-discrepancies", "int", "-1", "If non-negative, search is a depth-first limited discrepancy search allowing at most this number of discrepancies (choices of a resolver that is not the first one) on a branch."),
             new Option("use-causal-network", "boolean", "true", ""),
             new Option("use-decomposition-variables", "boolean", "true", ""),
             new Option("check-delay-from-task-to-og", "boolean", "true", ""),
             new Option("reachability-instrumentation", "boolean", "true", ""),
-            new Option("counters-on", "boolean", "false", ""),
+            new Option("stn-backend", "string", "matrix", "Implementation of the temporal network: \"matrix\" (dense minimal network) or \"sparse\" (sparse constraint graph with on-demand distances)."),
+            new Option("counters-on", "boolean", "false", "Records counters, timing of search phases and statistics on flaws."),
+            new Option("counters-output", "string", "", "File to which the JSON summary of counters is appended at the end of each run. Standard output if empty."),
+            new Option("counters-snapshot-period", "int", "0", "If positive, a JSON snapshot of the counters is appended to the counters output every such number of milliseconds."),
             new Option("recent-nodes-to-keep", "int", "5", "Number of node expanded node to keep in the search tree."),
-            new Option("best-nodes-to-keep", "int", "5", "Number of the best nodes allowed to hold their memory in cache.")
+            new Option("best-nodes-to-keep", "int", "5", "Number of the best nodes allowed to hold their memory in cache."),
+            new Option("state-cache-budget", "int", "0", "Memory (in MB) allowed for the states held by search nodes, as a rough estimate of their size. If 0, states are held through soft references and the two previous options apply.")
     ).stream().collect(Collectors.toMap(Option::getKey, Function.identity()));
 
     private static Map<String,String> overriddenValues = new HashMap<>();
@@ -15,7 +15,10 @@ import fr.laas.fape.planning.core.planning.search.strategies.plans.PlanCompFacto
 import fr.laas.fape.planning.core.planning.search.strategies.plans.SeqPlanComparator;
 import fr.laas.fape.planning.core.planning.states.Printer;
 import fr.laas.fape.planning.core.planning.states.SearchNode;
+import fr.laas.fape.planning.core.planning.states.SearchNodeMemoryManager;
 import fr.laas.fape.planning.core.planning.states.PartialPlan;
+import fr.laas.fape.planning.core.planning.states.modification.PartialPlanModification;
+import fr.laas.fape.planning.exceptions.FAPEException;
 import fr.laas.fape.planning.exceptions.FlawOrderingAnomaly;
 import fr.laas.fape.planning.exceptions.FlawWithNoResolver;
 import fr.laas.fape.planning.exceptions.PlanningInterruptedException;
@@ -25,6 +28,10 @@ import fr.laas.fape.constraints.stnu.Controllability;
 import fr.laas.fape.planning.util.TinyLogger;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -37,13 +44,24 @@ import java.util.stream.Collectors;
  */
 public class Planner {
 
-    public boolean stopPlanning = false;
+    public volatile boolean stopPlanning = false;
 
     public Planner(PartialPlan initialPartialPlan, PlanningOptions options) {
+        this(initialPartialPlan, options, null, null);
+    }
+
+    /**
+     * Creates a planner that reuses the grounding (see Preprocessor) and the lifted DTG of another planner working
+     * on the same problem. If they are null, those are built by this planner.
+     * The actions that remain possible are still restricted independently by each planner.
+     */
+    Planner(PartialPlan initialPartialPlan, PlanningOptions options, Preprocessor sharedGrounding, LiftedDTG sharedDTG) {
         this.options = options;
         this.pb = initialPartialPlan.pb;
         this.controllability = initialPartialPlan.controllability;
-        this.dtg = new LiftedDTG(this.pb);
+        this.dtg = sharedDTG != null ? sharedDTG : new LiftedDTG(this.pb);
+        if(sharedGrounding != null)
+            this.preprocessor = new Preprocessor(this, initialPartialPlan, sharedGrounding);
         queue = new PriorityQueue<>(100, this.heuristicComputer().comparator(options));
         SearchNode root = new SearchNode(initialPartialPlan, this);
 
@@ -64,9 +82,9 @@ public class Planner {
 
     public static boolean debugging = false;
 
-    public int numGeneratedPartialPlans = 1; // count the initial partial plan
-    public int numExpandedPartialPlans = 0;
-    public int numFastForwardedPartialPlans = 0;
+    public final AtomicInteger numGeneratedPartialPlans = new AtomicInteger(1); // count the initial partial plan
+    public final AtomicInteger numExpandedPartialPlans = new AtomicInteger(0);
+    public final AtomicInteger numFastForwardedPartialPlans = new AtomicInteger(0);
 
     public final Controllability controllability;
 
@@ -80,51 +98,26 @@ public class Planner {
 
     private final PriorityQueue<SearchNode> queue;
 
-    /** References to all SearchNodes currently allocated by the planner. (the values of the map are not used).
-     * THis is used to be able to release the memory retained by those nodes. */
-    private final WeakHashMap<SearchNode, Object> allStates = new WeakHashMap<>();
+    /** Pool on which the children of a node are built when parallel expansion is enabled. */
+    private ForkJoinPool expansionPool = null;
+
+    private ForkJoinPool getExpansionPool() {
+        if(expansionPool == null)
+            expansionPool = new ForkJoinPool(options.numExpansionThreads);
+        return expansionPool;
+    }
+
+    /** Keeps track of the SearchNodes holding a state to be able to release the memory retained by those nodes. */
+    public final SearchNodeMemoryManager memoryManager =
+            new SearchNodeMemoryManager(GlobalOptions.getIntOption("state-cache-budget") * 1024L * 1024L);
 
     private final int _bestNodesToKeep = GlobalOptions.getIntOption("best-nodes-to-keep");
     private final int _recentNodesToKeep = GlobalOptions.getIntOption("recent-nodes-to-keep");
 
-    public void recordSearchNode(SearchNode n) {
-        allStates.put(n, null);
-    }
-
     /** Release memory from most SearchNodes.
      *  This is done by transforming a Soft or Strong reference in nodes to weak references. */
     private void cleanNodes(int mostRecentExpandedToKeep, int mostRecentPendingToKeep, int bestToKeep, Comparator<? super SearchNode> heuristic) {
-        Set<SearchNode> recentsExpanded =
-                allStates.keySet().stream()
-                        .filter(s -> s.status == SearchNode.Status.EXPANDED)
-                        .filter(SearchNode::holdsMemory)
-                        .sorted(Comparator.comparingLong(s -> s.lastRecord))
-                        .limit(mostRecentExpandedToKeep)
-                        .collect(Collectors.toSet());
-
-        Set<SearchNode> recentsPending =
-                allStates.keySet().stream()
-                        .filter(s -> s.status == SearchNode.Status.PENDING)
-                        .filter(SearchNode::holdsMemory)
-                        .sorted(Comparator.comparingLong(s -> s.lastRecord))
-                        .limit(mostRecentPendingToKeep)
-                        .collect(Collectors.toSet());
-
-        Set<SearchNode> bests =
-                allStates.keySet().stream()
-                        .filter(s -> s.status == SearchNode.Status.PENDING)
-                        .filter(SearchNode::holdsMemory)
-                        .sorted(heuristic)
-                        .limit(bestToKeep)
-                        .collect(Collectors.toSet());
-
-        allStates.keySet().stream()
-                .filter(s -> s.status != SearchNode.Status.STABLE)
-                .filter(SearchNode::holdsMemory)
-                .filter(s -> !recentsExpanded.contains(s))
-                .filter(s -> !recentsPending.contains(s))
-                .filter(s -> !bests.contains(s))
-                .forEach(SearchNode::releaseMemory);
+        memoryManager.clean(mostRecentExpandedToKeep, mostRecentPendingToKeep, bestToKeep, heuristic);
     }
 
     /**
@@ -168,10 +161,24 @@ public class Planner {
      * Also check the "planState" field for more detailed information.
      */
     public PartialPlan search(final long deadline, final int maxDepth, final boolean incrementalDeepening) {
-        if (options.useAEpsilon) {
-            return aEpsilonSearch(deadline, maxDepth, incrementalDeepening);
-        } else {
-            return bestFirstSearch(deadline, maxDepth, incrementalDeepening);
+        try {
+            if (options.maxDiscrepancies >= 0) {
+                return limitedDiscrepancySearch(deadline, maxDepth);
+            } else if (options.useAEpsilon) {
+                return aEpsilonSearch(deadline, maxDepth, incrementalDeepening);
+            } else {
+                return bestFirstSearch(deadline, maxDepth, incrementalDeepening);
+            }
+        } finally {
+            shutdownExpansionPool();
+        }
+    }
+
+    /** Terminates the threads of the expansion pool, if any. A new pool is created if search is resumed. */
+    private void shutdownExpansionPool() {
+        if(expansionPool != null) {
+            expansionPool.shutdown();
+            expansionPool = null;
         }
     }
 
@@ -196,7 +203,7 @@ public class Planner {
                 break;
             currentMaxDepth += 1;
             if (debugging && incrementalDeepening)
-                System.out.println("Current max depth: "+currentMaxDepth+". Expanded nodes: "+ numExpandedPartialPlans);
+                System.out.println("Current max depth: "+currentMaxDepth+". Expanded nodes: "+ numExpandedPartialPlans.get());
         }
         return solution;
     }
@@ -257,8 +264,7 @@ public class Planner {
 
             try {
                 // let all handlers know that this plan was selected for expansion
-                for (Handler h : options.handlers)
-                    h.addOperation(node, Handler.StateLifeTime.SELECTION, this);
+                recordSelection(node);
 
                 if (!plan.isConsistent()) {
                     if (options.displaySearch)
@@ -288,6 +294,234 @@ public class Planner {
         }
     }
 
+    /** A node on the branch being explored by the depth-first search, with the resolvers of its selected flaw. */
+    private static final class BranchNode {
+        final SearchNode node;
+        final Flaw flaw;
+        final List<Resolver> resolvers;
+        /** Number of discrepancies on the branch leading to this node */
+        final int discrepancies;
+        /** Index of the next resolver whose child is to be explored */
+        int nextResolver = 0;
+        /**
+         * For the roots of the search only (null otherwise): child built for each resolver, reused by all runs of
+         * the depth-first search, and whether it turned out to be a dead-end.
+         */
+        final SearchNode[] children;
+        final boolean[] deadEnds;
+
+        BranchNode(SearchNode node, Flaw flaw, List<Resolver> resolvers, int discrepancies, boolean isRoot) {
+            this.node = node;
+            this.flaw = flaw;
+            this.resolvers = resolvers;
+            this.discrepancies = discrepancies;
+            this.children = isRoot ? new SearchNode[resolvers.size()] : null;
+            this.deadEnds = isRoot ? new boolean[resolvers.size()] : null;
+        }
+
+        /** Copy of a root for a new run of the depth-first search, sharing its flaw and children */
+        BranchNode(BranchNode root) {
+            this.node = root.node;
+            this.flaw = root.flaw;
+            this.resolvers = root.resolvers;
+            this.discrepancies = 0;
+            this.children = root.children;
+            this.deadEnds = root.deadEnds;
+        }
+
+        boolean isRoot() { return children != null; }
+    }
+
+    /**
+     * Limited discrepancy search: a depth-first search in which a branch can take at most a given number of
+     * discrepancies, i.e. choices of a resolver that is not the first one. The search is run again from the
+     * nodes in the queue with 0, 1, ... options.maxDiscrepancies allowed discrepancies.
+     * The flaw selected in those roots and their children are kept from one run to the next.
+     *
+     * Children are built one at a time, only when they are explored. Before building a child, a resolver
+     * that only adds constraints is checked on the CSP of its parent (which is rolled back afterwards):
+     * if it makes the CSP inconsistent, it is discarded without copying the parent.
+     * The last child of a node that can be explored with the allowed discrepancies takes over the state of
+     * its parent instead of copying it.
+     */
+    private PartialPlan limitedDiscrepancySearch(final long deadLine, final int maxDepth) {
+        final List<BranchNode> roots = new ArrayList<>();
+        for(SearchNode root : queue) {
+            try {
+                PartialPlan plan = selectForDepthFirstSearch(root);
+                if(!plan.isConsistent())
+                    continue;
+                Optional<Flaw> flaw = getFlaws(root);
+                if(!flaw.isPresent()) {
+                    this.planState = EPlanState.CONSISTENT;
+                    TinyLogger.LogInfo("Plan found:");
+                    TinyLogger.LogInfo(plan);
+                    return plan;
+                } else if(root.getDepth() < maxDepth) {
+                    roots.add(new BranchNode(root, flaw.get(), resolversForDepthFirstSearch(root, flaw.get()), 0, true));
+                }
+            } catch (InconsistencyException e) {
+                // dead-end
+            }
+        }
+        for(int allowed = 0 ; allowed <= options.maxDiscrepancies ; allowed++) {
+            for(BranchNode root : roots) {
+                PartialPlan solution = depthFirstSearch(new BranchNode(root), allowed, deadLine, maxDepth);
+                if(solution != null || planState == EPlanState.TIMEOUT)
+                    return solution;
+            }
+            if (debugging)
+                System.out.println("Allowed discrepancies: "+allowed+". Expanded nodes: "+ numExpandedPartialPlans.get());
+        }
+        for(BranchNode root : roots)
+            root.node.setExpanded();
+        this.planState = EPlanState.INFEASIBLE;
+        return null;
+    }
+
+    /** Records the selection of a node by the handlers and builds its state */
+    private PartialPlan selectForDepthFirstSearch(SearchNode node) {
+        recordSelection(node);
+        return node.getState();
+    }
+
+    /**
+     * Records the selection of a node for expansion by all handlers.
+     *
+     * If heuristic evaluation is deferred, the node was not notified of its insertion in the queue when built:
+     * it is notified now, before its flaws are selected and its children are built from its state.
+     */
+    private void recordSelection(SearchNode node) {
+        for (Handler h : options.handlers)
+            h.addOperation(node, Handler.StateLifeTime.SELECTION, this);
+        if (options.deferHeuristicEvaluation && node.getDepth() > 0) // the initial node was notified when created
+            node.addOperation(s -> {
+                if (s.isConsistent())
+                    s.notify(Handler.StateLifeTime.PRE_QUEUE_INSERTION);
+            });
+    }
+
+    /** Sorted resolvers of the flaw selected in a node explored by the depth-first search */
+    private List<Resolver> resolversForDepthFirstSearch(SearchNode node, Flaw flaw) {
+        PartialPlan plan = node.getState();
+        if (node.getDepth() == 0 && plan.addableActions != null) {
+            assert plan.getAllActions().isEmpty();
+            preprocessor.restrictPossibleActions(plan.addableActions);
+        }
+        numExpandedPartialPlans.incrementAndGet();
+        List<Resolver> resolvers = flaw.getResolvers(plan, this);
+        Collections.sort(resolvers);
+        Telemetry.flawExpanded(flaw, resolvers.size());
+        return resolvers;
+    }
+
+    private PartialPlan depthFirstSearch(final BranchNode root, final int maxDiscrepancies, final long deadLine, final int maxDepth) {
+        final Deque<BranchNode> branch = new ArrayDeque<>();
+        branch.push(root);
+        SearchNode next = null;
+        int nextResolverID = -1;
+        boolean nextWasSelected = false;
+        int nextDiscrepancies = 0;
+        while (true) {
+            if(stopPlanning)
+                throw new PlanningInterruptedException();
+
+            if (System.currentTimeMillis() > deadLine) {
+                TinyLogger.LogInfo("Timeout.");
+                this.planState = EPlanState.TIMEOUT;
+                return null;
+            }
+
+            if (next != null) {
+                // select the node for expansion
+                final BranchNode parent = branch.peek();
+                PartialPlan plan = null;
+                boolean consistent;
+                try {
+                    plan = nextWasSelected ? next.getState() : selectForDepthFirstSearch(next);
+                    consistent = plan.isConsistent();
+                } catch (InconsistencyException e) {
+                    consistent = false;
+                }
+                if (!nextWasSelected)
+                    Telemetry.childBuilt(parent.flaw, !consistent);
+                if (!consistent && parent.isRoot())
+                    parent.deadEnds[nextResolverID] = true;
+
+                if (consistent) {
+                    try {
+                        Optional<Flaw> flaw = getFlaws(next);
+                        if (!flaw.isPresent()) {
+                            this.planState = EPlanState.CONSISTENT;
+                            TinyLogger.LogInfo("Plan found:");
+                            TinyLogger.LogInfo(plan);
+                            return plan;
+                        } else if (next.getDepth() < maxDepth) {
+                            List<Resolver> resolvers = resolversForDepthFirstSearch(next, flaw.get());
+                            branch.push(new BranchNode(next, flaw.get(), resolvers, nextDiscrepancies, false));
+                        }
+                    } catch (InconsistencyException e) {
+                        // dead-end, backtrack
+                        if (parent.isRoot())
+                            parent.deadEnds[nextResolverID] = true;
+                    }
+                }
+                next = null;
+            }
+
+            if (branch.isEmpty())
+                return null;
+
+            // explore the next child of the deepest node of the branch, or backtrack if there is none
+            final BranchNode current = branch.peek();
+            try {
+                while (next == null && current.nextResolver < current.resolvers.size()) {
+                    final int resolverID = current.nextResolver++;
+                    final int discrepancies = current.discrepancies + (resolverID == 0 ? 0 : 1);
+                    if (discrepancies > maxDiscrepancies)
+                        break;
+                    if (current.isRoot() && current.deadEnds[resolverID])
+                        continue;
+                    if (current.isRoot() && current.children[resolverID] != null) {
+                        next = current.children[resolverID];
+                        nextWasSelected = true;
+                    } else {
+                        final Resolver resolver = current.resolvers.get(resolverID);
+                        // the modification of a constraint-only resolver creates no reference in the parent
+                        if (resolver.isConstraintOnly() && !current.node.getState().mightBeConsistentWith(
+                                resolver.asStateModification(current.node.getState()))) {
+                            Telemetry.childBuilt(current.flaw, true);
+                            if (current.isRoot())
+                                current.deadEnds[resolverID] = true;
+                            continue;
+                        }
+                        SearchNode child = new SearchNode(current.node, this);
+                        child.addOperation(childOperation(resolverID, resolver));
+                        numGeneratedPartialPlans.incrementAndGet();
+                        final boolean isLastChild = resolverID == current.resolvers.size() - 1
+                                || resolverID == 0 && current.discrepancies + 1 > maxDiscrepancies;
+                        if (current.isRoot())
+                            current.children[resolverID] = child;
+                        else if (isLastChild)
+                            child.takeStateOfParent(); // no other child of the parent will be built
+                        next = child;
+                        nextWasSelected = false;
+                    }
+                    nextResolverID = resolverID;
+                    nextDiscrepancies = discrepancies;
+                }
+            } catch (InconsistencyException e) {
+                // the state of the node could not be rebuilt, none of its remaining children can be explored
+                current.nextResolver = current.resolvers.size();
+            }
+            if (next == null) {
+                branch.pop();
+                if (!current.isRoot())
+                    current.node.setExpanded();
+            }
+        }
+    }
+
     /**
      * Expand a partial plan by selecting a flaw and generating resolvers for this flaw.
      * @param plan    Partial plan to expand
@@ -309,7 +543,7 @@ public class Planner {
                 preprocessor.restrictPossibleActions(plan.getState().addableActions);
             }
 
-            numExpandedPartialPlans++;
+            numExpandedPartialPlans.incrementAndGet();
 
             TinyLogger.LogInfo(plan.getState(), "\nCurrent plan: [%s]", plan.getID());
 
@@ -318,6 +552,8 @@ public class Planner {
             Collections.sort(resolvers);
 
 
+            Telemetry.flawExpanded(f, resolvers.size());
+
             if (options.displaySearch)
                 searchView.setProperty(plan, SearchView.SELECTED_FLAW, Printer.p(plan.getState(), f));
 
@@ -334,49 +570,43 @@ public class Planner {
 
             TinyLogger.LogInfo(plan.getState(), " Flaw: %s", f);
 
-            List<SearchNode> children = new LinkedList<>();
-
-            // compute all valid children
+            // create all children, each one recording the modification it should apply.
+            // Modifications are built here, before any child state is built concurrently from the parent's one
+            List<SearchNode> candidates = new ArrayList<>(resolvers.size());
             for (int resolverID = 0; resolverID < resolvers.size(); resolverID++) {
                 SearchNode next = new SearchNode(plan, this);
-                final int currentResolver = resolverID;
-                try {
-                    next.addOperation(s -> {
-                        Optional<Flaw> fs = s.getFlaws(options.flawFinders, flawComparator(s));
-
-                        assert fs.isPresent();
-                        Flaw selectedFlaw = fs.get();
-                        List<Resolver> possibleResolvers = selectedFlaw.getResolvers(s, this);
-                        Collections.sort(possibleResolvers);
-                        Resolver res;
-                        try {
-                            res = possibleResolvers.get(currentResolver);
-                        } catch (IndexOutOfBoundsException e) {
-                            // apparently we tried to access a resolver that did not exists, either a
-                            // resolver disapeared or the flaw is not the one we expected
-                            throw new FlawOrderingAnomaly(null, 0, currentResolver);
-                        }
-                        if (!applyResolver(s, res, false))
-                            s.setDeadEnd();
-                        else {
-                            s.checkConsistency();
-                            if (s.isConsistent() && options.useFastForward)
-                                fastForward(s, 10);
-                        }
-                        s.checkConsistency();
-                        s.notify(Handler.StateLifeTime.PRE_QUEUE_INSERTION);
-                    });
+                next.addOperation(childOperation(resolverID, resolvers.get(resolverID)));
+                candidates.add(next);
+            }
 
+            // build the state of each child, possibly in parallel.
+            // The outcome of each child is null on success or the exception that was raised while building it
+            List<InconsistencyException> outcomes = buildChildren(candidates);
+
+            List<SearchNode> children = new LinkedList<>();
+            // heuristic value of the expanded node, given to its children if their evaluation is deferred
+            double inheritedH = -1;
+
+            // merge results in the order of resolvers to keep the search deterministic
+            for (int resolverID = 0; resolverID < candidates.size(); resolverID++) {
+                SearchNode next = candidates.get(resolverID);
+                InconsistencyException error = outcomes.get(resolverID);
+                if(error == null) {
                     boolean success = next.getState().isConsistent();
+                    Telemetry.childBuilt(f, !success);
                     String hrComment = "";
 
                     if (!success)
                         hrComment = "Non consistent resolver application or error while fast-forwarding.";
 
                     if (success) {
-                        assert next != null;
+                        if (options.deferHeuristicEvaluation) {
+                            if (inheritedH < 0)
+                                inheritedH = ownHeuristic(plan);
+                            next.setH(inheritedH);
+                        }
                         children.add(next);
-                        numGeneratedPartialPlans++;
+                        numGeneratedPartialPlans.incrementAndGet();
                     } else {
                         TinyLogger.LogInfo(plan.getState(), "     Dead-end reached for plan: %s", next.getID());
                         //inconsistent plan, doing nothing
@@ -385,15 +615,16 @@ public class Planner {
                         searchView.addNode(next);
                         if (!success)
                             searchView.setDeadEnd(next);
-                        searchView.setProperty(next, SearchView.LAST_APPLIED_RESOLVER, Printer.p(plan.getState(), resolvers.get(currentResolver)));
+                        searchView.setProperty(next, SearchView.LAST_APPLIED_RESOLVER, Printer.p(plan.getState(), resolvers.get(resolverID)));
                         searchView.setProperty(next, SearchView.COMMENT, hrComment);
                     }
-                } catch (InconsistencyException e) {
+                } else {
+                    Telemetry.childBuilt(f, true);
                     if(options.displaySearch) {
                         searchView.addNode(next);
                         searchView.setDeadEnd(next);
-                        searchView.setProperty(next, SearchView.LAST_APPLIED_RESOLVER, Printer.p(plan.getState(), resolvers.get(currentResolver)));
-                        searchView.setProperty(next, SearchView.COMMENT, e.toString());
+                        searchView.setProperty(next, SearchView.LAST_APPLIED_RESOLVER, Printer.p(plan.getState(), resolvers.get(resolverID)));
+                        searchView.setProperty(next, SearchView.COMMENT, error.toString());
                     }
                 }
             }
@@ -408,11 +639,102 @@ public class Planner {
         }
     }
 
+    /**
+     * Operation that builds a child state by applying the i-th resolver (in the sorted list of resolvers) of the
+     * flaw selected in its parent. The resolver is recorded, so that the flaws of the parent are not detected
+     * again when the state of the child is (re)built. Its modification is created on the state of the child
+     * each time, with references given by the counter of this state: the same ones on every rebuild.
+     */
+    private Consumer<PartialPlan> childOperation(final int currentResolver, final Resolver resolver) {
+        return s -> {
+            if (debugging)
+                checkFlawOrdering(s, currentResolver, resolver);
+            if (!applyModification(s, resolver.asStateModification(s), false))
+                s.setDeadEnd();
+            else {
+                s.checkConsistency();
+                if (s.isConsistent() && options.useFastForward)
+                    fastForward(s, 10);
+            }
+            s.checkConsistency();
+            if (!options.deferHeuristicEvaluation)
+                s.notify(Handler.StateLifeTime.PRE_QUEUE_INSERTION);
+        };
+    }
+
+    /**
+     * Computes the heuristic value of the state of a node whose evaluation was deferred: the value recorded
+     * in the node is the one inherited from its parent.
+     * The state was notified of PRE_QUEUE_INSERTION when the node was selected (see recordSelection).
+     */
+    private double ownHeuristic(SearchNode node) {
+        final PartialPlan plan = node.getState();
+        final long start = Telemetry.start();
+        final double h = heuristicComputer().h(plan);
+        Telemetry.stop(Telemetry.Phase.HEURISTIC, start);
+        return h;
+    }
+
+    /**
+     * Makes sure that the flaw selected in the given state (a copy of the parent) still has the expected
+     * resolver at the given index. Only done when debugging as it requires detecting all flaws again.
+     */
+    private void checkFlawOrdering(PartialPlan s, int currentResolver, Resolver expected) {
+        Optional<Flaw> fs = s.getFlaws(options.flawFinders, flawComparator(s));
+        List<Resolver> possibleResolvers = fs.isPresent() ? fs.get().getResolvers(s, this) : new ArrayList<>();
+        Collections.sort(possibleResolvers);
+        // either a resolver disappeared or the flaw is not the one we expected
+        if (currentResolver >= possibleResolvers.size() || possibleResolvers.get(currentResolver).compareTo(expected) != 0)
+            throw new FlawOrderingAnomaly(fs.map(Collections::singletonList).orElse(null), 0, currentResolver);
+    }
+
+    /**
+     * Builds the state of the given children.
+     * If more than one expansion thread is allowed, children are built concurrently on the expansion pool.
+     *
+     * @return For each child (in the same order), null if the child was successfully built or the
+     *         inconsistency that was detected while building it.
+     */
+    private List<InconsistencyException> buildChildren(List<SearchNode> children) {
+        if(options.numExpansionThreads <= 1 || children.size() <= 1)
+            return children.stream().map(Planner::buildState).collect(Collectors.toList());
+
+        try {
+            return getExpansionPool().submit(() ->
+                    children.parallelStream().map(Planner::buildState).collect(Collectors.toList())
+            ).get();
+        } catch (InterruptedException e) {
+            throw new PlanningInterruptedException();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new FAPEException("Error while expanding a search node: "+e.getCause());
+        }
+    }
+
+    private static InconsistencyException buildState(SearchNode n) {
+        try {
+            n.getState();
+            return null;
+        } catch (InconsistencyException e) {
+            return e;
+        }
+    }
+
     /**
      * This function looks at flaws and resolvers in the plan and fixes a flaw with a single resolver.
      * It does that at most "maxForwardState"
      */
     private boolean fastForward(PartialPlan plan, int maxForwardStates) {
+        final long start = Telemetry.start();
+        try {
+            return fastForwardSteps(plan, maxForwardStates);
+        } finally {
+            Telemetry.stop(Telemetry.Phase.FAST_FORWARD, start);
+        }
+    }
+
+    private boolean fastForwardSteps(PartialPlan plan, int maxForwardStates) {
         while(maxForwardStates > 0) {
             maxForwardStates--;
 
@@ -438,7 +760,7 @@ public class Planner {
                     plan.checkConsistency();
                 TinyLogger.LogInfo(plan, "     [%s] ff: Adding %s", plan.mID, res);
                 if (plan.isConsistent()) {
-                    numFastForwardedPartialPlans++;
+                    numFastForwardedPartialPlans.incrementAndGet();
                     // proceed to next loop
                 } else {
                     throw new ResolverResultedInInconsistency(flaw, res);
@@ -460,8 +782,20 @@ public class Planner {
      *         False otherwise.
      */
     private boolean applyResolver(PartialPlan plan, Resolver resolver, boolean isFastForwarding) {
-        boolean result = plan.apply(resolver.asStateModification(plan), isFastForwarding) && plan.csp.propagateMixedConstraints() && plan.checkConsistency();
-        return result;
+        return applyModification(plan, resolver.asStateModification(plan), isFastForwarding);
+    }
+
+    private boolean applyModification(PartialPlan plan, PartialPlanModification modification, boolean isFastForwarding) {
+        long start = Telemetry.start();
+        boolean applied = plan.apply(modification, isFastForwarding);
+        Telemetry.stop(Telemetry.Phase.APPLY_RESOLVER, start);
+        if(!applied)
+            return false;
+
+        start = Telemetry.start();
+        boolean propagated = plan.csp.propagateMixedConstraints();
+        Telemetry.stop(Telemetry.Phase.PROPAGATION, start);
+        return propagated && plan.checkConsistency();
     }
 
     private PartialPlan aEpsilonSearch(final long deadLine, final int maxDepth, final boolean incrementalDeepening) {
@@ -517,8 +851,7 @@ public class Planner {
 
                 try {
                     // let all handlers know that this plan was selected for expansion
-                    for (Handler h : options.handlers)
-                        h.addOperation(current, Handler.StateLifeTime.SELECTION, this);
+                    recordSelection(current);
 
                     if (!current.getState().isConsistent())
                         throw new InconsistencyException();
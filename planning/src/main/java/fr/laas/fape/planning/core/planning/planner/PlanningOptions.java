@@ -72,12 +72,32 @@ public class PlanningOptions {
     public boolean useAEpsilon = true;
     public final float epsilon = GlobalOptions.getFloatOption("search-epsilon");
 
+    /**
+     * If true, the heuristic value of a node is not computed when it is inserted in the queue: it is given the
+     * value of its parent and its own value is only computed when it is selected (and passed to its children).
+     * Siblings thus only differ by their cost (g), which is still computed when they are inserted in the queue.
+     */
+    public boolean deferHeuristicEvaluation = GlobalOptions.getBooleanOption("search-deferred-heuristic");
+
+    /**
+     * If non-negative, the planner will use a depth-first limited discrepancy search, allowing at most
+     * this number of discrepancies on a branch, instead of A* or A-Epsilon.
+     */
+    public int maxDiscrepancies = GlobalOptions.getIntOption("lds-max-discrepancies");
+
     /** Which type of dependency graph to build */
     public String depGraphStyle = "full";
     public int depGraphMaxIters = Integer.MAX_VALUE;
 
     public boolean displaySearch = false;
 
+    /**
+     * Number of threads used to build the children of an expanded node.
+     * If greater than one, children are built concurrently on a fork-join pool and then
+     * merged in the queue in the same order as a sequential expansion.
+     */
+    public int numExpansionThreads = 1;
+
     /** the weight of weighted A*:  f = g + w * h */
     public float heuristicWeight = GlobalOptions.getFloatOption("heur-h-weight");
 
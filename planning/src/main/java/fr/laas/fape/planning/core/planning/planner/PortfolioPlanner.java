@@ -0,0 +1,120 @@
+package fr.laas.fape.planning.core.planning.planner;
+
+import fr.laas.fape.anml.model.AnmlProblem;
+import fr.laas.fape.constraints.stnu.Controllability;
+import fr.laas.fape.planning.core.planning.preprocessing.Preprocessor;
+import fr.laas.fape.planning.core.planning.states.PartialPlan;
+import fr.laas.fape.planning.exceptions.FAPEException;
+import fr.laas.fape.planning.exceptions.PlanningInterruptedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs several planners, each with its own options, concurrently on the same problem.
+ *
+ * The problem is parsed once. Its grounding (see Preprocessor) and lifted DTG are built once and shared by all
+ * planners, while the actions that remain possible are restricted independently by each planner.
+ * The first planner to find a solution interrupts all the others.
+ */
+public class PortfolioPlanner {
+
+    /** All planners of the portfolio, in the order of the configurations they were given */
+    public final List<Planner> planners;
+
+    private Planner winner = null;
+    private PartialPlan solution = null;
+
+    public PortfolioPlanner(AnmlProblem pb, Controllability controllability, List<PlanningOptions> configurations) {
+        assert !configurations.isEmpty() : "Empty portfolio";
+        List<Planner> planners = new ArrayList<>();
+
+        // initial plans are built sequentially as they all read from the problem
+        PartialPlan firstInitialPlan = new PartialPlan(pb, controllability);
+        Planner first = new Planner(firstInitialPlan, configurations.get(0));
+        if(first.preprocessor == null)
+            first.preprocessor = new Preprocessor(first, firstInitialPlan);
+        planners.add(first);
+
+        for(PlanningOptions options : configurations.subList(1, configurations.size()))
+            planners.add(new Planner(new PartialPlan(pb, controllability), options, first.preprocessor, first.dtg));
+
+        this.planners = Collections.unmodifiableList(planners);
+    }
+
+    /**
+     * Runs all planners concurrently until one of them finds a solution, all of them
+     * gave up or the deadline is reached.
+     *
+     * @return The solution of the first planner to find one, null if no planner found a solution.
+     */
+    public PartialPlan search(final long deadline, final int maxDepth, final boolean incrementalDeepening) {
+        ExecutorService executor = Executors.newFixedThreadPool(planners.size());
+        try {
+            List<Future<PartialPlan>> results = new ArrayList<>();
+            for(Planner planner : planners) {
+                results.add(executor.submit(() -> {
+                    try {
+                        PartialPlan sol = planner.search(deadline, maxDepth, incrementalDeepening);
+                        if(sol != null)
+                            recordSolution(planner, sol);
+                        return sol;
+                    } catch (PlanningInterruptedException e) {
+                        return null; // another planner found a solution first
+                    }
+                }));
+            }
+
+            RuntimeException firstError = null;
+            for(Future<PartialPlan> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if(firstError == null)
+                        firstError = e.getCause() instanceof RuntimeException ?
+                                (RuntimeException) e.getCause() :
+                                new FAPEException("Error in portfolio planner: "+e.getCause());
+                }
+            }
+            if(getSolution() == null && firstError != null)
+                throw firstError;
+
+            return getSolution();
+        } catch (InterruptedException e) {
+            for(Planner planner : planners)
+                planner.stopPlanning = true;
+            throw new PlanningInterruptedException();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Records the solution of a planner if it is the first one, and interrupts all other planners. */
+    private synchronized void recordSolution(Planner planner, PartialPlan sol) {
+        if(winner != null)
+            return;
+        winner = planner;
+        solution = sol;
+        for(Planner other : planners)
+            if(other != planner)
+                other.stopPlanning = true;
+    }
+
+    public synchronized PartialPlan getSolution() { return solution; }
+
+    /**
+     * Returns the planner that found the solution.
+     * If there is no solution, the first planner that timed out is returned (or the first planner of the portfolio
+     * if none did) so that its status can be reported.
+     */
+    public synchronized Planner getSelectedPlanner() {
+        if(winner != null)
+            return winner;
+        for(Planner planner : planners)
+            if(planner.planState == Planner.EPlanState.TIMEOUT)
+                return planner;
+        return planners.get(0);
+    }
+}
@@ -0,0 +1,244 @@
+package fr.laas.fape.planning.core.planning.planner;
+
+import fr.laas.fape.planning.core.planning.search.flaws.flaws.Flaw;
+import fr.laas.fape.planning.exceptions.FAPEException;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing of the main phases of the search and statistics on the flaws that were solved.
+ *
+ * Like Counters, it is only active when the "counters-on" option is set. When inactive, start()
+ * does not read the clock and all recording methods return immediately.
+ *
+ * Typical usage:
+ * <pre>
+ *     final long start = Telemetry.start();
+ *     ... // do something
+ *     Telemetry.stop(Telemetry.Phase.CLONE, start);
+ * </pre>
+ *
+ * At the end of a run, a JSON summary is written to the file given by the "counters-output" option (or
+ * on the standard output if none). If "counters-snapshot-period" is positive, a snapshot is additionally
+ * appended to this output every such number of milliseconds, one JSON object per line.
+ */
+public class Telemetry {
+
+    /** Phases of the search that are timed. */
+    public enum Phase {
+        CLONE("clone"),
+        APPLY_RESOLVER("apply-resolver"),
+        PROPAGATION("propagate-mixed-constraints"),
+        GET_FLAWS("get-flaws"),
+        HEURISTIC("heuristic"),
+        FAST_FORWARD("fast-forward");
+
+        public final String key;
+        final Histogram histogram = new Histogram();
+
+        Phase(String key) { this.key = key; }
+    }
+
+    /** Latency histogram with buckets of exponentially growing size: bucket i holds durations in [2^(i-1), 2^i) ns. */
+    static final class Histogram {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void record(long nanos) {
+            if(nanos < 0)
+                nanos = 0;
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        }
+
+        void reset() {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            for(int i=0 ; i<buckets.length() ; i++)
+                buckets.set(i, 0);
+        }
+
+        void toJson(StringBuilder sb) {
+            final long n = count.get();
+            final long total = totalNanos.get();
+            sb.append("{\"count\":").append(n)
+                    .append(",\"total-ms\":").append(total / 1000000.0)
+                    .append(",\"mean-us\":").append(n == 0 ? 0 : total / 1000.0 / n)
+                    .append(",\"max-us\":").append(maxNanos.get() / 1000.0)
+                    .append(",\"histogram-ns\":{");
+            boolean first = true;
+            for(int i=0 ; i<buckets.length() ; i++) {
+                final long inBucket = buckets.get(i);
+                if(inBucket == 0)
+                    continue;
+                if(!first)
+                    sb.append(",");
+                first = false;
+                // key is the (exclusive) upper bound of the bucket
+                sb.append("\"<").append(i == 63 ? Long.MAX_VALUE : 1L << i).append("\":").append(inBucket);
+            }
+            sb.append("}}");
+        }
+    }
+
+    /** Statistics on all flaws of a given type that were selected for expansion. */
+    static final class FlawStats {
+        final AtomicLong expanded = new AtomicLong();
+        final AtomicLong resolvers = new AtomicLong();
+        final AtomicLong withoutResolvers = new AtomicLong();
+        final AtomicLong children = new AtomicLong();
+        final AtomicLong deadEnds = new AtomicLong();
+
+        void toJson(StringBuilder sb) {
+            final long numChildren = children.get();
+            sb.append("{\"expanded\":").append(expanded.get())
+                    .append(",\"resolvers\":").append(resolvers.get())
+                    .append(",\"without-resolvers\":").append(withoutResolvers.get())
+                    .append(",\"children\":").append(numChildren)
+                    .append(",\"dead-ends\":").append(deadEnds.get())
+                    .append(",\"dead-end-rate\":").append(numChildren == 0 ? 0 : (double) deadEnds.get() / numChildren)
+                    .append("}");
+        }
+    }
+
+    private static final Map<String, FlawStats> flawStats = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService snapshotter = null;
+
+    /** Returns the current time to be given to stop(), or 0 if telemetry is inactive. */
+    public static long start() {
+        return Counters.isActive ? System.nanoTime() : 0;
+    }
+
+    /** Records the time elapsed since start (as given by start()) in the histogram of this phase. */
+    public static void stop(Phase phase, long start) {
+        if(Counters.isActive)
+            phase.histogram.record(System.nanoTime() - start);
+    }
+
+    private static FlawStats statsOf(Flaw f) {
+        return flawStats.computeIfAbsent(f.getClass().getSimpleName(), k -> new FlawStats());
+    }
+
+    /** Records that the flaw was selected for expansion and had the given number of resolvers. */
+    public static void flawExpanded(Flaw f, int numResolvers) {
+        if(Counters.isActive) {
+            FlawStats stats = statsOf(f);
+            stats.expanded.incrementAndGet();
+            stats.resolvers.addAndGet(numResolvers);
+            if(numResolvers == 0)
+                stats.withoutResolvers.incrementAndGet();
+        }
+    }
+
+    /** Records the outcome of a child built by applying a resolver of this flaw. */
+    public static void childBuilt(Flaw f, boolean deadEnd) {
+        if(Counters.isActive) {
+            FlawStats stats = statsOf(f);
+            stats.children.incrementAndGet();
+            if(deadEnd)
+                stats.deadEnds.incrementAndGet();
+        }
+    }
+
+    /** Clears all recorded data and starts streaming snapshots if requested. */
+    static synchronized void reset() {
+        stopSnapshots();
+        for(Phase p : Phase.values())
+            p.histogram.reset();
+        flawStats.clear();
+
+        final int period = GlobalOptions.getIntOption("counters-snapshot-period");
+        if(Counters.isActive && period > 0) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "telemetry-snapshots");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshotter.scheduleAtFixedRate(() -> write(toJson(false)), period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized void stopSnapshots() {
+        if(snapshotter != null) {
+            snapshotter.shutdownNow();
+            snapshotter = null;
+        }
+    }
+
+    /** Stops streaming snapshots and writes a summary of the run. */
+    static synchronized void export() {
+        if(Counters.isActive) {
+            stopSnapshots();
+            write(toJson(true));
+        }
+    }
+
+    /** Appends a line to the output given by the "counters-output" option. */
+    private static synchronized void write(String line) {
+        final String output = GlobalOptions.getStringOption("counters-output");
+        if(output.isEmpty()) {
+            System.out.println(line);
+        } else {
+            try(Writer w = new FileWriter(output, true)) {
+                w.write(line);
+                w.write("\n");
+            } catch (IOException e) {
+                throw new FAPEException("Unable to write telemetry to "+output+": "+e);
+            }
+        }
+    }
+
+    /** JSON representation of all data recorded since the last reset. */
+    public static String toJson(boolean isSummary) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"type\":\"").append(isSummary ? "summary" : "snapshot").append("\"")
+                .append(",\"timestamp-ms\":").append(System.currentTimeMillis());
+
+        sb.append(",\"counters\":{");
+        boolean first = true;
+        for(Map.Entry<String, Integer> e : new TreeMap<>(Counters.counts()).entrySet()) {
+            if(!first)
+                sb.append(",");
+            first = false;
+            sb.append("\"").append(e.getKey()).append("\":").append(e.getValue());
+        }
+
+        sb.append("},\"timers\":{");
+        first = true;
+        for(Phase p : Phase.values()) {
+            if(!first)
+                sb.append(",");
+            first = false;
+            sb.append("\"").append(p.key).append("\":");
+            p.histogram.toJson(sb);
+        }
+
+        sb.append("},\"flaws\":{");
+        first = true;
+        for(Map.Entry<String, FlawStats> e : new TreeMap<>(flawStats).entrySet()) {
+            if(!first)
+                sb.append(",");
+            first = false;
+            sb.append("\"").append(e.getKey()).append("\":");
+            e.getValue().toJson(sb);
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+}
@@ -15,6 +15,7 @@ import fr.laas.fape.anml.model.abs.statements.AbstractLogStatement;
 import fr.laas.fape.anml.model.concrete.Task;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class HierarchicalEffects {
@@ -129,11 +130,13 @@ public class HierarchicalEffects {
     }
 
     private final AnmlProblem pb;
-    private Map<String, List<TemporalFluent>> tasksEffects = new HashMap<>();
-    private Map<AbstractAction, List<TemporalFluent>> actionEffects = new HashMap<>();
-    private Map<AbstractAction, List<TemporalFluent>> directActionEffects = new HashMap<>();
-    private Map<AbstractAction, List<TemporalFluent>> directActionConditions = new HashMap<>();
-    private Map<String, List<Subtask>> subtasks = new HashMap<>();
+    // caches filled lazily by concurrent expansion threads. Entries are never removed and a value computed twice
+    // is the same, hence the check-then-put in accessors is safe.
+    private Map<String, List<TemporalFluent>> tasksEffects = new ConcurrentHashMap<>();
+    private Map<AbstractAction, List<TemporalFluent>> actionEffects = new ConcurrentHashMap<>();
+    private Map<AbstractAction, List<TemporalFluent>> directActionEffects = new ConcurrentHashMap<>();
+    private Map<AbstractAction, List<TemporalFluent>> directActionConditions = new ConcurrentHashMap<>();
+    private Map<String, List<Subtask>> subtasks = new ConcurrentHashMap<>();
 
     HierarchicalEffects(AnmlProblem pb) {
         this.pb = pb;
@@ -369,18 +372,16 @@ public class HierarchicalEffects {
             out.add(asDomainFromLocalVars(f.value, st));
         }
     }
-    DomainList DL_WORKING = new DomainList();
-    DomainList DL2_WORKING = new DomainList();
-    Map<LVarRef, VarRef> MAP_WORKING = new HashMap<>();
-
     /**
      * A task can indirectly support an open goal if it can be decomposed in an action
      * producing a statement (i) that can support the open goal (ii) that can be early enough to support it
      */
     public boolean canIndirectlySupport(Timeline og, Task t, PartialPlan st) {
-        DomainList.loadFrom(og.stateVariable, og.getGlobalConsumeValue(), st, DL_WORKING);
-        Map<LVarRef, VarRef> bindings = MAP_WORKING;
-        bindings.clear();
+        // working lists are allocated on each call as open goals are checked concurrently by expansion threads
+        final DomainList ogDomains = new DomainList();
+        final DomainList effectDomains = new DomainList();
+        DomainList.loadFrom(og.stateVariable, og.getGlobalConsumeValue(), st, ogDomains);
+        Map<LVarRef, VarRef> bindings = new HashMap<>();
         for(int i=0 ; i<t.args().size() ; i++) {
             assert st.pb.actionsByTask().keySet().contains(t.name()) : "Task '"+t.name()+"'is not recorded.\n Recorded tasks: "+st.pb.actionsByTask().keySet();
             LVarRef localVar = st.pb.actionsByTask().get(t.name()).get(0).args().get(i);
@@ -392,8 +393,8 @@ public class HierarchicalEffects {
             boolean temporallyPossible = st.csp.stn().isDelayPossible(t.start(), og.getConsumeTimePoint(), effect.delayFromStart) || !CHECK_DELAY_FROM_TASK_TO_OG;
             if(!temporallyPossible)
                 continue;
-            DomainList.loadFrom(effect.f, bindings, st, DL2_WORKING);
-            if(DL_WORKING.compatible(DL2_WORKING))
+            DomainList.loadFrom(effect.f, bindings, st, effectDomains);
+            if(ogDomains.compatible(effectDomains))
                 return true;
         }
         return false;
@@ -404,19 +405,21 @@ public class HierarchicalEffects {
      * producing a statement (i) that can support the open goal (ii) that can be early enough to support it
      */
     public boolean canSupport(Timeline og, AbstractAction aa, PartialPlan st) {
-        DomainList.loadFrom(og.stateVariable, og.getGlobalConsumeValue(), st, DL_WORKING);
+        final DomainList ogDomains = new DomainList();
+        final DomainList effectDomains = new DomainList();
+        DomainList.loadFrom(og.stateVariable, og.getGlobalConsumeValue(), st, ogDomains);
 
         for(TemporalFluent effect : effectsOf(aa)) {
             if(effect.f.func != og.stateVariable.func())
                 continue;
-            DomainList.loadFrom(effect.f, st, DL2_WORKING);
-            if(DL2_WORKING.compatible(DL_WORKING))
+            DomainList.loadFrom(effect.f, st, effectDomains);
+            if(effectDomains.compatible(ogDomains))
                 return true;
         }
         return false;
     }
 
-    private HashMap<Function,Boolean> _hasAssignmentInAction = new HashMap<>();
+    private final Map<Function,Boolean> _hasAssignmentInAction = new ConcurrentHashMap<>();
 
     public boolean hasAssignmentsInAction(Function func) {
         return _hasAssignmentInAction.computeIfAbsent(func, f ->
@@ -53,7 +53,7 @@ public class LiftedDTG implements ActionSupporterFinder{
         return this.getActionsSupporting(new FluentType(predicate, argTypes, db.getGlobalConsumeValue().getType()));
     }
 
-    private Collection<SupportingAction> getActionsSupporting(FluentType f) {
+    private synchronized Collection<SupportingAction> getActionsSupporting(FluentType f) {
         if(!potentialSupporters.containsKey(f))
             potentialSupporters.put(f, Collections.emptyList());
         return potentialSupporters.get(f);
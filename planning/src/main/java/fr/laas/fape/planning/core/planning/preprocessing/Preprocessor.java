@@ -16,35 +16,73 @@ import fr.laas.fape.structures.IRSet;
 import fr.laas.fape.anml.model.abs.AbstractAction;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+/**
+ * Grounding of the problem of a planner and the data structures derived from it.
+ *
+ * Preprocessors of planners working on the same problem (e.g. in a portfolio) can share their grounding: the ground
+ * problem and actions, the store of ground objects and the hierarchical effects are built once and are never modified
+ * afterwards. The actions that remain possible (restricted by the planner during search) and everything derived from
+ * them are specific to each preprocessor.
+ */
 public class Preprocessor {
 
+    /** Artifacts that only depend on the problem and are shared by all preprocessors working on it */
+    private static final class Grounding {
+        final GroundObjectsStore store = new GroundObjectsStore();
+        int nextGActionID = 0;
+        final AtomicInteger nextTemporalDTGNodeID = new AtomicInteger(0);
+        GroundProblem gPb;
+        /** Ground actions indexed by their ID, only set once the ground problem is built */
+        volatile GAction[] groundActions = new GAction[0];
+        HierarchicalEffects hierarchicalEffects;
+    }
+
     private final Planner planner;
     private final PartialPlan initialPartialPlan;
+    private final Grounding grounding;
 
-    public int nextGActionID = 0;
+    public final GroundObjectsStore store;
 
-    public final GroundObjectsStore store = new GroundObjectsStore();
-
-    private GroundProblem gPb;
     private EffSet<GAction> allActions;
     private IRSet<Fluent> allFluents;
     private IRSet<GStateVariable> allStateVariables;
     private Collection<ElementaryAction> relaxedActions;
     private Map<GStateVariable, DTG> dtgs;
     private Map<GStateVariable, TemporalDTG> temporalDTGs = new HashMap<>();
-    private GAction[] groundActions = new GAction[1000];
     private Map<GStateVariable, Set<GAction>> actionUsingStateVariable;
-    private HierarchicalEffects hierarchicalEffects;
 
     private Boolean isHierarchical = null;
 
-    public int nextTemporalDTGNodeID = 0;
-
     public Preprocessor(Planner container, PartialPlan initialPartialPlan) {
+        this(container, initialPartialPlan, new Grounding());
+    }
+
+    /**
+     * Creates the preprocessor of a planner working on the same problem as another one, whose grounding is reused.
+     */
+    public Preprocessor(Planner container, PartialPlan initialPartialPlan, Preprocessor sharedGrounding) {
+        this(container, initialPartialPlan, sharedGrounding.grounding);
+        assert sharedGrounding.initialPartialPlan.pb == initialPartialPlan.pb : "Grounding shared between different problems.";
+    }
+
+    private Preprocessor(Planner container, PartialPlan initialPartialPlan, Grounding grounding) {
         this.planner = container;
         this.initialPartialPlan = initialPartialPlan;
+        this.grounding = grounding;
+        this.store = grounding.store;
+    }
+
+    /** ID of the next ground action, only invoked while grounding the problem */
+    public int nextGActionID() {
+        return grounding.nextGActionID++;
+    }
+
+    /** ID of the next node of a temporal DTG, unique among all preprocessors sharing the same store */
+    public int nextTemporalDTGNodeID() {
+        return grounding.nextTemporalDTGNodeID.getAndIncrement();
     }
 
     public TaskDecompositionsReasoner getTaskDecompositionsReasoner() {
@@ -52,19 +90,24 @@ public class Preprocessor {
     }
 
     public GroundProblem getGroundProblem() {
-        if(gPb == null) {
-            gPb = new GroundProblem(initialPartialPlan.pb, planner);
-            for(GAction ga : gPb.allActions()) {
-                if(ga.id >= groundActions.length)
-                    groundActions = Arrays.copyOf(groundActions, Math.max(ga.id+1, groundActions.length*2));
-                assert groundActions[ga.id] == null;
-                groundActions[ga.id] = ga;
+        synchronized (grounding) {
+            if(grounding.gPb == null) {
+                GroundProblem gPb = new GroundProblem(initialPartialPlan.pb, planner);
+                GAction[] groundActions = new GAction[1000];
+                for(GAction ga : gPb.allActions()) {
+                    if(ga.id >= groundActions.length)
+                        groundActions = Arrays.copyOf(groundActions, Math.max(ga.id+1, groundActions.length*2));
+                    assert groundActions[ga.id] == null;
+                    groundActions[ga.id] = ga;
+                }
+                grounding.groundActions = groundActions;
+                grounding.gPb = gPb;
             }
+            return grounding.gPb;
         }
-        return gPb;
     }
 
-    public EffSet<GAction> getAllActions() {
+    public synchronized EffSet<GAction> getAllActions() {
         if(allActions == null) {
             allActions = new EffSet<>(groundActionIntRepresentation());
             allActions.addAll(getGroundProblem().allActions());
@@ -72,16 +115,18 @@ public class Preprocessor {
         return allActions;
     }
 
-    public void restrictPossibleActions(EffSet<GAction> actions) {
+    public synchronized void restrictPossibleActions(EffSet<GAction> actions) {
         assert allActions != null;
         allActions = actions.clone();
     }
 
     public HierarchicalEffects getHierarchicalEffects() {
-        if(hierarchicalEffects == null) {
-            hierarchicalEffects = new HierarchicalEffects(planner.pb);
+        synchronized (grounding) {
+            if(grounding.hierarchicalEffects == null) {
+                grounding.hierarchicalEffects = new HierarchicalEffects(planner.pb);
+            }
+            return grounding.hierarchicalEffects;
         }
-        return hierarchicalEffects;
     }
 
     public boolean fluentsInitialized() { return allFluents != null; }
@@ -108,11 +153,12 @@ public class Preprocessor {
     public GAction getGroundAction(int groundActionID) {
         if(groundActionID == -1)
             return null;
+        final GAction[] groundActions = grounding.groundActions;
         assert groundActionID < groundActions.length && groundActions[groundActionID] != null : "No recorded ground action with ID: "+groundActionID;
         return groundActions[groundActionID];
     }
 
-    public Collection<ElementaryAction> getRelaxedActions() {
+    public synchronized Collection<ElementaryAction> getRelaxedActions() {
         if(relaxedActions == null) {
             relaxedActions = new ArrayList<>();
             for(AbstractAction aa : planner.pb.abstractActions()) {
@@ -128,11 +174,11 @@ public class Preprocessor {
         return new IntRepresentation<GAction>() {
             @Override public final int asInt(GAction gAction) { return gAction.id; }
             @Override public final GAction fromInt(int id) { return getGroundAction(id); }
-            @Override public boolean hasRepresentation(GAction gAction) { assert groundActions[gAction.id] == gAction; return true; }
+            @Override public boolean hasRepresentation(GAction gAction) { assert getGroundAction(gAction.id) == gAction; return true; }
         };
     }
 
-    public Set<GAction> getActionsInvolving(GStateVariable sv) {
+    public synchronized Set<GAction> getActionsInvolving(GStateVariable sv) {
         if(actionUsingStateVariable == null) {
             actionUsingStateVariable = new HashMap<>();
             for(GAction ga : getAllActions()) {
@@ -153,7 +199,7 @@ public class Preprocessor {
         return new DTG(missingSV, missingSV.f.valueType().jInstances());
     }
 
-    public DTG getDTG(GStateVariable gStateVariable) {
+    public synchronized DTG getDTG(GStateVariable gStateVariable) {
         if (dtgs == null) {
             dtgs = new HashMap<>();
 
@@ -179,7 +225,7 @@ public class Preprocessor {
         return dtgs.get(gStateVariable);
     }
 
-    public TemporalDTG getTemporalDTG(GStateVariable sv) {
+    public synchronized TemporalDTG getTemporalDTG(GStateVariable sv) {
         if(!temporalDTGs.containsKey(sv)) {
             TemporalDTG dtg = new TemporalDTG(sv, sv.f.valueType().jInstances(), planner);
             for(GAction ga : getActionsInvolving(sv))
@@ -190,7 +236,7 @@ public class Preprocessor {
         return temporalDTGs.get(sv);
     }
 
-    public boolean isHierarchical() {
+    public synchronized boolean isHierarchical() {
         if(isHierarchical == null) {
             isHierarchical = false;
             for(GAction ga : getAllActions()) {
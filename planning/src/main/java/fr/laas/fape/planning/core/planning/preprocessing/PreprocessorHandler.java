@@ -8,7 +8,8 @@ public class PreprocessorHandler extends Handler {
 
     @Override
     public void stateBindedToPlanner(PartialPlan st, Planner planner) {
-        assert planner.preprocessor == null;
-        planner.preprocessor = new Preprocessor(planner, st);
+        // the preprocessor might have already been created on a grounding shared with other planners
+        if(planner.preprocessor == null)
+            planner.preprocessor = new Preprocessor(planner, st);
     }
 }
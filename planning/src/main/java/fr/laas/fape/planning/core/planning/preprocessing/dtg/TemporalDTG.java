@@ -31,7 +31,7 @@ public class TemporalDTG {
             this.minStay = minStay;
             this.maxStay = maxStay;
             this.isChangePossible = isChangePossible;
-            this.id = planner.preprocessor.nextTemporalDTGNodeID++;
+            this.id = planner.preprocessor.nextTemporalDTGNodeID();
             planner.preprocessor.store.record(this);
         }
         final Fluent fluent;
@@ -39,10 +39,12 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
     /** Associates all possible nodes to their earliest appearance (populated after propagation) **/
     IR2IntMap<Node> earliestAppearances = null;
 
-    /** All GActions that be added to the plan (populated after propagation) **/
+    /** All GActions that be added to the plan (populated after propagation).
+     * This set might be shared with the graphs of descendant plans and must not be modified. **/
     IRSet<GAction> addableActs = null;
 
-    /** Earliest appearance of all achievable fluents (populated after propagation) **/
+    /** Earliest appearance of all achievable fluents (populated after propagation).
+     * This map might be shared with the graphs of descendant plans and must not be modified. **/
     IR2IntMap<Fluent> fluentsEAs = null;
 
     /** Associates any possible node to its predecessor (i.e. the possible that gave it its current earliest appearance time).
@@ -108,14 +110,23 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
     }
 
 
+    /** Smallest delay of a list of edges */
+    private static int minDelay(List<MinEdge> edges) {
+        int min = Integer.MAX_VALUE;
+        for(MinEdge e : edges)
+            min = Math.min(min, e.delay);
+        return min;
+    }
+
     IR2IntMap<Node> propagate(Optional<PartialPlanReachabilityGraph> ancestorGraph) {
 
+        final Dijkstra dij;
         if(dbgLvlDij > 3) {
             // used when debugging to make sure bellman ford and dijkstra yield the same results
             Propagator p = new BellmanFord(ancestorGraph);
             IR2IntMap<Node> easBF = p.getEarliestAppearances();
 
-            Dijkstra dij = new Dijkstra(ancestorGraph);
+            dij = new Dijkstra(ancestorGraph);
             IR2IntMap<Node> easDij = dij.getEarliestAppearances();
             earliestAppearances = easDij;
             predecessors = dij.labelsPred;
@@ -136,7 +147,7 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
 
         } else {
             // propagate and retrieve the results
-            Dijkstra dij = new Dijkstra(ancestorGraph);
+            dij = new Dijkstra(ancestorGraph);
             earliestAppearances = dij.getEarliestAppearances();
             predecessors = dij.labelsPred;
             if(!Planning.quiet && !core.wasReduced && GlobalOptions.getBooleanOption("reachability-instrumentation")) {
@@ -145,13 +156,17 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
         }
 
         // extract results as more general ground object (the representation here is slightly different)
-        addableActs = new IRSet<>(core.store.getIntRep(GAction.class));
-        fluentsEAs = new IR2IntMap<>(core.store.getIntRep(Fluent.class));
-        for(Node n : earliestAppearances.keys()) {
-            if(n instanceof TempFluent.SVFluent) {
-                fluentsEAs.put(((TempFluent.SVFluent) n).fluent, earliestAppearances.get(n));
-            } else if(n instanceof TempFluent.ActionPossible) {
-                addableActs.add(((TempFluent.ActionPossible) n).action);
+        if(ancestorGraph.isPresent()) {
+            extractResults(ancestorGraph.get(), dij.modified);
+        } else {
+            addableActs = new IRSet<>(core.store.getIntRep(GAction.class));
+            fluentsEAs = new IR2IntMap<>(core.store.getIntRep(Fluent.class));
+            for (Node n : earliestAppearances.keys()) {
+                if (n instanceof TempFluent.SVFluent) {
+                    fluentsEAs.put(((TempFluent.SVFluent) n).fluent, earliestAppearances.get(n));
+                } else if (n instanceof TempFluent.ActionPossible) {
+                    addableActs.add(((TempFluent.ActionPossible) n).action);
+                }
             }
         }
 
@@ -220,6 +235,31 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
         return earliestAppearances;
     }
 
+    /**
+     * Derives the addable actions and the earliest appearances of fluents from those of the ancestor graph.
+     * An incremental propagation can only delay or delete nodes, hence only the modified nodes need to be looked at.
+     * The ancestor's structures are reused as is if none of those nodes affects them.
+     */
+    private void extractResults(PartialPlanReachabilityGraph ancestor, IRSet<Node> modified) {
+        addableActs = ancestor.addableActs;
+        fluentsEAs = ancestor.fluentsEAs;
+        for(Node n : modified) {
+            if(n instanceof TempFluent.SVFluent) {
+                if(fluentsEAs == ancestor.fluentsEAs)
+                    fluentsEAs = fluentsEAs.clone();
+                final Fluent f = ((TempFluent.SVFluent) n).fluent;
+                if(earliestAppearances.containsKey(n))
+                    fluentsEAs.put(f, earliestAppearances.get(n));
+                else
+                    fluentsEAs.remove(f);
+            } else if(n instanceof TempFluent.ActionPossible && !earliestAppearances.containsKey(n)) {
+                if(addableActs == ancestor.addableActs)
+                    addableActs = addableActs.clone();
+                addableActs.remove(((TempFluent.ActionPossible) n).action);
+            }
+        }
+    }
+
     /** Recursively display a node and its incoming edges. **/
     private void displayRec(Node n, int depth, int maxDepth) {
         if(depth > maxDepth)
@@ -399,6 +439,9 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
 
         IR2IntMap<Node> labelsPred = new IR2IntMap<>(core.store.getIntRep(Node.class));
 
+        /** Nodes that were delayed or deleted during the propagation **/
+        final IRSet<Node> modified = new IRSet<>(core.store.getIntRep(Node.class));
+
         boolean firstPropagationFinished = false;
 
         private int cost(Node n) { return q.getCost(n); }
@@ -437,32 +480,47 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
 
             if(ancestorGraph.isPresent()) {
                 // initialization from an existing graph: we will do everything incrementally
+                final PartialPlanReachabilityGraph ancestor = ancestorGraph.get();
 
                 // copy the earliest appearances and predecessors and replace the FactAction by our own
-                optimisticValues = ancestorGraph.get().earliestAppearances.clone();
-                optimisticValues.remove(ancestorGraph.get().facts);
+                optimisticValues = ancestor.earliestAppearances.clone();
+                optimisticValues.remove(ancestor.facts);
                 optimisticValues.put(facts, 0);
                 q.initCosts(optimisticValues);
-                labelsPred = ancestorGraph.get().predecessors.clone();
-                labelsPred.remove(ancestorGraph.get().facts);
+                labelsPred = ancestor.predecessors.clone();
+                labelsPred.remove(ancestor.facts);
                 setPred(facts, facts);
 
-                // for all nodes, achieved by the ancestor's FactAction, check if we need to update it
-                // (and if necessary put it in the queue)
-                for(TempFluent tf : ancestorGraph.get().facts.getEffects()) {
-                    if(possible(tf.fluent) && pred(tf.fluent) == ancestorGraph.get().facts) {
+                // only consider the delta between the ancestor's facts and ours (if the facts are the same,
+                // the FactAction is shared and there is nothing to do).
+                // For all nodes achieved by the ancestor's FactAction:
+                //  - if our facts achieve it at least as early, it keeps its earliest appearance
+                //  - otherwise, look for its new best achiever and delay it if necessary (or delete it if there is none).
+                // Changes are then propagated to the nodes depending on them.
+                if(ancestor.facts != facts) {
+                    for(Map.Entry<TempFluent.DGFluent, List<MinEdge>> prev : ancestor.initFluents.entrySet()) {
+                        final TempFluent.DGFluent f = prev.getKey();
+                        if(!possible(f) || pred(f) != ancestor.facts)
+                            continue;
+
+                        final List<MinEdge> ours = initFluents.get(f);
+                        if(ours != null && minDelay(ours) <= minDelay(prev.getValue())) {
+                            setPred(f, facts);
+                            continue;
+                        }
+
                         int bestCost = Integer.MAX_VALUE;
                         Node bestPred = null;
-                        for(MinEdge e : inEdges(tf.fluent)) {
+                        for(MinEdge e : inEdges(f)) {
                             if(possible(e.act) && cost(e.act) + e.delay < bestCost) {
                                 bestCost = cost(e.act) + e.delay;
                                 bestPred = e.act;
                             }
                         }
                         if(bestPred == null) {
-                            delete(tf.fluent); // no achiever left
+                            delete(f); // no achiever left
                         } else {
-                            delayEnqueue(tf.fluent, bestCost, bestPred);
+                            delayEnqueue(f, bestCost, bestPred);
                         }
                     }
                 }
@@ -639,6 +697,7 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
 
             if(dbgLvlDij > 2) System.out.println(" DEL    "+n);
 
+            modified.add(n);
             labelsPred.remove(n);
             q.cleanup(n);
 
@@ -677,6 +736,7 @@ public class PartialPlanReachabilityGraph implements ReachabilityGraph {
 
             setPred(n, newPred); // always change the predecessor
             if(cost(n) < newCost) {
+                modified.add(n);
                 if(q.contains(n)) {
                     q.update(n, newCost);
                 } else {
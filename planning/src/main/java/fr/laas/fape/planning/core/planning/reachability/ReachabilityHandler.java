@@ -2,6 +2,7 @@ package fr.laas.fape.planning.core.planning.reachability;
 
 
 import fr.laas.fape.anml.model.concrete.VarRef;
+import fr.laas.fape.constraints.bindings.BindingConstraintNetwork;
 import fr.laas.fape.constraints.bindings.Domain;
 import fr.laas.fape.planning.Planning;
 import fr.laas.fape.planning.core.planning.grounding.*;
@@ -49,21 +50,25 @@ public class ReachabilityHandler extends Handler {
             }
         }
 
+        final BindingConstraintNetwork bindings = st.csp.bindings();
         for (GAction ga : pl.preprocessor.getAllActions()) {
-            // values for all variables of this action
-            List<String> values = new LinkedList<>();
-            for (LVarRef var : ga.variables)
-                values.add(ga.valueOf(var).instance());
+            // int-coded values for all variables of this action, followed by its id
+            int[] values = new int[ga.variables.length + 1];
+            for (int i = 0; i < ga.variables.length; i++)
+                values[i] = bindings.valueID(ga.valueOf(ga.variables[i]));
+            values[ga.variables.length] = ga.id;
             // add possible tuple to instantiation constraints
-            st.csp.bindings().addAllowedTupleToNAryConstraint(ga.abs.name(), values, ga.id);
-
-            // values for arguments of this action
-            List<String> argValues = new LinkedList<>();
-            for (LVarRef var : ga.abs.args())
-                argValues.add(ga.valueOf(var).instance());
-            argValues.add(ga.abs.name());
+            bindings.addAllowedTupleToNAryConstraint(ga.abs.name(), values, true);
+
+            // values for arguments of this action, followed by its name and id
+            final List<LVarRef> args = ga.abs.args();
+            int[] argValues = new int[args.size() + 2];
+            for (int i = 0; i < args.size(); i++)
+                argValues[i] = bindings.valueID(ga.valueOf(args.get(i)));
+            argValues[args.size()] = bindings.valueID(ga.abs.name());
+            argValues[args.size() + 1] = ga.id;
             // add possible tuple to supporter constraints
-            st.csp.bindings().addAllowedTupleToNAryConstraint(ga.abs.taskName(), argValues, ga.id);
+            bindings.addAllowedTupleToNAryConstraint(ga.abs.taskName(), argValues, true);
         }
 
         // notify ourselves of the presence of any actions and tasks in the plan
@@ -170,6 +175,9 @@ public class ReachabilityHandler extends Handler {
         allFacts.addAll(tempFluents);
         allFacts.addAll(tasks);
 
+        // graph from which the addable actions currently in the state were extracted
+        final PartialPlanReachabilityGraph recordedGraph = ext.currentGraph != null ? ext.currentGraph : ext.prevGraph.orElse(null);
+
         // create new graph from the core graph (actions) and the facts
         PartialPlanReachabilityGraph graph = new PartialPlanReachabilityGraph(ext.getCoreGraph(), allFacts, pl);
         ext.currentGraph = graph;
@@ -218,11 +226,14 @@ public class ReachabilityHandler extends Handler {
             st.csp.bindings().restrictDomain(a.instantiationVar(), unattachedDomain);
 
         // populate the addable actions information in the state. This info is used to filter out resolvers
-        st.addableActions = new EffSet<>(pl.preprocessor.groundActionIntRepresentation());
-        st.addableActions.addAll(graph.addableActs);
-        st.addableTemplates = new HashSet<>();
-        for(GAction ga : graph.addableActs)
-            st.addableTemplates.add(ga.abs);
+        // It is kept as is if the propagation did not remove any addable action
+        if(st.addableActions == null || recordedGraph == null || graph.addableActs != recordedGraph.addableActs) {
+            st.addableActions = new EffSet<>(pl.preprocessor.groundActionIntRepresentation());
+            st.addableActions.addAll(graph.addableActs);
+            st.addableTemplates = new HashSet<>();
+            for (GAction ga : graph.addableActs)
+                st.addableTemplates.add(ga.abs);
+        }
 
 
         int initialMakespan = Integer.MIN_VALUE;
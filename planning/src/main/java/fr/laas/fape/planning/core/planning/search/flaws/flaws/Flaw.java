@@ -21,6 +21,12 @@ public abstract class Flaw {
      */
     public List<Resolver> resolvers = null; // TODO: move back to protected once resources are fixed
 
+    /** Number of resolvers if it was counted without generating the resolvers, -1 otherwise. */
+    private int knownNumResolvers = -1;
+
+    /** Lower bound on the number of resolvers, given by a previous count that was cut off. */
+    private int minNumResolvers = 0;
+
     /**
      * Returns the number of resolvers for this flaws.
      * This method is advised when the number of resolver is needed since it does not
@@ -32,11 +38,49 @@ public abstract class Flaw {
      * @return Number of resolvers for this flaw.
      */
     public int getNumResolvers(PartialPlan plan, Planner planner) {
+        if(resolvers == null && knownNumResolvers >= 0)
+            return knownNumResolvers;
         if(resolvers == null)
             resolvers = getResolvers(plan, planner);
         return resolvers.size();
     }
 
+    /**
+     * Returns the number of resolvers of this flaw if it is lower than max, and max otherwise.
+     * This is intended for flaw selection which typically only needs to know whether a flaw has 0 or 1 resolvers,
+     * or fewer resolvers than another one: resolvers are not materialized and counting stops as soon as max
+     * resolvers were found.
+     */
+    public int getNumResolvers(PartialPlan plan, Planner planner, int max) {
+        if(resolvers != null)
+            return Math.min(resolvers.size(), max);
+        if(knownNumResolvers >= 0)
+            return Math.min(knownNumResolvers, max);
+        if(minNumResolvers >= max)
+            return max;
+
+        final int num = countResolvers(plan, planner, max);
+        if(num < max)
+            knownNumResolvers = num;
+        else
+            minNumResolvers = max;
+        return Math.min(num, max);
+    }
+
+    /** Returns true if this flaw has at least one resolver, without generating all of them. */
+    public boolean hasResolvers(PartialPlan plan, Planner planner) {
+        return getNumResolvers(plan, planner, 1) > 0;
+    }
+
+    /**
+     * Counts the resolvers of this flaw. Implementations can stop as soon as max resolvers were found,
+     * in which case any value greater than or equal to max can be returned.
+     * By default, all resolvers are generated.
+     */
+    protected int countResolvers(PartialPlan plan, Planner planner, int max) {
+        return getNumResolvers(plan, planner);
+    }
+
     /**
      * Finds and returns all resolvers for the flaw.
      * Best effort is done to make sure all resolvers are applicable in the state which might
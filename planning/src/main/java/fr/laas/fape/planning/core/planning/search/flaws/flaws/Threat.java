@@ -46,6 +46,21 @@ public class Threat extends Flaw {
         return resolvers;
     }
 
+    /** Checks the same resolvers as getResolvers, stopping as soon as max of them were found. */
+    @Override
+    protected int countResolvers(PartialPlan plan, Planner planner, int max) {
+        int num = 0;
+        if(plan.canBeBefore(db1.getLastTimePoints().get(0), db2.getFirstTimePoints().get(0)))
+            num++;
+        if(num < max && plan.canBeBefore(db2.getLastTimePoints().get(0), db1.getFirstTimePoints().get(0)))
+            num++;
+        for (int i = 0; i < db1.stateVariable.args().length && num < max; i++) {
+            if(plan.separable(db1.stateVariable.arg(i), db2.stateVariable.arg(i)))
+                num++;
+        }
+        return num;
+    }
+
     @Override
     public int compareTo(Flaw o) {
         assert o instanceof Threat;
@@ -1,6 +1,7 @@
 package fr.laas.fape.planning.core.planning.search.flaws.flaws;
 
 
+import fr.laas.fape.anml.model.concrete.InstanceRef;
 import fr.laas.fape.anml.model.concrete.VarRef;
 import fr.laas.fape.planning.core.planning.planner.Planner;
 import fr.laas.fape.planning.core.planning.search.flaws.resolvers.Resolver;
@@ -33,13 +34,18 @@ public class UnboundVariable extends Flaw {
             return plan.domainSizeOf(var);
     }
 
+    @Override
+    protected int countResolvers(PartialPlan plan, Planner planner, int max) {
+        return plan.domainSizeOf(var);
+    }
+
     @Override
     public List<Resolver> getResolvers(PartialPlan plan, Planner planner) {
         if(resolvers != null)
             return resolvers;
 
         resolvers = new LinkedList<>();
-         for (String value : plan.domainOf(var)) {
+        for (InstanceRef value : plan.valuesOf(var)) {
             resolvers.add(new VarBinding(var, value));
         }
 
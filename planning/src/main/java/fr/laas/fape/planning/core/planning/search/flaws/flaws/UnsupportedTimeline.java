@@ -35,6 +35,11 @@ public class UnsupportedTimeline extends Flaw {
         return this.resolvers;
     }
 
+    @Override
+    protected int countResolvers(PartialPlan plan, Planner planner, int max) {
+        return plan.countResolversForOpenGoal(consumer, actionInsertionStrategy, max);
+    }
+
 
     public static boolean isValidResolver(Resolver res, Timeline consumer, PartialPlan st) {
         if(res instanceof SupportingAction) {
@@ -20,6 +20,9 @@ public class BindingSeparation implements Resolver {
         this.b = b;
     }
 
+    @Override
+    public boolean isConstraintOnly() { return true; }
+
     @Override
     public PartialPlanModification asStateModification(PartialPlan partialPlan) {
         Chronicle chronicle = new Chronicle();
@@ -12,6 +12,13 @@ public interface Resolver extends Comparable<Resolver> {
 
     default PartialPlanModification asStateModification(PartialPlan partialPlan) { throw new UnsupportedOperationException(); }
 
+    /**
+     * True if the modification of this resolver only adds constraints on existing variables and timepoints
+     * and building it leaves the partial plan untouched. Such a resolver can be checked against the CSP of a
+     * plan without copying it (see PartialPlan.mightBeConsistentWith).
+     */
+    default boolean isConstraintOnly() { return false; }
+
     /**
      * Should provide a comparison with another resolver of the same class.
      * This is used to sort resolvers for reproducibility.
@@ -32,6 +32,9 @@ public class StateVariableBinding implements Resolver {
         this.b = b;
     }
 
+    @Override
+    public boolean isConstraintOnly() { return true; }
+
     @Override
     public PartialPlanModification asStateModification(PartialPlan partialPlan) {
         Chronicle chronicle = new Chronicle();
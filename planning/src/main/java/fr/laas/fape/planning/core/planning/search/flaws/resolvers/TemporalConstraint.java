@@ -25,6 +25,9 @@ public class TemporalConstraint implements Resolver {
         this.max = max;
     }
 
+    @Override
+    public boolean isConstraintOnly() { return true; }
+
     @Override
     public PartialPlanModification asStateModification(PartialPlan partialPlan) {
         Chronicle chronicle = new Chronicle();
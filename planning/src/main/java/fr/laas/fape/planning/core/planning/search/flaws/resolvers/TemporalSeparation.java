@@ -18,6 +18,9 @@ public class TemporalSeparation implements Resolver {
         this.secondDbID = second.mID;
     }
 
+    @Override
+    public boolean isConstraintOnly() { return true; }
+
     @Override
     public PartialPlanModification asStateModification(PartialPlan partialPlan) {
         final Timeline firstDB = partialPlan.getTimeline(firstDbID);
@@ -2,6 +2,7 @@ package fr.laas.fape.planning.core.planning.search.flaws.resolvers;
 
 
 import fr.laas.fape.anml.model.concrete.Chronicle;
+import fr.laas.fape.anml.model.concrete.InstanceRef;
 import fr.laas.fape.anml.model.concrete.VarEqualityConstraint;
 import fr.laas.fape.anml.model.concrete.VarRef;
 import fr.laas.fape.planning.core.planning.states.PartialPlan;
@@ -14,17 +15,20 @@ import fr.laas.fape.planning.core.planning.states.modification.PartialPlanModifi
 public class VarBinding implements Resolver {
 
     public final VarRef var;
-    public final String value;
+    public final InstanceRef value;
 
-    public VarBinding(VarRef var, String value) {
+    public VarBinding(VarRef var, InstanceRef value) {
         this.var = var;
         this.value = value;
     }
 
+    @Override
+    public boolean isConstraintOnly() { return true; }
+
     @Override
     public PartialPlanModification asStateModification(PartialPlan partialPlan) {
         Chronicle chronicle = new Chronicle();
-        chronicle.addConstraint(new VarEqualityConstraint(var, partialPlan.pb.instance(value)));
+        chronicle.addConstraint(new VarEqualityConstraint(var, value));
         return new ChronicleInsertion(chronicle);
     }
 
@@ -33,7 +37,7 @@ public class VarBinding implements Resolver {
         assert e instanceof VarBinding;
         VarBinding o = (VarBinding) e;
         if(!value.equals(o.value))
-            return value.compareTo(o.value);
+            return value.instance().compareTo(o.value.instance());
         assert var != o.var;
         return var.id() - o.var.id();
     }
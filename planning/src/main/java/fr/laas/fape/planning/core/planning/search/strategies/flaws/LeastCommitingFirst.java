@@ -17,9 +17,18 @@ public class LeastCommitingFirst implements FlawComparator {
         this.planner = planner;
     }
 
+    /**
+     * Resolvers of both flaws are counted up to a limit that is doubled until one of the counts is below it,
+     * hence the flaw with many resolvers is not counted further than twice the number of resolvers of the other one.
+     */
     @Override
     public int compare(Flaw f1, Flaw f2) {
-        return f1.getNumResolvers(st, planner) - f2.getNumResolvers(st, planner);
+        for(int max = 2 ; ; max = max > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : max * 2) {
+            final int num1 = f1.getNumResolvers(st, planner, max);
+            final int num2 = f2.getNumResolvers(st, planner, max);
+            if(num1 < max || num2 < max || max == Integer.MAX_VALUE)
+                return num1 - num2;
+        }
     }
 
     @Override
@@ -29,12 +29,7 @@ public class SeqFlawComparator implements FlawComparator {
     }
 
     private int priority(Flaw f) {
-        if(f.getNumResolvers(st, planner) == 0)
-            return 0;
-        else if(f.getNumResolvers(st, planner) == 1)
-            return 1;
-        else
-            return 2;
+        return f.getNumResolvers(st, planner, 2);
     }
 
     @Override
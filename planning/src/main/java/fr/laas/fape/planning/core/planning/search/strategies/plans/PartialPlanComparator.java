@@ -1,6 +1,7 @@
 package fr.laas.fape.planning.core.planning.search.strategies.plans;
 
 import fr.laas.fape.planning.core.planning.planner.PlanningOptions;
+import fr.laas.fape.planning.core.planning.planner.Telemetry;
 import fr.laas.fape.planning.core.planning.states.SearchNode;
 import fr.laas.fape.planning.core.planning.states.PartialPlan;
 
@@ -16,8 +17,12 @@ public abstract class PartialPlanComparator implements Heuristic {
     }
 
     public final double h(SearchNode sw) {
-        if(!sw.isRecordedH())
-            sw.setH(h(sw.getState()));
+        if(!sw.isRecordedH()) {
+            final PartialPlan plan = sw.getState();
+            final long start = Telemetry.start();
+            sw.setH(h(plan));
+            Telemetry.stop(Telemetry.Phase.HEURISTIC, start);
+        }
         return sw.getH();
     }
     public final double g(SearchNode sw) {
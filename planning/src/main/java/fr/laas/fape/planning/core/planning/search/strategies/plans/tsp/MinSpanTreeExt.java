@@ -52,7 +52,6 @@ public class MinSpanTreeExt implements StateExtension {
 
     private void computeHeuristic() {
         if(numAdditionalChanges == -1) {
-            numChangesInPartialPlan = st.tdb.getTimelinesStream().mapToInt(tl -> tl.numChanges()).sum();
             processTimelines();
             numAdditionalChanges = computeDistance();
         }
@@ -63,8 +62,10 @@ public class MinSpanTreeExt implements StateExtension {
         return numAdditionalChanges;
     }
 
+    /** Number of changes in the state. Does not require the heuristic to be computed. */
     public int getCurrentCost() {
-        computeHeuristic();
+        if(numChangesInPartialPlan == -1)
+            numChangesInPartialPlan = st.tdb.getTimelinesStream().mapToInt(tl -> tl.numChanges()).sum();
         return numChangesInPartialPlan;
     }
 
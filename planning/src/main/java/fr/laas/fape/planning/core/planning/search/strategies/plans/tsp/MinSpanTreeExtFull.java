@@ -108,9 +108,16 @@ public class MinSpanTreeExtFull implements StateExtension {
         return additionalCost;
     }
 
+    /** Number of statements in the state. Does not require the heuristic to be computed. */
     public int getCurrentCost() {
-        assert hasBeenProcessed();
-        assert additionalCost != -1;
+        if(currentCost == -1) {
+            currentCost = 0;
+            for(Timeline tl : st.getTimelines()) {
+                for (ChainComponent cc : tl.chain) {
+                    currentCost += cc.size();
+                }
+            }
+        }
         return currentCost;
     }
 
@@ -187,7 +194,6 @@ public class MinSpanTreeExtFull implements StateExtension {
             System.out.println("State: +" + st.mID);
         }
         this.additionalCost = 0;
-        this.currentCost = 0;
 
         Graph graph = new Graph();
         for(Timeline og : st.tdb.getConsumers()) {
@@ -219,12 +225,6 @@ public class MinSpanTreeExtFull implements StateExtension {
             }
         }
 
-        currentCost = 0; // num statements in state
-        for(Timeline tl : st.getTimelines()) {
-            for (ChainComponent cc : tl.chain) {
-                currentCost += cc.size();
-            }
-        }
         // list of (sv, cost) sorted by descending cost
         List<Pair<ParameterizedStateVariable,Integer>> costsPerStateVariable =
                 minPreviousCost.entrySet().stream()
@@ -1,6 +1,7 @@
 package fr.laas.fape.planning.core.planning.states;
 
 import fr.laas.fape.anml.model.concrete.TPRef;
+import fr.laas.fape.anml.model.concrete.VarRef;
 import fr.laas.fape.anml.model.concrete.statements.LogStatement;
 import fr.laas.fape.planning.core.planning.planner.Counters;
 import fr.laas.fape.planning.core.planning.planner.GlobalOptions;
@@ -48,6 +49,8 @@ public class CausalNetworkExt implements StateExtension {
     private final List<Integer> removedTimelines;
 
     private final Map<Event, BitSet> possiblyInterferingTimelines;
+    /** Events whose set of possibly interfering timelines can be modified in place, the others being shared with a copy */
+    private final Set<Event> ownedInterferences;
 
     CausalNetworkExt(PartialPlan container) {
         this.container = container;
@@ -57,6 +60,7 @@ public class CausalNetworkExt implements StateExtension {
         removedTimelines = new ArrayList<>();
         addedTimelines = new HashSet<>(container.tdb.getTimelinesStream().map(t -> t.mID).collect(Collectors.toList()));
         possiblyInterferingTimelines = new HashMap<>();
+        ownedInterferences = new HashSet<>();
     }
 
     private CausalNetworkExt(CausalNetworkExt toCopy, PartialPlan container) {
@@ -66,10 +70,16 @@ public class CausalNetworkExt implements StateExtension {
         extendedTimelines = new ArrayList<>(toCopy.extendedTimelines);
         addedTimelines = new HashSet<>(toCopy.addedTimelines);
         removedTimelines = new ArrayList<>(toCopy.removedTimelines);
-        possiblyInterferingTimelines = new HashMap<>();
-        for(HashMap.Entry<Event,BitSet> e : toCopy.possiblyInterferingTimelines.entrySet()) {
-            possiblyInterferingTimelines.put(e.getKey(), (BitSet) e.getValue().clone());
-        }
+        possiblyInterferingTimelines = new HashMap<>(toCopy.possiblyInterferingTimelines);
+        ownedInterferences = new HashSet<>();
+        toCopy.ownedInterferences.clear(); // sets are now shared with this copy
+    }
+
+    /** Returns the set of possibly interfering timelines of this event, copying it first if it is shared with a copy. */
+    private BitSet ownInterferences(Event pis) {
+        if(ownedInterferences.add(pis))
+            possiblyInterferingTimelines.put(pis, (BitSet) possiblyInterferingTimelines.get(pis).clone());
+        return possiblyInterferingTimelines.get(pis);
     }
 
     @Override
@@ -90,6 +100,20 @@ public class CausalNetworkExt implements StateExtension {
                         container.getTimeline(e.supporterID).getChangeNumber(e.changeNumber).getSupportValue()));
     }
 
+    /** Number of potential supporters of this timeline (see getPotentialSupporters), counting stops at max. */
+    int countPotentialSupporters(Timeline tl, int max) {
+        processPending();
+        final VarRef consumeValue = container.getTimeline(tl.mID).getGlobalConsumeValue();
+        int num = 0;
+        for(Event e : potentialSupporters.get(tl.mID)) {
+            if(num >= max)
+                break;
+            if(container.unifiable(consumeValue, container.getTimeline(e.supporterID).getChangeNumber(e.changeNumber).getSupportValue()))
+                num++;
+        }
+        return num;
+    }
+
     private void processPending() {
         Counters.inc("process-pending");
         if(extendedTimelines.isEmpty() && addedTimelines.isEmpty() && removedTimelines.isEmpty())
@@ -208,12 +232,13 @@ public class CausalNetworkExt implements StateExtension {
                         // no incremental result to use, compute from scratch
                         BitSet list = new BitSet();
                         possiblyInterferingTimelines.put(pis, list);
+                        ownedInterferences.add(pis);
                         for(Timeline threat : tlMan.getTimelines()) {
                             list.set(threat.mID);
                         }
                     } else {
                         // process incrementally
-                        BitSet list  = possiblyInterferingTimelines.get(pis);
+                        BitSet list  = ownInterferences(pis);
                         for(int i : addedTimelines) {
                             list.set(i);
                         }
@@ -226,6 +251,7 @@ public class CausalNetworkExt implements StateExtension {
 
             for(Event pis : toRemove) {
                 possiblyInterferingTimelines.remove(pis);
+                ownedInterferences.remove(pis);
             }
             potentialSupporters.put(tlID, potentialSupporters.get(tlID).withoutAll(toRemove));
 
@@ -271,8 +297,8 @@ public class CausalNetworkExt implements StateExtension {
         Timeline tl = tlMan.getTimeline(pis.consumerID);
 
         // mutable reference to the list of possibly interfering timelines
-        BitSet list = possiblyInterferingTimelines.get(pis);
-        assert list != null;
+        assert possiblyInterferingTimelines.containsKey(pis);
+        BitSet list = ownInterferences(pis);
 
         // filter possible interference that are no longer threatening.
         int cur = list.nextSetBit(0);
@@ -433,6 +459,7 @@ public class CausalNetworkExt implements StateExtension {
         if(potentialSupporters.containsKey(tl.mID)) {
             for (Event e : potentialSupporters.get(tl.mID)) {
                 possiblyInterferingTimelines.remove(e);
+                ownedInterferences.remove(e);
             }
             potentialSupporters.remove(tl.mID);
         }
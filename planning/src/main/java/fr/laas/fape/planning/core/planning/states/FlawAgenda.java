@@ -0,0 +1,181 @@
+package fr.laas.fape.planning.core.planning.states;
+
+import fr.laas.fape.anml.model.concrete.Chronicle;
+import fr.laas.fape.planning.core.planning.search.flaws.flaws.*;
+import fr.laas.fape.planning.core.planning.timelines.Timeline;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Keeps, for the flaws of a plan, an upper bound on their number of resolvers. Those bounds are recorded when
+ * the resolvers of a flaw are counted and are carried from a plan to its children.
+ *
+ * Adding constraints to a plan can only remove resolvers. Hence a bound remains valid until an event that might
+ * create new resolvers for the flaw:
+ *  - open goals: a timeline is added or extended (new potential supporter), a chronicle that is not made of
+ *    constraints only is merged (new tasks, actions or hierarchical constraints) or the addable actions change.
+ *  - unrefined tasks and unmotivated actions: a chronicle that is not made of constraints only is merged
+ *    (new actions or tasks) or the addable actions change.
+ *  - threats: one of the two timelines is extended or removed.
+ * The number of resolvers of an unbound variable is the size of its domain and does not need to be recorded.
+ *
+ * Maps are shared with the copies of the agenda and copied on their first modification.
+ */
+class FlawAgenda implements StateExtension {
+
+    private final PartialPlan container;
+
+    /** Bounds for open goals, by ID of the consumer timeline */
+    private HashMap<Long, Integer> openGoals;
+    /** Bounds for threats, by IDs of their timelines (see threatKey) */
+    private HashMap<Long, Integer> threats;
+    /** Bounds for unrefined tasks, by ID of their start timepoint */
+    private HashMap<Long, Integer> tasks;
+    /** Bounds for unmotivated actions, by ID of the action */
+    private HashMap<Long, Integer> unmotivated;
+
+    /** True if the maps might be shared with another agenda */
+    private boolean shared;
+
+    /** Addable actions of the container when the bounds depending on them were recorded. */
+    private Object addableActions;
+
+    FlawAgenda(PartialPlan container) {
+        this.container = container;
+        this.openGoals = new HashMap<>();
+        this.threats = new HashMap<>();
+        this.tasks = new HashMap<>();
+        this.unmotivated = new HashMap<>();
+        this.shared = false;
+        this.addableActions = container.addableActions;
+    }
+
+    private FlawAgenda(FlawAgenda toCopy, PartialPlan container) {
+        this.container = container;
+        this.openGoals = toCopy.openGoals;
+        this.threats = toCopy.threats;
+        this.tasks = toCopy.tasks;
+        this.unmotivated = toCopy.unmotivated;
+        this.shared = true;
+        this.addableActions = toCopy.addableActions;
+        toCopy.shared = true;
+    }
+
+    @Override
+    public StateExtension clone(PartialPlan st) {
+        return new FlawAgenda(this, st);
+    }
+
+    private void ensureOwned() {
+        if(shared) {
+            openGoals = new HashMap<>(openGoals);
+            threats = new HashMap<>(threats);
+            tasks = new HashMap<>(tasks);
+            unmotivated = new HashMap<>(unmotivated);
+            shared = false;
+        }
+    }
+
+    private static long threatKey(int tl1, int tl2) {
+        return ((long) Math.min(tl1, tl2) << 32) | Math.max(tl1, tl2);
+    }
+
+    /** Forgets the bounds relying on the set of addable actions, if it changed since they were recorded. */
+    private void checkAddableActions() {
+        if(container.addableActions != addableActions) {
+            if(!openGoals.isEmpty() || !tasks.isEmpty() || !unmotivated.isEmpty()) {
+                ensureOwned();
+                openGoals.clear();
+                tasks.clear();
+                unmotivated.clear();
+            }
+            addableActions = container.addableActions;
+        }
+    }
+
+    /** Map of bounds in which this flaw would be recorded, null if the bounds of this kind of flaw are not recorded */
+    private HashMap<Long, Integer> mapOf(Flaw f) {
+        if(f instanceof UnsupportedTimeline)
+            return openGoals;
+        else if(f instanceof Threat)
+            return threats;
+        else if(f instanceof UnrefinedTask)
+            return tasks;
+        else if(f instanceof UnmotivatedAction)
+            return unmotivated;
+        else
+            return null;
+    }
+
+    private static long keyOf(Flaw f) {
+        if(f instanceof UnsupportedTimeline)
+            return ((UnsupportedTimeline) f).consumer.mID;
+        else if(f instanceof Threat)
+            return threatKey(((Threat) f).db1.mID, ((Threat) f).db2.mID);
+        else if(f instanceof UnrefinedTask)
+            return ((UnrefinedTask) f).task.start().id();
+        else
+            return ((UnmotivatedAction) f).act.id().id();
+    }
+
+    /** Upper bound on the number of resolvers of this flaw, Integer.MAX_VALUE if none is known. */
+    int boundOnNumResolvers(Flaw f) {
+        checkAddableActions();
+        HashMap<Long, Integer> bounds = mapOf(f);
+        if(bounds == null)
+            return Integer.MAX_VALUE;
+        return bounds.getOrDefault(keyOf(f), Integer.MAX_VALUE);
+    }
+
+    /** Records the number of resolvers of this flaw in the current plan. */
+    void recordNumResolvers(Flaw f, int numResolvers) {
+        checkAddableActions();
+        if(mapOf(f) == null)
+            return;
+        ensureOwned();
+        mapOf(f).put(keyOf(f), numResolvers);
+    }
+
+    private void forgetThreatsOf(int timelineID) {
+        for(Iterator<Long> it = threats.keySet().iterator() ; it.hasNext() ; ) {
+            final long key = it.next();
+            if((int) (key >>> 32) == timelineID || (int) key == timelineID)
+                it.remove();
+        }
+    }
+
+    @Override
+    public void timelineAdded(Timeline tl) {
+        if(!openGoals.isEmpty()) {
+            ensureOwned();
+            openGoals.clear();
+        }
+    }
+
+    @Override
+    public void timelineRemoved(Timeline tl) {
+        ensureOwned();
+        openGoals.remove((long) tl.mID);
+        forgetThreatsOf(tl.mID);
+    }
+
+    @Override
+    public void timelineExtended(Timeline tl) {
+        ensureOwned();
+        openGoals.clear();
+        forgetThreatsOf(tl.mID);
+    }
+
+    @Override
+    public void chronicleMerged(Chronicle c) {
+        if(PartialPlan.isMadeOfConstraintsOnly(c))
+            return;
+        if(!openGoals.isEmpty() || !tasks.isEmpty() || !unmotivated.isEmpty()) {
+            ensureOwned();
+            openGoals.clear();
+            tasks.clear();
+            unmotivated.clear();
+        }
+    }
+}
@@ -53,15 +53,30 @@ class OpenGoalSupportersCache implements StateExtension {
     }
 
     /**
-     * Retrieves all valid resolvers for this unsupported timeline.
+     * Counts the valid resolvers for this unsupported timeline, stopping as soon as max of them were found.
+     * Any value greater than or equal to max is returned in this case.
+     */
+    int countResolversForOpenGoal(Timeline og, PlanningOptions.ActionInsertionStrategy strategy, int max) {
+        int num;
+        if(strategy == PlanningOptions.ActionInsertionStrategy.DOWNWARD_ONLY)
+            num = (int) Math.min(max, Stream.concat(downwardTaskSupports(og), downwardActionSupports(og)).limit(max).count());
+        else if(strategy == PlanningOptions.ActionInsertionStrategy.UP_OR_DOWN)
+            num = countValidActionSupporters(og, max);
+        else
+            throw new FAPEException("Unrecognized action insertion strategy: "+strategy);
+
+        if(num < max)
+            num += container.getExtension(CausalNetworkExt.class).countPotentialSupporters(og, max - num);
+        return num;
+    }
+
+    /**
+     * Returns the action supporters of this open goal that are still valid.
      *
      * As a side effects, this method also cleans up the resolvers stored in this state to remove double entries
      * and supporters that are not valid anymore.
      */
-    private List<Resolver> getBottomUpResolversForOpenGoal(Timeline og) {
-        assert og.isConsumer();
-        assert container.tdb.getConsumers().contains(og) : "This timeline is not an open goal.";
-
+    private IList<Resolver> validActionSupporters(Timeline og) {
         // first, update action resolvers if necessary
         if(!potentialActionSupporters.containsKey(og.mID)) {
             // generate optimistic resolvers
@@ -81,24 +96,51 @@ class OpenGoalSupportersCache implements StateExtension {
             potentialActionSupporters.put(og.mID, resolvers);
         } else {
             // we already have a set of resolvers, simply filter the invalid ones
-            List<Resolver> toRemove = new ArrayList<>();
-            for (Resolver sup : potentialActionSupporters.get(og.mID)) {
-                if (!UnsupportedTimeline.isValidResolver(sup, og, container))
-                    toRemove.add(sup);
-            }
+            countValidActionSupporters(og, Integer.MAX_VALUE);
+        }
+        return potentialActionSupporters.get(og.mID);
+    }
 
-            if(!toRemove.isEmpty()) {
-                IList<Resolver> onlyValidResolvers = potentialActionSupporters.get(og.mID).withoutAll(toRemove);
-                potentialActionSupporters.put(og.mID, onlyValidResolvers);
-            }
-            toRemove.clear();
+    /**
+     * Counts the action supporters of this open goal that are still valid, stopping as soon as max of them
+     * were found. Invalid supporters met on the way are removed.
+     */
+    private int countValidActionSupporters(Timeline og, int max) {
+        if(!potentialActionSupporters.containsKey(og.mID))
+            return validActionSupporters(og).size();
+
+        int num = 0;
+        List<Resolver> toRemove = new ArrayList<>();
+        for (Resolver sup : potentialActionSupporters.get(og.mID)) {
+            if(num >= max)
+                break;
+            if (UnsupportedTimeline.isValidResolver(sup, og, container))
+                num++;
+            else
+                toRemove.add(sup);
         }
 
+        if(!toRemove.isEmpty()) {
+            IList<Resolver> onlyValidResolvers = potentialActionSupporters.get(og.mID).withoutAll(toRemove);
+            potentialActionSupporters.put(og.mID, onlyValidResolvers);
+        }
+        return num;
+    }
+
+    /**
+     * Retrieves all valid resolvers for this unsupported timeline.
+     *
+     * As a side effects, this method also cleans up the resolvers stored in this state to remove double entries
+     * and supporters that are not valid anymore.
+     */
+    private List<Resolver> getBottomUpResolversForOpenGoal(Timeline og) {
+        assert og.isConsumer();
+        assert container.tdb.getConsumers().contains(og) : "This timeline is not an open goal.";
 
         CausalNetworkExt cne = container.getExtension(CausalNetworkExt.class);
 
         // resolvers are the set of action resolvers and the timelines supporters (provided by the causal network)
-        IList<Resolver> resolvers = potentialActionSupporters.get(og.mID).withAll(
+        IList<Resolver> resolvers = validActionSupporters(og).withAll(
                 cne.getPotentialSupporters(og).stream()
                         .map(e -> new SupportingTimeline(e.supporterID, e.changeNumber, og))
                         .collect(Collectors.toList()));
@@ -107,25 +149,32 @@ class OpenGoalSupportersCache implements StateExtension {
         return resolvers.stream().collect(Collectors.toList());
     }
 
-    private List<Resolver> getDownwardResolversForOpenGoal(Timeline og) {
-        assert og.isConsumer();
-        assert container.tdb.getConsumers().contains(og) : "This timeline is not an open goal.";
-
+    private Stream<FutureTaskSupport> downwardTaskSupports(Timeline og) {
         HierarchicalEffects effs = container.pl.preprocessor.getHierarchicalEffects();
-
-        Stream<FutureTaskSupport> taskSupports = container.getOpenTasks().stream() //TODO: only consider possible decompositions
+        return container.getOpenTasks().stream() //TODO: only consider possible decompositions
                 .filter(t -> effs.canIndirectlySupport(og, t, container))
                 .filter(t -> container.getHierarchicalConstraints().isValidTaskSupport(t,og))
                 .map(t -> new FutureTaskSupport(og, t));
+    }
+
+    private Stream<FutureActionSupport> downwardActionSupports(Timeline og) {
+        HierarchicalEffects effs = container.pl.preprocessor.getHierarchicalEffects();
+        return container.getHierarchicalConstraints().isConstrained(og) ?
+                Stream.empty() :
+                container.pb.abstractActions().stream()
+                        .filter(act -> !act.isTaskDependent())
+                        .filter(act -> effs.canSupport(og, act, container))
+                        .filter(act -> container.addableTemplates == null || container.addableTemplates.contains(act))
+                        .map(act -> new FutureActionSupport(og, act));
+    }
+
+    private List<Resolver> getDownwardResolversForOpenGoal(Timeline og) {
+        assert og.isConsumer();
+        assert container.tdb.getConsumers().contains(og) : "This timeline is not an open goal.";
+
+        Stream<FutureTaskSupport> taskSupports = downwardTaskSupports(og);
 
-        Stream<FutureActionSupport> actionSupports =
-                container.getHierarchicalConstraints().isConstrained(og) ?
-                        Stream.empty() :
-                        container.pb.abstractActions().stream()
-                                .filter(act -> !act.isTaskDependent())
-                                .filter(act -> effs.canSupport(og, act, container))
-                                .filter(act -> container.addableTemplates == null || container.addableTemplates.contains(act))
-                                .map(act -> new FutureActionSupport(og, act));
+        Stream<FutureActionSupport> actionSupports = downwardActionSupports(og);
 
         Stream<SupportingTimeline> timelineSupport = container.getExtension(CausalNetworkExt.class)
                  .getPotentialSupporters(og).stream()
@@ -10,8 +10,10 @@ import fr.laas.fape.planning.core.planning.grounding.Fluent;
 import fr.laas.fape.planning.core.planning.grounding.GAction;
 import fr.laas.fape.planning.core.planning.grounding.TempFluents;
 import fr.laas.fape.planning.core.planning.planner.Counters;
+import fr.laas.fape.planning.core.planning.planner.GlobalOptions;
 import fr.laas.fape.planning.core.planning.planner.Planner;
 import fr.laas.fape.planning.core.planning.planner.PlanningOptions;
+import fr.laas.fape.planning.core.planning.planner.Telemetry;
 import fr.laas.fape.anml.model.concrete.*;
 import fr.laas.fape.planning.core.planning.search.Handler;
 import fr.laas.fape.planning.core.planning.search.flaws.finders.FlawFinder;
@@ -41,18 +43,23 @@ import fr.laas.fape.anml.pending.StateVariable;
 import fr.laas.fape.constraints.MetaCSP;
 import fr.laas.fape.constraints.bindings.InSetConstraint;
 import fr.laas.fape.constraints.stnu.Controllability;
+import fr.laas.fape.constraints.stnu.STNUBackend;
+import fr.laas.fape.exceptions.InconsistencyException;
 import scala.Option;
 import scala.Tuple2;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class PartialPlan implements Reporter {
 
-    static int idCounter = 0;
-    public final int mID;
+    /** Source of unique IDs for partial plans and search nodes (search nodes might be created concurrently). */
+    static final AtomicInteger idCounter = new AtomicInteger(0);
+    /** ID of the search node holding this state, only changed when a node takes over the state of its parent */
+    public int mID;
     int depth;
 
     @Setter @Getter
@@ -71,7 +78,7 @@ public class PartialPlan implements Reporter {
     public final RefCounter refCounter;
 
     /** Maps a constant parameterized variable to a variable in the CSP */
-    private final Map<ParameterizedStateVariable, VarRef> stateVarsToVariables;
+    private Map<ParameterizedStateVariable, VarRef> stateVarsToVariables;
 
     private boolean isDeadEnd = false;
     private boolean isConsistent = true;
@@ -84,6 +91,12 @@ public class PartialPlan implements Reporter {
      */
     private LinkedList<Pair<Integer, Action>> supportConstraints;
 
+    /**
+     * True if the modifications, supportConstraints and stateVarsToVariables collections might be shared
+     * with another partial plan. They are copied before being modified (copy-on-write).
+     */
+    private boolean sharedCollections = false;
+
     public final AnmlProblem pb;
 
     /** Current planner instance handling this state */
@@ -96,6 +109,7 @@ public class PartialPlan implements Reporter {
      * Those actions must (i) be reachable (plannning graph)
      * (ii) be derivable from an reachable action if motivated.
      * This field is filled by PlanningGraphReachibility when needed.
+     * Those sets are shared with the children of the state and should be replaced rather than modified.
      */
     public EffSet<GAction> addableActions;
     public Set<AbstractAction> addableTemplates;
@@ -111,8 +125,8 @@ public class PartialPlan implements Reporter {
 
 
     /** All modifications (i.e. resolvers) that have been applied to build this state */
-    private final List<PartialPlanModification> modifications;
-    public List<PartialPlanModification> getStateModifications() { return modifications; }
+    private List<PartialPlanModification> modifications;
+    public List<PartialPlanModification> getStateModifications() { return Collections.unmodifiableList(modifications); }
 
     /**
      * Index of the latest applied StateModifier in pb.jModifiers()
@@ -129,14 +143,15 @@ public class PartialPlan implements Reporter {
      * constructed from from the existing states
      */
     public PartialPlan(AnmlProblem pb, Controllability controllability) {
-        this.mID = idCounter++;
+        this.mID = idCounter.getAndIncrement();
         this.pb = pb;
         this.depth = 0;
         this.controllability = controllability;
         this.refCounter = pb.refCounter().clone();
         this.modifications = new ArrayList<>();
         tdb = new TimelinesManager(this);
-        csp = fr.laas.fape.constraints.Factory.getMetaWithGivenControllability(controllability);
+        csp = fr.laas.fape.constraints.Factory.getMetaWithGivenControllability(controllability,
+                STNUBackend.fromName(GlobalOptions.getStringOption("stn-backend")));
         taskNet = new TaskNetworkManager();
 
         addableActions = null;
@@ -149,6 +164,7 @@ public class PartialPlan implements Reporter {
         extensions.add(new OpenGoalSupportersCache(this));
         extensions.add(new CausalNetworkExt(this));
         extensions.add(new ThreatsCache(this));
+        extensions.add(new FlawAgenda(this));
 
         // Insert all problem-defined modifications into the state
         problemRevision = -1;
@@ -166,7 +182,7 @@ public class PartialPlan implements Reporter {
         pb = st.pb;
         pl = st.pl;
         this.controllability = st.controllability;
-        this.modifications = new ArrayList<>(st.modifications);
+        this.modifications = st.modifications;
         this.refCounter = st.refCounter.clone();
         this.earliestExecution = st.earliestExecution;
         isDeadEnd = st.isDeadEnd;
@@ -174,14 +190,27 @@ public class PartialPlan implements Reporter {
         csp = new MetaCSP(st.csp);
         tdb = new TimelinesManager(st.tdb, this); //st.tdb.deepCopy();
         taskNet = st.taskNet.deepCopy();
-        supportConstraints = new LinkedList<>(st.supportConstraints);
-        stateVarsToVariables = new HashMap<>(st.stateVarsToVariables);
-        addableActions = st.addableActions != null ? st.addableActions.clone() : null;
-        addableTemplates = st.addableTemplates != null ? new HashSet<>(st.addableTemplates) : null;
+        supportConstraints = st.supportConstraints;
+        stateVarsToVariables = st.stateVarsToVariables;
+        sharedCollections = true;
+        st.sharedCollections = true;
+        // never modified once set, a new set is built whenever they change
+        addableActions = st.addableActions;
+        addableTemplates = st.addableTemplates;
 
         extensions = st.extensions.stream().map(ext -> ext.clone(this)).collect(Collectors.toList());
     }
 
+    /** Makes sure the collections that are shared on cloning are owned by this plan before modifying them. */
+    private void ensureOwnedCollections() {
+        if(sharedCollections) {
+            modifications = new ArrayList<>(modifications);
+            supportConstraints = new LinkedList<>(supportConstraints);
+            stateVarsToVariables = new HashMap<>(stateVarsToVariables);
+            sharedCollections = false;
+        }
+    }
+
     /** Returns the depth of this node in the search space */
     public int getDepth() { return depth; }
 
@@ -196,7 +225,10 @@ public class PartialPlan implements Reporter {
 
     public PartialPlan cc(int newID) {
         Counters.inc("plan-copy");
-        return new PartialPlan(this, newID);
+        final long start = Telemetry.start();
+        PartialPlan copy = new PartialPlan(this, newID);
+        Telemetry.stop(Telemetry.Phase.CLONE, start);
+        return copy;
     }
 
     private List<Handler> getHandlers() {
@@ -432,11 +464,76 @@ public class PartialPlan implements Reporter {
     }
 
     public boolean apply(PartialPlanModification mod, boolean isFastForwarding) { //TODO, simply this fast forwarding knowledge
+        ensureOwnedCollections();
         modifications.add(mod);
         mod.apply(this, isFastForwarding);
         return isConsistent();
     }
 
+    /**
+     * Checks whether applying a modification would make the constraint network inconsistent, without
+     * modifying or copying this plan.
+     *
+     * This is only done for modifications made of constraints on existing variables and timepoints (e.g. the
+     * resolvers of threats and unbound variables): their constraints are applied to the CSP after creating a
+     * checkpoint, to which the CSP is rolled back afterwards.
+     *
+     * @return False if the modification would result in an inconsistent plan. True if it might not, or if it
+     *         cannot be checked without copying the plan.
+     */
+    public boolean mightBeConsistentWith(PartialPlanModification mod) {
+        if(!csp.isBacktrackable() || !(mod instanceof ChronicleInsertion))
+            return true;
+        final Chronicle chronicle = ((ChronicleInsertion) mod).chronicle;
+        if(!isMadeOfConstraintsOnly(chronicle))
+            return true;
+
+        csp.checkpoint();
+        try {
+            csp.stn().startBatch();
+            try {
+                for(BindingConstraint bc : chronicle.bindingConstraints())
+                    apply(chronicle, bc);
+                for(TemporalConstraint tc : chronicle.temporalConstraints())
+                    apply(chronicle, tc);
+            } catch (RuntimeException e) {
+                csp.stn().abortBatch();
+                throw e;
+            }
+            csp.stn().endBatch();
+            return csp.propagateMixedConstraints() && csp.isConsistent();
+        } catch (InconsistencyException e) {
+            return false;
+        } finally {
+            csp.rollback();
+        }
+    }
+
+    /**
+     * True if the chronicle only contains unification/separation constraints and temporal constraints with
+     * known delays, whose application only impacts the CSP.
+     */
+    static boolean isMadeOfConstraintsOnly(Chronicle chronicle) {
+        if(!chronicle.statements().isEmpty() || !chronicle.tasks().isEmpty() || !chronicle.vars().isEmpty()
+                || !chronicle.instances().isEmpty() || !chronicle.annotations().isEmpty())
+            return false;
+        for(BindingConstraint bc : chronicle.bindingConstraints())
+            if(!(bc instanceof VarEqualityConstraint) && !(bc instanceof VarInequalityConstraint))
+                return false;
+        for(TemporalConstraint tc : chronicle.temporalConstraints()) {
+            if(tc instanceof MinDelayConstraint) {
+                if(!((MinDelayConstraint) tc).minDelay().isKnown())
+                    return false;
+            } else if(tc instanceof ContingentConstraint) {
+                if(!((ContingentConstraint) tc).min().isKnown() || !((ContingentConstraint) tc).max().isKnown())
+                    return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Applies all pending modifications of the problem. A problem comes with a
      * sequence of StateModifiers that depict the current status of the problem.
@@ -480,14 +577,15 @@ public class PartialPlan implements Reporter {
     public void apply(Chronicle chronicle, BindingConstraint bc) {
         if (bc instanceof AssignmentConstraint) {
             AssignmentConstraint c = (AssignmentConstraint) bc;
-            List<String> values = new LinkedList<>();
-            for (VarRef v : c.sv().args()) {
-                assert v instanceof InstanceRef : "Value "+v+" of "+bc+" is not an instance";
-                values.add(((InstanceRef) v).instance());
+            final VarRef[] args = c.sv().args();
+            int[] values = new int[args.length + 1];
+            for (int i = 0; i < args.length; i++) {
+                assert args[i] instanceof InstanceRef : "Value "+args[i]+" of "+bc+" is not an instance";
+                values[i] = csp.bindings().valueID((InstanceRef) args[i]);
             }
             assert c.variable() instanceof InstanceRef : "Left value of "+bc+" is not an instance";
-            values.add(((InstanceRef) c.variable()).instance());
-            csp.bindings().addAllowedTupleToNAryConstraint(c.sv().func().name(), values);
+            values[args.length] = csp.bindings().valueID((InstanceRef) c.variable());
+            csp.bindings().addAllowedTupleToNAryConstraint(c.sv().func().name(), values, false);
         } else if (bc instanceof VarEqualityConstraint) {
             VarEqualityConstraint c = (VarEqualityConstraint) bc;
             csp.bindings().AddUnificationConstraint(c.leftVar(), c.rightVar());
@@ -512,13 +610,15 @@ public class PartialPlan implements Reporter {
             csp.bindings().addSeparationConstraint(tmp, c.variable());
         } else if (bc instanceof IntegerAssignmentConstraint) {
             IntegerAssignmentConstraint c = (IntegerAssignmentConstraint) bc;
-            List<String> values = new LinkedList<>();
-            for (VarRef v : c.sv().args()) {
-                assert v instanceof InstanceRef;
-                values.add(((InstanceRef) v).instance());
+            final VarRef[] args = c.sv().args();
+            int[] values = new int[args.length + 1];
+            for (int i = 0; i < args.length; i++) {
+                assert args[i] instanceof InstanceRef;
+                values[i] = csp.bindings().valueID((InstanceRef) args[i]);
             }
+            values[args.length] = c.value();
             csp.bindings().addPossibleValue(c.value());
-            csp.bindings().addAllowedTupleToNAryConstraint(c.sv().func().name(), values, c.value());
+            csp.bindings().addAllowedTupleToNAryConstraint(c.sv().func().name(), values, true);
         } else if(bc instanceof InConstraint) {
             csp.bindings().addConstraint(
                     new InSetConstraint(((InConstraint) bc).leftVar(), ((InConstraint) bc).rightVars()));
@@ -575,9 +675,25 @@ public class PartialPlan implements Reporter {
     }
 
     public void apply(Chronicle chronicle) {
+        // all temporal constraints of the chronicle are inserted in a single batch
+        csp.stn().startBatch();
+        try {
+            applyInBatch(chronicle);
+        } catch (RuntimeException e) {
+            csp.stn().abortBatch();
+            throw e;
+        }
+        csp.stn().endBatch();
+
+        for(StateExtension ext : extensions) {
+            ext.chronicleMerged(chronicle);
+        }
+    }
+
+    private void applyInBatch(Chronicle chronicle) {
         // for every instance declaration, create a new CSP Var with itself as domain
         for (String instanceName : chronicle.instances()) {
-            csp.bindings().addPossibleValue(instanceName);
+            csp.bindings().addPossibleValue(pb.instances().referenceOf(instanceName));
             csp.bindings().addVariable(pb.instances().referenceOf(instanceName), Collections.singletonList(instanceName));
         }
 
@@ -611,12 +727,9 @@ public class PartialPlan implements Reporter {
         for (Statement ts : chronicle.statements()) {
             apply(chronicle, ts);
         }
-
-        for(StateExtension ext : extensions) {
-            ext.chronicleMerged(chronicle);
-        }
     }
     public void addSupportConstraint(ChainComponent cc, Action act) {
+        ensureOwnedCollections();
         supportConstraints.removeIf(p -> p.value1 == cc.mID);
         supportConstraints.add(new Pair<>(cc.mID, act));
     }
@@ -650,6 +763,17 @@ public class PartialPlan implements Reporter {
         return getExtension(OpenGoalSupportersCache.class).getResolversForOpenGoal(og, actionInsertionStrategy);
     }
 
+    /**
+     * Counts the valid resolvers for this unsupported timeline, stopping as soon as max of them were found.
+     * Any value greater than or equal to max is returned in this case.
+     */
+    public int countResolversForOpenGoal(Timeline og, PlanningOptions.ActionInsertionStrategy actionInsertionStrategy, int max) {
+        assert og.isConsumer();
+        assert tdb.getConsumers().contains(og) : "This timeline is not an open goal.";
+
+        return getExtension(OpenGoalSupportersCache.class).countResolversForOpenGoal(og, actionInsertionStrategy, max);
+    }
+
 
     public List<Flaw> getAllThreats() {
         return getExtension(ThreatsCache.class).getAllThreats();
@@ -670,6 +794,15 @@ public class PartialPlan implements Reporter {
      * An empty result indicates that the plan has no flaw.
      */
     public Optional<Flaw> getFlaws(List<FlawFinder> finders, Comparator<Flaw> comparator) {
+        final long start = Telemetry.start();
+        try {
+            return bestFlaw(finders, comparator);
+        } finally {
+            Telemetry.stop(Telemetry.Phase.GET_FLAWS, start);
+        }
+    }
+
+    private Optional<Flaw> bestFlaw(List<FlawFinder> finders, Comparator<Flaw> comparator) {
         List<Flaw> flaws = new ArrayList<>();
 
         for (FlawFinder fd : finders)
@@ -678,37 +811,50 @@ public class PartialPlan implements Reporter {
         if(flaws.isEmpty())
             return Optional.empty();
 
-        Flaw candidate = null;
-        int bestNumResolvers = Integer.MAX_VALUE;
-
+        // upper bounds on the number of resolvers, carried from the ancestors of this plan
+        final FlawAgenda agenda = getExtension(FlawAgenda.class);
+        final Map<Flaw, Integer> bounds = new IdentityHashMap<>(flaws.size());
         for(Flaw f : flaws) {
-            int num = f.getNumResolvers(this, pl);
+            final int bound = agenda.boundOnNumResolvers(f);
+            // known to have no resolvers: a dead end, exit without looking at any resolver
+            if(bound == 0)
+                return Optional.of(f);
+            bounds.put(f, bound);
+        }
+        // look first at the flaws that are known to have few resolvers. The sort is stable: flaws with the same
+        // bound remain in the order given by the finders
+        final List<Flaw> byBound = new ArrayList<>(flaws);
+        byBound.sort(Comparator.comparingInt(bounds::get));
+
+        // The selection only depends on whether the best flaw has 0, 1 or more resolvers: resolvers of a flaw
+        // are only counted up to 2 and up to the number of resolvers of the best flaw so far.
+        int bestNumResolvers = 2;
+        for(Flaw f : byBound) {
+            int num = f.getNumResolvers(this, pl, bestNumResolvers);
+            if(num < bestNumResolvers)
+                agenda.recordNumResolvers(f, num); // exact number of resolvers
             // no resolvers: a dead end exit early
             if(num == 0)
                 return Optional.of(f);
-
-            if(num < bestNumResolvers) {
-                candidate = f;
-                bestNumResolvers = num;
-            }
+            bestNumResolvers = Math.min(bestNumResolvers, num);
         }
         assert bestNumResolvers > 0;
-        assert candidate != null;
 
-        // make candidate the best flaw according to comparator
+        // best flaw according to comparator among those with a single resolver (if any), looked at in the
+        // order of the finders so that ties are broken as without bounds
+        Flaw candidate = null;
         for(Flaw f : flaws) {
-            if(f == candidate)
-                continue;
             if(bestNumResolvers == 1) {
                 // we know that the best flaw will have a single resolver but we still want to
                 // use the comparator to eliminate non determinism
-                int numRes = f.getNumResolvers(this, pl);
+                int numRes = f.getNumResolvers(this, pl, 2);
                 if(numRes > 1)
                     continue;
             }
-            if(comparator.compare(f, candidate) < 0)
+            if(candidate == null || comparator.compare(f, candidate) < 0)
                 candidate = f;
         }
+        assert candidate != null;
         return Optional.of(candidate);
     }
 
@@ -755,13 +901,27 @@ public class PartialPlan implements Reporter {
     public void enforceBefore(TPRef a, TPRef b) { csp.stn().enforceBefore(a, b); }
 
     public void enforceBefore(Collection<TPRef> as, TPRef b) {
-        for(TPRef a : as)
-            enforceBefore(a, b);
+        csp.stn().startBatch();
+        try {
+            for (TPRef a : as)
+                enforceBefore(a, b);
+        } catch (RuntimeException e) {
+            csp.stn().abortBatch();
+            throw e;
+        }
+        csp.stn().endBatch();
     }
 
     public void enforceBefore(TPRef a, Collection<TPRef> bs) {
-        for(TPRef b : bs)
-            enforceBefore(a, b);
+        csp.stn().startBatch();
+        try {
+            for (TPRef b : bs)
+                enforceBefore(a, b);
+        } catch (RuntimeException e) {
+            csp.stn().abortBatch();
+            throw e;
+        }
+        csp.stn().endBatch();
     }
 
     public void enforceStrictlyBefore(TPRef a, TPRef b) { csp.stn().enforceStrictlyBefore(a, b); }
@@ -783,13 +943,27 @@ public class PartialPlan implements Reporter {
     }
 
     public void enforceStrictlyBefore(Collection<TPRef> as, TPRef b) {
-        for(TPRef a : as)
-            enforceStrictlyBefore(a, b);
+        csp.stn().startBatch();
+        try {
+            for (TPRef a : as)
+                enforceStrictlyBefore(a, b);
+        } catch (RuntimeException e) {
+            csp.stn().abortBatch();
+            throw e;
+        }
+        csp.stn().endBatch();
     }
 
     public void enforceStrictlyBefore(TPRef a, Collection<TPRef> bs) {
-        for(TPRef b : bs)
-            enforceStrictlyBefore(a, b);
+        csp.stn().startBatch();
+        try {
+            for (TPRef b : bs)
+                enforceStrictlyBefore(a, b);
+        } catch (RuntimeException e) {
+            csp.stn().abortBatch();
+            throw e;
+        }
+        csp.stn().endBatch();
     }
 
     public boolean canBeBefore(TPRef a, TPRef b) { return csp.stn().canBeBefore(a, b); }
@@ -960,13 +1134,7 @@ public class PartialPlan implements Reporter {
         }
     }
 
-    public List<InstanceRef> valuesOf(VarRef var) {
-        List<InstanceRef> values = new ArrayList<>();
-        for(String val : domainOf(var)) {
-            values.add(pb.instances().referenceOf(val));
-        }
-        return values;
-    }
+    public List<InstanceRef> valuesOf(VarRef var) { return csp.bindings().instancesOf(var); }
 
     public List<Action> getAllActions() { return taskNet.getAllActions(); }
 
@@ -994,6 +1162,24 @@ public class PartialPlan implements Reporter {
 
     public int getNumActions() { return taskNet.getNumActions(); }
 
+    /**
+     * Rough estimate (in bytes) of the memory retained by this partial plan, used to enforce the memory budget of
+     * search nodes. It is a formula, not a measure: the distance matrix of the STN (that dominates for large plans)
+     * is counted as a full int matrix and the per-variable, per-statement and per-action costs are coarse
+     * constants. Structures shared with other plans are counted in each of them.
+     */
+    public long estimatedSize() {
+        final long numTimepoints = csp.stn().timepoints().size();
+        final long numVariables = csp.bindings().variables().length;
+        long numChainComponents = 0;
+        for(Timeline tl : tdb.getTimelines())
+            numChainComponents += tl.size();
+        return 4 * numTimepoints * numTimepoints
+                + 100 * numVariables
+                + 200 * numChainComponents
+                + 300 * getNumActions();
+    }
+
     public int getNumRoots() { return taskNet.getNumRoots(); }
 
     public void exportTaskNetwork(String filename) { taskNet.exportToDot(this, filename); }
@@ -1032,11 +1218,9 @@ public class PartialPlan implements Reporter {
 
     public void restrictDomain(VarRef var, Collection<String> values) { csp.bindings().restrictDomain(var, values); }
 
-    public void bindVariable(VarRef var, String value) {
-        List<String> values = new LinkedList<>();
-        values.add(value);
-        restrictDomain(var, values);
-    }
+    public void bindVariable(VarRef var, String value) { csp.bindings().bindVariable(var, csp.bindings().valueID(value)); }
+
+    public void bindVariable(VarRef var, InstanceRef value) { csp.bindings().bindVariable(var, value); }
 
     public List<VarRef> getUnboundVariables() { return csp.bindings().getUnboundVariables(); }
 
@@ -1063,6 +1247,7 @@ public class PartialPlan implements Reporter {
             List<VarRef> variablesOfNAryConst = new ArrayList<>(Arrays.asList(sv.args()));
             variablesOfNAryConst.add(variable);
             csp.bindings().addNAryConstraint(variablesOfNAryConst, sv.func().name());
+            ensureOwnedCollections();
             stateVarsToVariables.put(sv, variable);
         }
         return stateVarsToVariables.get(sv);
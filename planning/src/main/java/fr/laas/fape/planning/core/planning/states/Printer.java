@@ -67,7 +67,7 @@ public class Printer {
         else if(o instanceof SupportingTimeline)
             return "SupportingDatabase: "+ inlineTimeline(plan, plan.tdb.getTimeline(((SupportingTimeline) o).supporterID));
         else if(o instanceof VarBinding)
-            return "VarBinding: "+((VarBinding) o).var.id()+"="+((VarBinding) o).value;
+            return "VarBinding: "+((VarBinding) o).var.id()+"="+((VarBinding) o).value.instance();
         else if(o instanceof BindingSeparation)
             return "BindingSeparation: "+((BindingSeparation) o).a.id()+"!="+((BindingSeparation) o).b.id();
         else if(o instanceof NewTaskSupporter)
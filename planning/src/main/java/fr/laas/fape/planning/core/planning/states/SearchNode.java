@@ -8,6 +8,7 @@ import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 /**
@@ -19,6 +20,10 @@ import java.util.function.Consumer;
  *
  * The State object is cached using soft references. If the JVM runs out of memory, cached states
  * are reclaimed by the garbage collector. The least recently used state is typically reclaimed first.
+ * Besides, the planner's SearchNodeMemoryManager keeps track of the nodes holding a state and asks
+ * them to release it when they are neither among the most recent nor among the best ones.
+ * If the manager has a memory budget, states are instead held through strong references and evicted
+ * by the manager when the budget is exceeded.
  *
  * The search node also provides a caching mechanism for heuristic values
  * (to avoid rebuilding a complete state to extract the heuristic value).
@@ -34,9 +39,9 @@ public class SearchNode {
     public SearchNode(SearchNode parent, Planner planner) {
         this.parent = parent;
         state = null;
-        this.mID = PartialPlan.idCounter++;
+        this.mID = PartialPlan.idCounter.getAndIncrement();
         this.depth = parent.depth +1;
-        planner.recordSearchNode(this);
+        this.memory = planner.memoryManager;
         status = Status.PENDING;
     }
     public SearchNode(PartialPlan initialPartialPlan, Planner planner) {
@@ -44,7 +49,8 @@ public class SearchNode {
         state = new StrongReference<>(initialPartialPlan);
         this.mID = initialPartialPlan.mID;
         this.depth = 0;
-        planner.recordSearchNode(this);
+        this.memory = planner.memoryManager;
+        this.wasBuilt = true;
         lastRecord = System.nanoTime();
         status = Status.STABLE;
     }
@@ -74,6 +80,22 @@ public class SearchNode {
     /** Nano-time at which a PartialPlan (if any) was recorded in this node. */
     public long lastRecord = 0;
 
+    /** True if a state was already built for this node (building it again means it was released in between) */
+    private boolean wasBuilt = false;
+
+    /** Manager responsible for deciding when this node should release its memory */
+    private final SearchNodeMemoryManager memory;
+
+    /** Position of this node in the memory manager's structures (handled by the manager only). */
+    SearchNodeMemoryManager.NodeList memoryList = null;
+    SearchNode prevInMemoryList = null;
+    SearchNode nextInMemoryList = null;
+    boolean inBestPending = false;
+    SearchNodeMemoryManager.CacheEntry cacheEntry = null;
+
+    /** Time at which the cloning of the parent's state started, if the state is being built (-1 otherwise) */
+    private long buildStart = -1;
+
     public boolean holdsMemory() {
         return state != null &&
                 (state instanceof SoftReference || state instanceof StrongReference) &&
@@ -83,17 +105,47 @@ public class SearchNode {
     public void setExpanded() {
         if(status == Status.PENDING)
             status = Status.EXPANDED;
-        PartialPlan s = state.get();
         if(status != Status.STABLE)
             releaseMemory();
     }
 
+    /**
+     * Held while the state of this node is built or copied. A child only locks itself and its ancestors, in this
+     * order, which allows several children of the same node to be built concurrently.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Releases the memory of this node unless its state is currently being built or copied (by any thread,
+     * including the current one). Returns true if the node was not busy.
+     */
+    boolean releaseMemoryIfIdle() {
+        if(!lock.tryLock())
+            return false;
+        try {
+            if(lock.getHoldCount() > 1)
+                return false; // locked higher in the stack of the current thread
+            releaseMemory();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void releaseMemory() {
         assert status != Status.STABLE;
         if(state != null) {
             state = new WeakReference<>(state.get());
             lastRecord = 0;
         }
+        memory.stateReleased(this);
+    }
+
+    /** Records a reference to the given state and registers it in the memory manager */
+    private void recordState(PartialPlan st) {
+        state = memory.reference(st);
+        lastRecord = System.nanoTime();
+        memory.stateRecorded(this, st);
     }
 
     /** List of 'h', 'g', 'hc' heuristic values */
@@ -117,26 +169,74 @@ public class SearchNode {
      * Returns the base state from which the complete state can be built.
      */
     private PartialPlan getBaseState(boolean isForChild) {
-        if(state != null && state.get() != null) {
-            return state.get();
+        final PartialPlan cached = state != null ? state.get() : null;
+        memory.stateRequested(this, cached != null);
+        if(cached != null) {
+            return cached;
         } else {
             assert depth != 0;
             assert parent != null;
-            PartialPlan st = parent.getState(true).cc(mID);
+            buildStart = System.nanoTime();
+            final PartialPlan st;
+            parent.lock.lock();
+            try {
+                // copying a state gives up its ownership of the structures now shared with the copy, which
+                // writes to it: copies of a given parent are made one at a time
+                st = parent.getState(true).cc(mID);
+            } finally {
+                parent.lock.unlock();
+            }
             st.depth = depth;
             nextOperation = 0;
+            if(wasBuilt)
+                memory.stateRebuilt(this);
+            wasBuilt = true;
             if(!isForChild) {// directly request, save the reference
-                state = new SoftReference<>(st);
-                lastRecord = System.nanoTime();
-            } else if(depth %5 == 0) { // save at regular depths
-                state = new SoftReference<>(st);
-                lastRecord = System.nanoTime();
+                recordState(st);
+            } else if(memory.shouldSnapshot(this)) { // save at intervals decided by the memory manager
+                recordState(st);
             }
 
             return st;
         }
     }
 
+    /**
+     * Makes the state of the parent the base state of this node, instead of a copy of it. The parent gives up its
+     * state and will build it again from its own parent if it is ever requested.
+     * This is only valid if no other child of the parent is to be built from its state.
+     *
+     * @return False (and nothing is done) if this node already has a state or if the parent is a stable node.
+     */
+    public boolean takeStateOfParent() {
+        lock.lock();
+        try {
+            if(parent == null || parent.status == Status.STABLE || state != null && state.get() != null)
+                return false;
+            final PartialPlan st;
+            parent.lock.lock();
+            try {
+                st = parent.getState(true);
+                parent.state = null;
+                parent.lastRecord = 0;
+                memory.stateReleased(parent);
+            } finally {
+                parent.lock.unlock();
+            }
+            // caches indexed by the ID of the state must not mix the parent and this node
+            st.mID = mID;
+            st.depth = depth;
+            nextOperation = 0;
+            if(wasBuilt)
+                memory.stateRebuilt(this);
+            wasBuilt = true;
+            recordState(st);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public SearchNode getParent() { return parent; }
 
     public PartialPlan getState() {
@@ -144,12 +244,21 @@ public class SearchNode {
     }
 
     private PartialPlan getState(boolean isForChild) {
-        PartialPlan s = getBaseState(isForChild);
-        s.depth = depth;
-        while(nextOperation < operations.size()) {
-            operations.get(nextOperation++).accept(s);
+        lock.lock();
+        try {
+            PartialPlan s = getBaseState(isForChild);
+            s.depth = depth;
+            while (nextOperation < operations.size()) {
+                operations.get(nextOperation++).accept(s);
+            }
+            if (buildStart >= 0) {
+                memory.stepBuilt(System.nanoTime() - buildStart);
+                buildStart = -1;
+            }
+            return s;
+        } finally {
+            lock.unlock();
         }
-        return s;
     }
 
     public int getDepth() { return depth; }
@@ -0,0 +1,346 @@
+package fr.laas.fape.planning.core.planning.states;
+
+import fr.laas.fape.planning.util.StrongReference;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps track of the search nodes that hold a partial plan in memory and decides which ones should release it.
+ *
+ * Nodes are tracked incrementally, each one being in at most one of the following structures:
+ *  - a list of expanded nodes, ordered by the time at which their state was last recorded.
+ *  - a list of pending nodes, ordered by the time at which their state was last recorded.
+ *  - a bounded heap of the best pending nodes that are not part of the most recent ones.
+ *
+ * Lists are intrusive (links are stored in the SearchNode) so that moving or removing a node is O(1).
+ * Cleaning only looks at the tail of the lists, hence the cost of releasing memory is O(1) amortized
+ * per recorded state (plus O(log k) for the heap of best nodes).
+ *
+ * If a memory budget is given, states are instead kept through strong references and evicted when the
+ * (estimated) size of all cached states exceeds the budget. The node evicted first is the one with the
+ * lowest rebuild cost per byte, the rebuild cost being the distance to its nearest cached ancestor times
+ * the average cost of building a node from its parent.
+ */
+public class SearchNodeMemoryManager {
+
+    /** Maximal number of nodes between two snapshots on a branch when a memory budget is used. */
+    static final int MAX_SNAPSHOT_INTERVAL = 20;
+
+    /** Time we accept to spend rebuilding a state when the cache is full. */
+    static final long MAX_REBUILD_NANOS = 20_000_000;
+
+    /** Entry of a cached state in the eviction queue. */
+    static final class CacheEntry {
+        final SearchNode node;
+        final long size;
+        final double score;
+        boolean valid = true;
+
+        CacheEntry(SearchNode node, long size, double score) {
+            this.node = node;
+            this.size = size;
+            this.score = score;
+        }
+    }
+
+    /** Maximal memory (in bytes) to be used by cached states, a non-positive value means no budget. */
+    private final long budget;
+
+    /** Estimated memory used by all states in cache */
+    private long usedBytes = 0;
+
+    /** Number of valid entries in the eviction queue */
+    private int numCached = 0;
+
+    /** Cached states, the one with the lowest rebuild cost per byte at the head. Entries are removed lazily. */
+    private final PriorityQueue<CacheEntry> evictionQueue = new PriorityQueue<>(Comparator.comparingDouble(e -> e.score));
+
+    /** Running average of the time needed to build a node from its parent's state (cloning + operations) */
+    private double avgStepNanos = -1;
+
+    /** Creates a manager that relies on soft references and on the number of nodes to keep in memory. */
+    public SearchNodeMemoryManager() {
+        this(0);
+    }
+
+    /**
+     * @param budget Maximal memory (in bytes) to be used by the states held by search nodes.
+     *               If not strictly positive, states are held through soft references.
+     */
+    public SearchNodeMemoryManager(long budget) {
+        this.budget = budget;
+    }
+
+    public boolean usesBudget() { return budget > 0; }
+
+    /** Doubly linked list whose links are stored in the search nodes. Most recent nodes are at the head. */
+    static final class NodeList {
+        private SearchNode head = null;
+        private SearchNode tail = null;
+        private int size = 0;
+
+        void addFirst(SearchNode n) {
+            assert n.memoryList == null;
+            n.memoryList = this;
+            n.prevInMemoryList = null;
+            n.nextInMemoryList = head;
+            if(head != null)
+                head.prevInMemoryList = n;
+            head = n;
+            if(tail == null)
+                tail = n;
+            size++;
+        }
+
+        void remove(SearchNode n) {
+            assert n.memoryList == this;
+            if(n.prevInMemoryList != null)
+                n.prevInMemoryList.nextInMemoryList = n.nextInMemoryList;
+            else
+                head = n.nextInMemoryList;
+            if(n.nextInMemoryList != null)
+                n.nextInMemoryList.prevInMemoryList = n.prevInMemoryList;
+            else
+                tail = n.prevInMemoryList;
+            n.prevInMemoryList = null;
+            n.nextInMemoryList = null;
+            n.memoryList = null;
+            size--;
+        }
+
+        SearchNode removeLast() {
+            SearchNode last = tail;
+            remove(last);
+            return last;
+        }
+
+        int size() { return size; }
+    }
+
+    private final NodeList recentExpanded = new NodeList();
+    private final NodeList recentPending = new NodeList();
+
+    /** Best pending nodes that fell out of the list of recent pending nodes. The worst one is at the head. */
+    private PriorityQueue<SearchNode> bestPending = null;
+    private Comparator<? super SearchNode> heuristic = null;
+
+    private int numReleased = 0;
+    private int numRebuilt = 0;
+    private int numHits = 0;
+    private int numMisses = 0;
+
+    /** Number of times a node was asked to release its memory by this manager */
+    public synchronized int getNumReleased() { return numReleased; }
+
+    /** Number of states that had to be rebuilt because their memory was previously released */
+    public synchronized int getNumRebuilt() { return numRebuilt; }
+
+    /** Number of state requests that were answered by a state held in memory */
+    public synchronized int getNumHits() { return numHits; }
+
+    /** Number of state requests that required building a state from the one of the parent */
+    public synchronized int getNumMisses() { return numMisses; }
+
+    /** Estimated memory (in bytes) used by the states in cache. Only maintained when a budget is used. */
+    public synchronized long getUsedBytes() { return usedBytes; }
+
+    /** Creates the reference through which a node should hold its state. */
+    Reference<PartialPlan> reference(PartialPlan st) {
+        if(usesBudget())
+            return new StrongReference<>(st);
+        else
+            return new SoftReference<>(st);
+    }
+
+    /** Invoked when the node records a reference to its state (i.e. starts holding memory) */
+    synchronized void stateRecorded(SearchNode n, PartialPlan st) {
+        if(n.status == SearchNode.Status.STABLE)
+            return;
+        detach(n);
+        if(usesBudget()) {
+            final long size = st.estimatedSize();
+            while(usedBytes + size > budget) {
+                if(!evictOne())
+                    break;
+            }
+            CacheEntry entry = new CacheEntry(n, size, evictionScore(n, size));
+            n.cacheEntry = entry;
+            evictionQueue.add(entry);
+            usedBytes += size;
+            numCached++;
+        } else if(n.status == SearchNode.Status.EXPANDED) {
+            recentExpanded.addFirst(n);
+        } else {
+            recentPending.addFirst(n);
+        }
+    }
+
+    /** Invoked whenever a node's state is requested, with hit = true if the state was held in memory */
+    synchronized void stateRequested(SearchNode n, boolean hit) {
+        if(hit)
+            numHits++;
+        else
+            numMisses++;
+    }
+
+    /** Records the time that was needed to build a node's state from the one of its parent. */
+    synchronized void stepBuilt(long nanos) {
+        if(avgStepNanos < 0)
+            avgStepNanos = nanos;
+        else
+            avgStepNanos = 0.95 * avgStepNanos + 0.05 * nanos;
+    }
+
+    /**
+     * Returns true if the state built for a child of this node should be kept.
+     *
+     * Without budget, a state is kept every 5 levels of the search tree.
+     * Otherwise, the interval between two snapshots is chosen so that rebuilding a state takes at most
+     * MAX_REBUILD_NANOS when the cache is full. This interval shrinks as the cache empties and as the
+     * average cost of a step increases.
+     */
+    synchronized boolean shouldSnapshot(SearchNode n) {
+        if(!usesBudget())
+            return n.depth % 5 == 0;
+        if(avgStepNanos <= 0)
+            return true;
+        final double fill = Math.min(1.0, (double) usedBytes / budget);
+        final double interval = Math.max(1, Math.min(MAX_SNAPSHOT_INTERVAL, fill * MAX_REBUILD_NANOS / avgStepNanos));
+        return distanceToCachedAncestor(n) >= interval;
+    }
+
+    /** Number of levels between this node and its closest ancestor that holds a state. */
+    private static int distanceToCachedAncestor(SearchNode n) {
+        int dist = 1;
+        SearchNode cur = n.getParent();
+        while(cur != null && !cur.holdsMemory()) {
+            cur = cur.getParent();
+            dist++;
+        }
+        return dist;
+    }
+
+    /** Estimated rebuild cost per byte, the node with the lowest score is the first to be evicted. */
+    private double evictionScore(SearchNode n, long size) {
+        final double stepCost = avgStepNanos > 0 ? avgStepNanos : 1;
+        return distanceToCachedAncestor(n) * stepCost / Math.max(1, size);
+    }
+
+    /**
+     * Evicts the cached state with the lowest rebuild cost per byte, among the nodes whose state is not being
+     * built or copied. Returns false if no state could be evicted.
+     */
+    private boolean evictOne() {
+        List<CacheEntry> busy = new ArrayList<>();
+        try {
+            while (!evictionQueue.isEmpty()) {
+                CacheEntry e = evictionQueue.poll();
+                if (!e.valid)
+                    continue;
+                // the score might have increased if an ancestor was evicted since the entry was created
+                final double score = evictionScore(e.node, e.size);
+                if (score > e.score && !evictionQueue.isEmpty() && score > evictionQueue.peek().score) {
+                    CacheEntry updated = new CacheEntry(e.node, e.size, score);
+                    e.node.cacheEntry = updated;
+                    evictionQueue.add(updated);
+                    continue;
+                }
+                // releasing the memory invokes stateReleased() that updates the accounting
+                if (e.node.releaseMemoryIfIdle()) {
+                    numReleased++;
+                    return true;
+                }
+                busy.add(e);
+            }
+            return false;
+        } finally {
+            evictionQueue.addAll(busy);
+        }
+    }
+
+    /** Invoked when the node stops holding memory */
+    synchronized void stateReleased(SearchNode n) {
+        detach(n);
+    }
+
+    /** Invoked when a state had to be built again after being released */
+    synchronized void stateRebuilt(SearchNode n) {
+        numRebuilt++;
+    }
+
+    private void detach(SearchNode n) {
+        if(n.cacheEntry != null) {
+            n.cacheEntry.valid = false;
+            usedBytes -= n.cacheEntry.size;
+            n.cacheEntry = null;
+            numCached--;
+            if(evictionQueue.size() > 2 * numCached + 16) // too many stale entries
+                evictionQueue.removeIf(e -> !e.valid);
+        }
+        if(n.memoryList != null)
+            n.memoryList.remove(n);
+        else if(n.inBestPending) {
+            bestPending.remove(n);
+            n.inBestPending = false;
+        }
+    }
+
+    private void release(SearchNode n) {
+        assert n.memoryList == null && !n.inBestPending;
+        if(n.holdsMemory() && n.releaseMemoryIfIdle())
+            numReleased++;
+    }
+
+    /**
+     * Release memory from all nodes except:
+     *  - the mostRecentExpandedToKeep expanded nodes whose state was most recently recorded.
+     *  - the mostRecentPendingToKeep pending nodes whose state was most recently recorded.
+     *  - the bestToKeep best pending nodes (according to the heuristic) among the other ones.
+     *
+     * This does nothing when a memory budget is used, as states are then evicted on demand.
+     */
+    public synchronized void clean(int mostRecentExpandedToKeep, int mostRecentPendingToKeep, int bestToKeep, Comparator<? super SearchNode> heuristic) {
+        if(usesBudget())
+            return;
+        if(this.heuristic != heuristic) {
+            // (re)build the heap of best nodes for this heuristic
+            PriorityQueue<SearchNode> previous = bestPending;
+            this.heuristic = heuristic;
+            bestPending = new PriorityQueue<>(Math.max(1, bestToKeep), heuristic.reversed());
+            if(previous != null)
+                bestPending.addAll(previous);
+        }
+
+        while(recentExpanded.size() > mostRecentExpandedToKeep)
+            release(recentExpanded.removeLast());
+
+        while(recentPending.size() > mostRecentPendingToKeep) {
+            SearchNode n = recentPending.removeLast();
+            if(n.status != SearchNode.Status.PENDING || !n.holdsMemory()) {
+                release(n);
+            } else if(bestPending.size() < bestToKeep) {
+                bestPending.add(n);
+                n.inBestPending = true;
+            } else if(bestToKeep > 0 && heuristic.compare(n, bestPending.peek()) < 0) {
+                SearchNode worst = bestPending.poll();
+                worst.inBestPending = false;
+                release(worst);
+                bestPending.add(n);
+                n.inBestPending = true;
+            } else {
+                release(n);
+            }
+        }
+
+        while(bestPending.size() > bestToKeep) {
+            SearchNode worst = bestPending.poll();
+            worst.inBestPending = false;
+            release(worst);
+        }
+    }
+}
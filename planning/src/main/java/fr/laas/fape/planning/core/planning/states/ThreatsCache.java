@@ -1,44 +1,152 @@
 package fr.laas.fape.planning.core.planning.states;
 
+import fr.laas.fape.anml.model.Function;
+import fr.laas.fape.anml.model.concrete.VarRef;
 import fr.laas.fape.planning.core.planning.search.flaws.flaws.Flaw;
 import fr.laas.fape.planning.core.planning.search.flaws.flaws.Threat;
 import fr.laas.fape.planning.core.planning.timelines.Timeline;
+import fr.laas.fape.structures.IntHashSet;
 
 import java.util.*;
 
+/**
+ * Keeps track of all pairs of timelines that might be threatening each other.
+ *
+ * Timelines are indexed by the function of their state variable and, when all arguments are bound,
+ * by the value of their arguments. Hence only timelines whose state variables might be unifiable are
+ * checked when a timeline is added or extended.
+ * Potential threats are stored as an adjacency structure (timeline ID -> IDs of the timelines it might
+ * threaten) so that removing a timeline is linear in the number of its potential threats.
+ *
+ * The adjacency structure is shared with the copies of the cache: each row is owned by at most one cache
+ * and copied before being modified by another one. The index is shared in the same way, per function and
+ * per set of timelines with the same arguments.
+ */
 class ThreatsCache implements StateExtension {
 
-    private final HashSet<PotentialThreat> threats;
+    /** Value IDs of the arguments of a ground state variable. */
+    private static final class GroundArgs {
+        final int[] values;
+        private final int hash;
+
+        GroundArgs(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroundArgs && Arrays.equals(values, ((GroundArgs) o).values);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+
+    /** Marks an indexed timeline that had at least one unbound argument when it was indexed. */
+    private static final GroundArgs NON_GROUND = new GroundArgs(new int[0]);
+
+    /**
+     * Timelines on a given function. The sets of timelines are shared with the copies of the index
+     * and only copied before their first modification.
+     */
+    private static final class FunctionIndex {
+        /** Token of the cache allowed to modify this index */
+        final Object owner;
+        /** Timelines whose state variable has all its arguments bound, indexed by the values of their arguments */
+        final HashMap<GroundArgs, IntHashSet> ground;
+        /** Arguments whose set of timelines was created or copied by this index */
+        final HashSet<GroundArgs> ownedBuckets = new HashSet<>();
+        /** Timelines with at least one unbound argument */
+        IntHashSet nonGround;
+        boolean nonGroundOwned;
+
+        FunctionIndex(Object owner) {
+            this.owner = owner;
+            this.ground = new HashMap<>();
+            this.nonGround = new IntHashSet();
+            this.nonGroundOwned = true;
+        }
+
+        private FunctionIndex(FunctionIndex toCopy, Object owner) {
+            this.owner = owner;
+            this.ground = new HashMap<>(toCopy.ground);
+            this.nonGround = toCopy.nonGround;
+            this.nonGroundOwned = false;
+        }
+
+        IntHashSet mutableBucket(GroundArgs args) {
+            IntHashSet bucket = ground.get(args);
+            if(bucket == null) {
+                bucket = new IntHashSet();
+                ground.put(args, bucket);
+                ownedBuckets.add(args);
+            } else if(ownedBuckets.add(args)) {
+                bucket = new IntHashSet(bucket);
+                ground.put(args, bucket);
+            }
+            return bucket;
+        }
+
+        IntHashSet mutableNonGround() {
+            if(!nonGroundOwned) {
+                nonGround = new IntHashSet(nonGround);
+                nonGroundOwned = true;
+            }
+            return nonGround;
+        }
+    }
+
+    /** For each timeline ID, the IDs of the timelines that might threaten it (symmetric), null if none. */
+    private IntHashSet[] threats;
+
+    /** For each row of the threats array, the token of the cache allowed to modify it. */
+    private Object[] rowOwners;
+
+    /** Token identifying this cache as the owner of rows, replaced whenever the cache is copied. */
+    private Object token = new Object();
+
+    /**
+     * For each timeline ID, the arguments with which it was indexed: NON_GROUND if it was not ground
+     * and null if it is not indexed.
+     */
+    private GroundArgs[] groundArgs;
+
+    /** True if the threats, rowOwners and groundArgs arrays might be shared with another cache. */
+    private boolean arraysShared;
+
+    /** Indexed timelines by function */
+    private HashMap<Function, FunctionIndex> index;
+
+    /** True if the index map might be shared with another cache. */
+    private boolean indexShared;
+
     private final PartialPlan st;
 
     ThreatsCache(PartialPlan initialPartialPlan) {
         this.st = initialPartialPlan;
-        this.threats = new HashSet<>();
+        this.threats = new IntHashSet[16];
+        this.rowOwners = new Object[16];
+        this.groundArgs = new GroundArgs[16];
+        this.arraysShared = false;
+        this.index = new HashMap<>();
+        this.indexShared = false;
 
         st.tdb.getTimelinesStream().forEach(tl -> timelineAdded(tl));
     }
 
     private ThreatsCache(ThreatsCache toCopy, PartialPlan st) {
         this.st = st;
-        this.threats = new HashSet<>(toCopy.threats);
-    }
-
-    private class PotentialThreat {
-        private final int id1, id2;
-        private PotentialThreat(Timeline tl1, Timeline tl2) {
-            assert tl1 != tl2;
-            if(tl1.mID < tl2.mID) {
-                id1 = tl1.mID;
-                id2 = tl2.mID;
-            } else {
-                id1 = tl2.mID;
-                id2 = tl1.mID;
-            }
-        }
-        @Override public int hashCode() { return id1 + 42*id2; }
-        @Override public boolean equals(Object o) {
-            return o instanceof PotentialThreat && id1 == ((PotentialThreat) o).id1 && id2 == ((PotentialThreat) o).id2;
-        }
+        this.threats = toCopy.threats;
+        this.rowOwners = toCopy.rowOwners;
+        this.groundArgs = toCopy.groundArgs;
+        this.arraysShared = true;
+        this.index = toCopy.index;
+        this.indexShared = true;
+        // rows and function indexes currently owned by the original are now shared, neither cache can modify them in place
+        toCopy.token = new Object();
+        toCopy.arraysShared = true;
+        toCopy.indexShared = true;
     }
 
     @Override
@@ -46,56 +154,197 @@ class ThreatsCache implements StateExtension {
         return new ThreatsCache(this, st);
     }
 
-    @Override
-    public void timelineAdded(Timeline a) {
-        for(Timeline b : st.tdb.getTimelines()) {
-            if(!st.unifiable(a.stateVariable, b.stateVariable))
-                continue;
+    /** Returns the index of this function, making sure it can be modified by this cache. */
+    private FunctionIndex mutableIndex(Function func) {
+        if(indexShared) {
+            index = new HashMap<>(index);
+            indexShared = false;
+        }
+        FunctionIndex fi = index.get(func);
+        if(fi == null) {
+            fi = new FunctionIndex(token);
+            index.put(func, fi);
+        } else if(fi.owner != token) {
+            fi = new FunctionIndex(fi, token);
+            index.put(func, fi);
+        }
+        return fi;
+    }
 
-            if(isThreatening(st, a, b)) {
-                threats.add(new PotentialThreat(a, b));
+    /** Makes sure the threats, rowOwners and groundArgs arrays are owned by this cache and have a slot for this ID */
+    private void ensureArraysOwned(int id) {
+        if(arraysShared || id >= threats.length) {
+            final int length = id < threats.length ? threats.length : Math.max(id + 1, threats.length * 2);
+            threats = Arrays.copyOf(threats, length);
+            rowOwners = Arrays.copyOf(rowOwners, length);
+            groundArgs = Arrays.copyOf(groundArgs, length);
+            arraysShared = false;
+        }
+    }
+
+    /** Returns the row of the given timeline, making sure it can be modified by this cache. */
+    private IntHashSet mutableRow(int id) {
+        ensureArraysOwned(id);
+        if(threats[id] == null) {
+            threats[id] = new IntHashSet();
+            rowOwners[id] = token;
+        } else if(rowOwners[id] != token) {
+            threats[id] = new IntHashSet(threats[id]);
+            rowOwners[id] = token;
+        }
+        return threats[id];
+    }
+
+    private IntHashSet row(int id) {
+        return id < threats.length ? threats[id] : null;
+    }
+
+    /** Value IDs of the arguments of the timeline's state variable or NON_GROUND if one of them is not bound. */
+    private GroundArgs groundArgsOf(Timeline tl) {
+        VarRef[] args = tl.stateVariable.args();
+        int[] values = new int[args.length];
+        for(int i=0 ; i<args.length ; i++) {
+            if(!st.csp.bindings().contains(args[i]) || st.domainSizeOf(args[i]) != 1)
+                return NON_GROUND;
+            values[i] = st.csp.bindings().domainIDs(args[i]).min();
+        }
+        return new GroundArgs(values);
+    }
+
+    /** Arguments with which this timeline was indexed, null if it is not indexed */
+    private GroundArgs indexedArgs(int id) {
+        return id < groundArgs.length ? groundArgs[id] : null;
+    }
+
+    private void addToIndex(Timeline tl) {
+        GroundArgs args = groundArgsOf(tl);
+        FunctionIndex fi = mutableIndex(tl.stateVariable.func());
+        if(args != NON_GROUND)
+            fi.mutableBucket(args).add(tl.mID);
+        else
+            fi.mutableNonGround().add(tl.mID);
+        ensureArraysOwned(tl.mID);
+        groundArgs[tl.mID] = args;
+    }
+
+    private void removeFromIndex(Timeline tl) {
+        FunctionIndex fi = mutableIndex(tl.stateVariable.func());
+        GroundArgs args = groundArgs[tl.mID];
+        ensureArraysOwned(tl.mID);
+        groundArgs[tl.mID] = null;
+        if(args != NON_GROUND) {
+            IntHashSet bucket = fi.mutableBucket(args);
+            bucket.remove(tl.mID);
+            if(bucket.isEmpty()) {
+                fi.ground.remove(args);
+                fi.ownedBuckets.remove(args);
             }
+        } else {
+            fi.mutableNonGround().remove(tl.mID);
+        }
+    }
+
+    /**
+     * IDs of all indexed timelines whose state variable might be unifiable with the one of the timeline.
+     * Ground timelines can only be unified with the ground timelines with the same arguments and the
+     * non-ground ones. Timelines indexed as non ground might have been bound since, hence they are
+     * checked against all timelines of the function.
+     */
+    private List<int[]> candidates(Timeline tl) {
+        FunctionIndex fi = index.get(tl.stateVariable.func());
+        if(fi == null)
+            return Collections.emptyList();
+        List<int[]> candidates = new ArrayList<>();
+        candidates.add(fi.nonGround.toArray());
+        GroundArgs args = indexedArgs(tl.mID);
+        if(args != null && args != NON_GROUND) {
+            if(fi.ground.containsKey(args))
+                candidates.add(fi.ground.get(args).toArray());
+        } else {
+            for(IntHashSet bucket : fi.ground.values())
+                candidates.add(bucket.toArray());
         }
+        return candidates;
+    }
+
+    private void addThreat(int id1, int id2) {
+        mutableRow(id1).add(id2);
+        mutableRow(id2).add(id1);
+    }
+
+    private void removeThreat(int id1, int id2) {
+        mutableRow(id1).remove(id2);
+        mutableRow(id2).remove(id1);
+    }
+
+    /** Removes all potential threats involving this timeline. */
+    private void removeThreatsOf(int id) {
+        IntHashSet others = row(id);
+        if(others == null || others.isEmpty())
+            return;
+        for(int other : others.toArray())
+            mutableRow(other).remove(id);
+        ensureArraysOwned(id);
+        threats[id] = null;
+        rowOwners[id] = null;
+    }
+
+    /** Records all timelines threatening this one among the possibly unifiable ones */
+    private void checkThreatsOf(Timeline a) {
+        for(int[] ids : candidates(a)) {
+            for(int id : ids) {
+                if(id == a.mID)
+                    continue;
+                Timeline b = st.getTimeline(id);
+                if(isThreatening(st, a, b))
+                    addThreat(a.mID, b.mID);
+            }
+        }
+    }
+
+    @Override
+    public void timelineAdded(Timeline a) {
+        if(indexedArgs(a.mID) != null)
+            removeFromIndex(a);
+        addToIndex(a);
+        checkThreatsOf(a);
     }
 
     @Override
     public void timelineRemoved(Timeline tl) {
-        List<PotentialThreat> toRemove = new ArrayList<>();
-        for(PotentialThreat t : threats)
-            if(t.id1 == tl.mID || t.id2 == tl.mID)
-                toRemove.add(t);
-        threats.removeAll(toRemove);
+        removeThreatsOf(tl.mID);
+        if(indexedArgs(tl.mID) != null)
+            removeFromIndex(tl);
     }
 
     @Override
     public void timelineExtended(Timeline tl) {
-        List<PotentialThreat> toRemove = new ArrayList<>();
-        for(PotentialThreat pt : threats)
-            if(pt.id1 == tl.mID || pt.id2 == tl.mID)
-                toRemove.add(pt);
-        threats.removeAll(toRemove);
-
-        for(Timeline b : st.tdb.getTimelines()) {
-            if(isThreatening(st, tl, b)) {
-                threats.add(new PotentialThreat(tl, b));
-            }
-        }
+        removeThreatsOf(tl.mID);
+        checkThreatsOf(tl);
     }
 
     List<Flaw> getAllThreats() {
-        List<PotentialThreat> toRemove = new ArrayList<>();
+        List<int[]> toRemove = new ArrayList<>();
         List<Flaw> verifiedThreats = new ArrayList<>();
-        for(PotentialThreat pt : threats) {
-            Timeline tl1 = st.getTimeline(pt.id1);
-            Timeline tl2 = st.getTimeline(pt.id2);
-            if(isThreatening(st, tl1, tl2)) {
-                verifiedThreats.add(new Threat(tl1, tl2));
-            } else {
-                assert !isThreatening(st, tl2, tl1);
-                toRemove.add(pt);
+        for(int id1 = 0 ; id1 < threats.length ; id1++) {
+            if(threats[id1] == null)
+                continue;
+            for(PrimitiveIterator.OfInt it = threats[id1].iterator() ; it.hasNext() ; ) {
+                final int id2 = it.nextInt();
+                if(id1 >= id2)
+                    continue; // each pair is present twice
+                Timeline tl1 = st.getTimeline(id1);
+                Timeline tl2 = st.getTimeline(id2);
+                if(isThreatening(st, tl1, tl2)) {
+                    verifiedThreats.add(new Threat(tl1, tl2));
+                } else {
+                    assert !isThreatening(st, tl2, tl1);
+                    toRemove.add(new int[] { id1, id2 });
+                }
             }
         }
-        threats.removeAll(toRemove);
+        for(int[] pair : toRemove)
+            removeThreat(pair[0], pair[1]);
 
         return verifiedThreats;
     }
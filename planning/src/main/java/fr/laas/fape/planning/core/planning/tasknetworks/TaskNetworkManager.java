@@ -22,12 +22,18 @@ import java.util.List;
 
 public class TaskNetworkManager implements Reporter {
 
-    private final UnlabeledDigraph<TNNode> network;
+    private UnlabeledDigraph<TNNode> network;
 
     private int numRoots;
     private int numOpenTasks;
     private int numUnmotivatedActions;
-    private final List<Action> actions;
+    private List<Action> actions;
+
+    /**
+     * True if the network and the actions list might be shared with another manager.
+     * Those are only copied before the first modification (copy-on-write).
+     */
+    private boolean shared;
 
 
     public TaskNetworkManager() {
@@ -36,14 +42,26 @@ public class TaskNetworkManager implements Reporter {
         numOpenTasks = 0;
         numUnmotivatedActions = 0;
         actions = new ArrayList<>();
+        shared = false;
     }
 
     private TaskNetworkManager(TaskNetworkManager base) {
-        this.network = base.network.cc();
+        this.network = base.network;
         this.numRoots = base.numRoots;
         this.numOpenTasks = base.numOpenTasks;
         this.numUnmotivatedActions = base.numUnmotivatedActions;
-        actions = new ArrayList<>(base.actions);
+        this.actions = base.actions;
+        this.shared = true;
+        base.shared = true;
+    }
+
+    /** Makes sure the network and the actions list are not shared before modifying them. */
+    private void ensureOwned() {
+        if(shared) {
+            network = network.cc();
+            actions = new ArrayList<>(actions);
+            shared = false;
+        }
     }
 
     private List<Task> openTasks = null;
@@ -218,6 +236,7 @@ public class TaskNetworkManager implements Reporter {
         assert network.contains(new TNNode(cond));
         assert network.contains(new TNNode(a));
         assert network.outDegree(new TNNode(cond)) == 0;
+        ensureOwned();
         network.addEdge(new TNNode(cond), new TNNode(a));
         if(network.inDegree(new TNNode(a)) == 1) {
             numRoots--;
@@ -234,6 +253,7 @@ public class TaskNetworkManager implements Reporter {
      * O(1)
      */
     public void insert(Action a) {
+        ensureOwned();
         network.addVertex(new TNNode(a));
         actions.add(a);
 
@@ -254,6 +274,7 @@ public class TaskNetworkManager implements Reporter {
      *               present in the task network.
      */
     public void insert(Task ac, Action parent) {
+        ensureOwned();
         network.addVertex(new TNNode(ac));
         network.addEdge(new TNNode(parent), new TNNode(ac));
         numOpenTasks++;
@@ -261,6 +282,7 @@ public class TaskNetworkManager implements Reporter {
     }
 
     public void setSubtaskOf(Task t, Action parent) {
+        ensureOwned();
         network.addEdge(new TNNode(parent), new TNNode(t));
         clearCache();
     }
@@ -270,6 +292,7 @@ public class TaskNetworkManager implements Reporter {
      * @param ac The action condition.
      */
     public void insert(Task ac) {
+        ensureOwned();
         network.addVertex(new TNNode(ac));
         numOpenTasks++;
         clearCache();
@@ -359,8 +382,8 @@ public class TaskNetworkManager implements Reporter {
     }
 
     /**
-     * Performs recursively a deep copy on the task network manager and all its
-     * actions.
+     * Copies the task network manager. The underlying network is shared until one of
+     * the two managers is modified.
      * @return A new TaskManager with the same content.
      */
     public TaskNetworkManager deepCopy() {
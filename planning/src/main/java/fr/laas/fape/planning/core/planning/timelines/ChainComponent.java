@@ -7,6 +7,7 @@ import fr.laas.fape.anml.model.concrete.statements.Persistence;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,8 +28,8 @@ public class ChainComponent {
      */
     public final int mID;
 
-    /** Next mID for newly created ChainComponents. */
-    private static int nextID=0;
+    /** Next mID for newly created ChainComponents, shared by all threads building states. */
+    private static final AtomicInteger nextID = new AtomicInteger(0);
 
     /** All statements in this chain component. */
     public final LogStatement[] statements;
@@ -40,7 +41,7 @@ public class ChainComponent {
      * @param s Statement to be included in the component
      */
     public ChainComponent(LogStatement s) {
-        mID = nextID++;
+        mID = nextID.getAndIncrement();
         statements = new LogStatement[1];
         statements[0] = s;
         change = !(s instanceof Persistence);
@@ -22,15 +22,23 @@ public class TimelinesManager implements Reporter, Iterable<Timeline> {
     private Timeline[] timelines;
     private final PartialPlan listener;
 
-    private final List<Timeline> consumers;
+    private List<Timeline> consumers;
+
+    /**
+     * True if the timelines array and the consumers list might be shared with another manager.
+     * Timelines are immutable, hence those are only copied before the first modification (copy-on-write).
+     */
+    private boolean shared;
 
     private int nextTimelineID;
 
     public TimelinesManager(TimelinesManager toCopy, PartialPlan containingPartialPlan) {
         listener = containingPartialPlan;
-        this.consumers = new LinkedList<>(toCopy.consumers);
-        this.timelines = Arrays.copyOf(toCopy.timelines, toCopy.timelines.length);
+        this.consumers = toCopy.consumers;
+        this.timelines = toCopy.timelines;
         this.nextTimelineID = toCopy.nextTimelineID;
+        this.shared = true;
+        toCopy.shared = true;
 
         if(Planner.debugging) {
             for (Timeline a : consumers) assert hasTimeline(a);
@@ -42,6 +50,16 @@ public class TimelinesManager implements Reporter, Iterable<Timeline> {
         timelines = new Timeline[100];
         listener = containingPartialPlan;
         consumers = new LinkedList<>();
+        shared = false;
+    }
+
+    /** Makes sure the timelines array and the consumers list are not shared before modifying them. */
+    private void ensureOwned() {
+        if(shared) {
+            timelines = Arrays.copyOf(timelines, timelines.length);
+            consumers = new LinkedList<>(consumers);
+            shared = false;
+        }
     }
 
     private boolean hasTimeline(Timeline tl) {
@@ -72,6 +90,7 @@ public class TimelinesManager implements Reporter, Iterable<Timeline> {
 
     public void addTimeline(Timeline tl) {
         assert !hasTimeline(tl);
+        ensureOwned();
         if(tl.mID >= timelines.length)
             timelines = Arrays.copyOf(timelines, timelines.length*2);
         timelines[tl.mID] = tl;
@@ -83,6 +102,7 @@ public class TimelinesManager implements Reporter, Iterable<Timeline> {
 
     public void removeTimeline(Timeline tl) {
         assert timelines[tl.mID] == tl;
+        ensureOwned();
         timelines[tl.mID] = null;
         consumers.remove(tl);
 
@@ -109,6 +129,7 @@ public class TimelinesManager implements Reporter, Iterable<Timeline> {
     private void update(Timeline tl) {
         assert timelines[tl.mID] != null;
         assert timelines[tl.mID].mID == tl.mID;
+        ensureOwned();
 
         // replace var with the same ID
         timelines[tl.mID] = tl;
@@ -245,15 +266,33 @@ public class TimelinesManager implements Reporter, Iterable<Timeline> {
             st.addUnificationConstraint(first.getSupportValue(), second.getConsumeValue());
 
             // Enforce all statements of first to be before all statements of second
-            for(LogStatement sa : first.statements) {
-                for(LogStatement sb : second.statements) {
-                    st.enforceBefore(sa.end(), sb.start());
+            st.csp.stn().startBatch();
+            try {
+                for (LogStatement sa : first.statements) {
+                    for (LogStatement sb : second.statements) {
+                        st.enforceBefore(sa.end(), sb.start());
+                    }
                 }
+            } catch (RuntimeException e) {
+                st.csp.stn().abortBatch();
+                throw e;
             }
+            st.csp.stn().endBatch();
         }
     }
 
     public void enforceAllConstraints(PartialPlan st, Timeline tdb) {
+        st.csp.stn().startBatch();
+        try {
+            enforceAllConstraintsInBatch(st, tdb);
+        } catch (RuntimeException e) {
+            st.csp.stn().abortBatch();
+            throw e;
+        }
+        st.csp.stn().endBatch();
+    }
+
+    private void enforceAllConstraintsInBatch(PartialPlan st, Timeline tdb) {
         for(int i=0 ; i<tdb.size()-1 ; i++) {
             //enforceChainConstraints(st, tdb, i);
             int j = i+1;
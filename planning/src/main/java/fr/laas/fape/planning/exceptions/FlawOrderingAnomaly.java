@@ -6,6 +6,10 @@ import lombok.Value;
 
 import java.util.List;
 
+/**
+ * Raised when debugging, if the flaw selected when building a child is not the one that was selected
+ * when expanding its parent (see Planner.checkFlawOrdering).
+ */
 @Value @EqualsAndHashCode(callSuper = true)
 public class FlawOrderingAnomaly extends RuntimeException {
     final List<Flaw> flaws;
@@ -4,23 +4,67 @@ import java.security.InvalidParameterException;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Map from identifiable objects to integers, with an array indexed by the integer representation of the keys.
+ *
+ * The array is split in pages that are shared with the clones of the map and only copied before being modified
+ * (copy-on-write): cloning a map only copies its table of pages. Each page is owned by at most one map (identified
+ * by a token) and is copied before being modified by any other one. A map must not be modified while it is cloned.
+ */
 public class IR2IntMap<K> implements Map<K, Integer> {
     private static int NIL = Integer.MIN_VALUE;
 
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
     int numElem = 0;
-    int[] values;
+    /** Pages of values, null for a page with no value */
+    private int[][] pages;
+    /** For each page, the token of the map allowed to modify it in place */
+    private Object[] pageOwners;
+    /** Token identifying this map as the owner of pages, replaced whenever the map is cloned */
+    private Object token = new Object();
     final IntRep<K> keyRep;
 
     public IR2IntMap(IntRep<K> keyRep) {
         this.keyRep = keyRep;
-        values = new int[10];
-        Arrays.fill(values, NIL);
+        pages = new int[1][];
+        pageOwners = new Object[1];
     }
 
     public IR2IntMap(IR2IntMap<K> toClone) {
-        this.numElem = toClone.numElem;
-        this.values = Arrays.copyOf(toClone.values, toClone.values.length);
-        this.keyRep = toClone.keyRep;
+        synchronized (toClone) {
+            this.numElem = toClone.numElem;
+            this.pages = toClone.pages.clone();
+            this.pageOwners = new Object[pages.length];
+            this.keyRep = toClone.keyRep;
+            toClone.token = new Object(); // pages are now shared with this copy
+        }
+    }
+
+    /** Number of slots for keys, all keys in the map have an integer representation below it */
+    private int capacity() {
+        return pages.length << PAGE_BITS;
+    }
+
+    private int value(int k) {
+        final int[] page = pages[k >>> PAGE_BITS];
+        return page == null ? NIL : page[k & PAGE_MASK];
+    }
+
+    /** Sets the value of a key, copying or creating its page first if needed */
+    private void setValue(int k, int v) {
+        final int p = k >>> PAGE_BITS;
+        if(pages[p] == null) {
+            pages[p] = new int[PAGE_SIZE];
+            Arrays.fill(pages[p], NIL);
+            pageOwners[p] = token;
+        } else if(pageOwners[p] != token) {
+            pages[p] = pages[p].clone();
+            pageOwners[p] = token;
+        }
+        pages[p][k & PAGE_MASK] = v;
     }
 
     @Override
@@ -36,32 +80,28 @@ public class IR2IntMap<K> implements Map<K, Integer> {
     @Override
     @SuppressWarnings("unchecked")
     public boolean containsKey(Object o) {
-        if(values.length <= keyRep.asInt((K) o))
-            return false;
-        else
-            return values[keyRep.asInt((K) o)] != NIL;
+        return containsKey(keyRep.asInt((K) o));
     }
 
     public boolean containsKey(int k) {
-        if(values.length <= k)
+        if(capacity() <= k)
             return false;
         else
-            return values[k] != NIL;
+            return value(k) != NIL;
     }
 
     @Override
     public boolean containsValue(Object o) {
         if (o == null || NIL == ((int) o)) throw new InvalidParameterException("This map uses "+NIL+" to represent the absence of value");
-        for (int i = 0; i < values.length; i++)
-            if (values[i] == (int) o)
-                return true;
-        return false;
+        return containsValue((int) o);
     }
 
     public boolean containsValue(int val) {
-        for (int i = 0; i < values.length; i++)
-            if (values[i] == val)
-                return true;
+        for (int[] page : pages)
+            if (page != null)
+                for (int v : page)
+                    if (v == val)
+                        return true;
         return false;
     }
 
@@ -70,13 +110,13 @@ public class IR2IntMap<K> implements Map<K, Integer> {
     public Integer get(Object o) {
         if (!(o instanceof Identifiable)) throw new InvalidParameterException("Parameter is not identifiable: " + o);
         if (!containsKey(o)) throw new NoSuchElementException();
-        return values[keyRep.asInt((K) o)];
+        return value(keyRep.asInt((K) o));
     }
 
     @SuppressWarnings("unchecked")
     public int get(int k) {
         if (!containsKey(k)) throw new NoSuchElementException();
-        return values[k];
+        return value(k);
     }
 
     @Override
@@ -84,13 +124,13 @@ public class IR2IntMap<K> implements Map<K, Integer> {
         return containsKey(o) ? get(o) : n;
     }
 
-    /** Make sure the values table is big enough for a key with the given index */
+    /** Make sure the table of pages is big enough for a key with the given index */
     private void ensureSpace(int index) {
-        if(index >= values.length) {
-            int oldSize = values.length;
-            int newSize = index+1 > values.length * 2 ? index+1 : values.length * 2;
-            values = Arrays.copyOf(values, newSize);
-            Arrays.fill(values, oldSize, newSize, NIL);
+        if(index >= capacity()) {
+            int minPages = (index >>> PAGE_BITS) + 1;
+            int newSize = minPages > pages.length * 2 ? minPages : pages.length * 2;
+            pages = Arrays.copyOf(pages, newSize);
+            pageOwners = Arrays.copyOf(pageOwners, newSize);
         }
     }
 
@@ -102,7 +142,7 @@ public class IR2IntMap<K> implements Map<K, Integer> {
             numElem += 1;
         }
 
-        values[keyRep.asInt(k)] = v;
+        setValue(keyRep.asInt(k), v);
         return v;
     }
 
@@ -112,7 +152,7 @@ public class IR2IntMap<K> implements Map<K, Integer> {
             ensureSpace(k);
             numElem += 1;
         }
-        values[k] = v;
+        setValue(k, v);
         return v;
     }
 
@@ -129,17 +169,14 @@ public class IR2IntMap<K> implements Map<K, Integer> {
     public Integer remove(Object o) {
         if (!(o instanceof Identifiable)) throw new InvalidParameterException("Parameter is not identifiable: " + o);
         if (!containsKey(o)) return null; //throw new NoSuchElementException();
-        Integer val = values[keyRep.asInt((K) o)];
-        values[keyRep.asInt((K) o)] = NIL;
-        numElem--;
-        return val;
+        return remove(keyRep.asInt((K) o));
     }
 
     @SuppressWarnings("unchecked")
     public int remove(int k) {
         if (!containsKey(k)) throw new NoSuchElementException();
-        int val = values[k];
-        values[k] = NIL;
+        int val = value(k);
+        setValue(k, NIL);
         numElem--;
         return val;
     }
@@ -151,7 +188,8 @@ public class IR2IntMap<K> implements Map<K, Integer> {
 
     @Override
     public void clear() {
-        values = new int[10];
+        pages = new int[1][];
+        pageOwners = new Object[1];
         numElem = 0;
     }
 
@@ -164,8 +202,8 @@ public class IR2IntMap<K> implements Map<K, Integer> {
     @SuppressWarnings("unchecked")
     public Set<K> keySet() {
         HashSet<K> keys = new HashSet<>();
-        for (int i = 0; i < values.length; i++)
-            if (values[i] != NIL)
+        for (int i = 0; i < capacity(); i++)
+            if (value(i) != NIL)
                 keys.add(keyRep.fromInt(i));
         return keys;
     }
@@ -174,8 +212,8 @@ public class IR2IntMap<K> implements Map<K, Integer> {
         return () -> new Iterator<K>() {
             int cur = 0;
             public boolean hasNext() {
-                while(cur < values.length && values[cur] == NIL) cur++;
-                return cur < values.length;
+                while(cur < capacity() && value(cur) == NIL) cur++;
+                return cur < capacity();
             }
 
             @Override
@@ -190,16 +228,16 @@ public class IR2IntMap<K> implements Map<K, Integer> {
             int i = 0;
             @Override
             public int nextInt() {
-                while(i<values.length && !containsKey(i))
+                while(i<capacity() && !containsKey(i))
                     i++;
                 return i++;
             }
 
             @Override
             public boolean hasNext() {
-                while(i<values.length && !containsKey(i))
+                while(i<capacity() && !containsKey(i))
                     i++;
-                return i<values.length;
+                return i<capacity();
             }
         };
     }
@@ -207,11 +245,13 @@ public class IR2IntMap<K> implements Map<K, Integer> {
     public int[] valuesArray() {
         int[] out = new int[numElem];
         int i = 0;
-        for (int val : values)
-            if (val != NIL) {
-                out[i] = val;
-                i++;
-            }
+        for (int[] page : pages)
+            if (page != null)
+                for (int val : page)
+                    if (val != NIL) {
+                        out[i] = val;
+                        i++;
+                    }
         assert i == numElem;
         return out;
     }
@@ -219,9 +259,11 @@ public class IR2IntMap<K> implements Map<K, Integer> {
     @Override
     public Collection<Integer> values() {
         List<Integer> vals = new ArrayList<>();
-        for (int val : values)
-            if (val != NIL)
-                vals.add(val);
+        for (int[] page : pages)
+            if (page != null)
+                for (int val : page)
+                    if (val != NIL)
+                        vals.add(val);
         return vals;
     }
 
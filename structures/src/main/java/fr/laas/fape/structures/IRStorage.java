@@ -15,7 +15,7 @@ public class IRStorage {
         return ((Ident) clazz.getAnnotation(Ident.class)).value();
     }
 
-    public Object get(Class clazz, List<Object> params) {
+    public synchronized Object get(Class clazz, List<Object> params) {
         try {
             final Class identClazz = getIdentClass(clazz);
 
@@ -51,7 +51,7 @@ public class IRStorage {
         }
     }
 
-    public Identifiable get(Class clazz, int id) {
+    public synchronized Identifiable get(Class clazz, int id) {
         try {
             return instances.get(getIdentClass(clazz)).get(id);
         } catch (IndexOutOfBoundsException e) {
@@ -59,11 +59,11 @@ public class IRStorage {
         }
     }
 
-    public int getHigherID(Class clazz) {
+    public synchronized int getHigherID(Class clazz) {
         return instances.get(getIdentClass(clazz)).size();
     }
 
-    public void record(Identifiable o) {
+    public synchronized void record(Identifiable o) {
         assert o.getID() >= 0;
         Class identClazz = getIdentClass(o.getClass());
         instances.putIfAbsent(identClazz, new ArrayList<>(50));
@@ -74,7 +74,7 @@ public class IRStorage {
         allVals.set(o.getID(), o);
     }
 
-    public <T extends Identifiable> IntRep<T> getIntRep(Class<T> clazz) {
+    public synchronized <T extends Identifiable> IntRep<T> getIntRep(Class<T> clazz) {
         final Class identClazz = getIdentClass(clazz);
         instancesByParams.putIfAbsent(identClazz, new HashMap<>());
         instances.putIfAbsent(identClazz, new ArrayList<>());
@@ -92,7 +92,7 @@ public class IRStorage {
     }
 
     @SuppressWarnings("unchecked")
-    public <T> List<T> getInstances(Class<T> clazz) {
+    public synchronized <T> List<T> getInstances(Class<T> clazz) {
         final Class identClazz = getIdentClass(clazz);
         instancesByParams.putIfAbsent(identClazz, new HashMap<>());
         instances.putIfAbsent(identClazz, new ArrayList<>());
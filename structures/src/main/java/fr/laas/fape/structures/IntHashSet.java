@@ -0,0 +1,139 @@
+package fr.laas.fape.structures;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of primitive integers, implemented as an open-addressing hash table with linear probing.
+ *
+ * Keys are spread with a well-mixed hash (finalizer of MurmurHash3) so that consecutive integers
+ * do not end up in the same region of the table. Removal shifts back the following entries,
+ * hence the table never contains tombstones.
+ *
+ * Integer.MIN_VALUE is used to mark empty slots and cannot be stored in the set.
+ */
+public class IntHashSet {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] table;
+    private int size = 0;
+
+    public IntHashSet() {
+        table = new int[8];
+        Arrays.fill(table, EMPTY);
+    }
+
+    public IntHashSet(IntHashSet toCopy) {
+        table = Arrays.copyOf(toCopy.table, toCopy.table.length);
+        size = toCopy.size;
+    }
+
+    private static int mix(int k) {
+        k ^= k >>> 16;
+        k *= 0x85ebca6b;
+        k ^= k >>> 13;
+        k *= 0xc2b2ae35;
+        k ^= k >>> 16;
+        return k;
+    }
+
+    private int slot(int k) {
+        final int mask = table.length - 1;
+        int i = mix(k) & mask;
+        while(table[i] != EMPTY && table[i] != k)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public boolean contains(int k) {
+        assert k != EMPTY;
+        return table[slot(k)] == k;
+    }
+
+    /** Adds k to the set and returns true if it was not already present. */
+    public boolean add(int k) {
+        assert k != EMPTY : "Integer.MIN_VALUE cannot be stored in an IntHashSet";
+        int i = slot(k);
+        if(table[i] == k)
+            return false;
+        table[i] = k;
+        size++;
+        if(2 * size > table.length)
+            grow();
+        return true;
+    }
+
+    /** Removes k from the set and returns true if it was present. */
+    public boolean remove(int k) {
+        assert k != EMPTY;
+        final int mask = table.length - 1;
+        int i = slot(k);
+        if(table[i] != k)
+            return false;
+        table[i] = EMPTY;
+        size--;
+        // shift back following entries whose probe sequence went through the freed slot
+        int j = (i + 1) & mask;
+        while(table[j] != EMPTY) {
+            final int home = mix(table[j]) & mask;
+            if(((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                table[j] = EMPTY;
+                i = j;
+            }
+            j = (j + 1) & mask;
+        }
+        return true;
+    }
+
+    private void grow() {
+        int[] old = table;
+        table = new int[old.length * 2];
+        Arrays.fill(table, EMPTY);
+        for(int k : old)
+            if(k != EMPTY)
+                table[slot(k)] = k;
+    }
+
+    /** Iterator on the elements of the set. The set must not be modified during iteration. */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            int next = advance(0);
+
+            private int advance(int from) {
+                while(from < table.length && table[from] == EMPTY)
+                    from++;
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() { return next < table.length; }
+
+            @Override
+            public int nextInt() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                int ret = table[next];
+                next = advance(next + 1);
+                return ret;
+            }
+        };
+    }
+
+    public int[] toArray() {
+        int[] ret = new int[size];
+        int n = 0;
+        for(int k : table)
+            if(k != EMPTY)
+                ret[n++] = k;
+        return ret;
+    }
+
+    @Override
+    public String toString() { return Arrays.toString(toArray()); }
+}
@@ -0,0 +1,112 @@
+package fr.laas.fape.structures
+
+import org.scalatest.FunSuite
+
+import scala.util.Random
+
+class IR2IntMapSuite extends FunSuite {
+
+  private val rep = new IntRep[Integer] {
+    override def asInt(t: Integer): Int = t
+    override def fromInt(id: Int): Integer = id
+    override def hasRepresentation(t: Integer): Boolean = true
+  }
+
+  private def keys(map: IR2IntMap[Integer]): Set[Int] = {
+    val it = map.keysIterator()
+    var seen = Set[Int]()
+    while(it.hasNext)
+      seen += it.nextInt()
+    seen
+  }
+
+  /** Checks that the map contains exactly the entries of the reference */
+  private def check(map: IR2IntMap[Integer], ref: scala.collection.Map[Int,Int]): Unit = {
+    assert(map.size() == ref.size)
+    assert(keys(map) == ref.keySet)
+    for((k, v) <- ref)
+      assert(map.get(k) == v)
+    assert(map.valuesArray().sorted.toList == ref.values.toList.sorted)
+  }
+
+  test("Put, remove and get are consistent with a reference map") {
+    val rand = new Random(42)
+    val map = new IR2IntMap[Integer](rep)
+    val ref = scala.collection.mutable.Map[Int,Int]()
+
+    for(_ <- 0 until 10000) {
+      val k = rand.nextInt(2000)
+      if(rand.nextBoolean()) {
+        val v = rand.nextInt(100)
+        map.put(k, v)
+        ref(k) = v
+      } else if(ref.contains(k)) {
+        assert(map.remove(k) == ref(k))
+        ref -= k
+      } else {
+        assert(!map.containsKey(k))
+      }
+    }
+    check(map, ref)
+  }
+
+  test("Clones are independent") {
+    val map = new IR2IntMap[Integer](rep)
+    (0 until 300).foreach(k => map.put(k, k))
+    val copy = map.clone()
+
+    // writes to both maps, in shared pages and in the same slots
+    copy.put(0, 100)
+    map.put(1, 101)
+    map.put(0, 200)
+    copy.remove(2)
+    map.remove(3)
+    // grows past the last page, in only one of them
+    copy.put(1000, 7)
+    map.put(300, 8)
+
+    val refMap = (0 until 300).map(k => k -> k).toMap - 3 + (0 -> 200) + (1 -> 101) + (300 -> 8)
+    val refCopy = (0 until 300).map(k => k -> k).toMap - 2 + (0 -> 100) + (1000 -> 7)
+    check(map, refMap)
+    check(copy, refCopy)
+    assert(!map.containsKey(1000))
+    assert(!copy.containsKey(300))
+  }
+
+  test("Clones of clones are independent") {
+    val rand = new Random(3)
+    val maps = scala.collection.mutable.ArrayBuffer(new IR2IntMap[Integer](rep))
+    val refs = scala.collection.mutable.ArrayBuffer(Map[Int,Int]())
+
+    for(_ <- 0 until 2000) {
+      val i = rand.nextInt(maps.size)
+      if(rand.nextInt(20) == 0) {
+        maps += maps(i).clone()
+        refs += refs(i)
+      } else {
+        val k = rand.nextInt(1500)
+        if(refs(i).contains(k) && rand.nextBoolean()) {
+          maps(i).remove(k)
+          refs(i) -= k
+        } else {
+          val v = rand.nextInt(1000)
+          maps(i).put(k, v)
+          refs(i) += (k -> v)
+        }
+      }
+    }
+    for(i <- maps.indices)
+      check(maps(i), refs(i))
+  }
+
+  test("Clearing a map does not impact its clones") {
+    val map = new IR2IntMap[Integer](rep)
+    (0 until 500).foreach(k => map.put(k, k + 1))
+    val copy = map.clone()
+    map.clear()
+    map.put(4, 0)
+
+    check(map, Map(4 -> 0))
+    check(copy, (0 until 500).map(k => k -> (k + 1)).toMap)
+  }
+}
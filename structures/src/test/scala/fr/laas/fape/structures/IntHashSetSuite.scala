@@ -0,0 +1,49 @@
+package fr.laas.fape.structures
+
+import org.scalatest.FunSuite
+
+import scala.util.Random
+
+class IntHashSetSuite extends FunSuite {
+
+  test("Add, remove and contains are consistent with a reference set") {
+    val rand = new Random(42)
+    val set = new IntHashSet()
+    val ref = scala.collection.mutable.Set[Int]()
+
+    for(i <- 0 until 10000) {
+      val k = rand.nextInt(500)
+      if(rand.nextBoolean())
+        assert(set.add(k) == ref.add(k))
+      else
+        assert(set.remove(k) == ref.remove(k))
+      assert(set.size() == ref.size)
+    }
+    for(k <- 0 until 500)
+      assert(set.contains(k) == ref.contains(k))
+    assert(set.toArray.toSet == ref.toSet)
+  }
+
+  test("Copies are independent") {
+    val set = new IntHashSet()
+    (0 until 100).foreach(set.add)
+    val copy = new IntHashSet(set)
+    (0 until 50).foreach(copy.remove)
+
+    assert(set.size() == 100)
+    assert(copy.size() == 50)
+    assert((0 until 100).forall(set.contains))
+    assert((50 until 100).forall(copy.contains))
+  }
+
+  test("Iterator returns all elements") {
+    val set = new IntHashSet()
+    val elems = List(-3, 0, 7, 1000000, 42)
+    elems.foreach(set.add)
+    val it = set.iterator()
+    var seen = Set[Int]()
+    while(it.hasNext)
+      seen += it.nextInt()
+    assert(seen == elems.toSet)
+  }
+}